@@ -0,0 +1,139 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.jwks;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.corzia.oidc.internal.utils.HttpTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * ID token signature checks with a verifier built per token (the path before
+ * verifiers were precomputed) against the verifier {@link JwksKeyCache}
+ * prebuilds per (kid, alg) for each snapshot.
+ * <p>
+ * The {@code resolve*} pairs leave out the RSA operation itself, which
+ * dominates the latency, so the lookup cost shows on its own. Run with
+ * {@code -prof gc} to see the allocation per validation.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwksVerifierBenchmark {
+
+    private static final String KID = "bench-key";
+
+    private HttpServer server;
+    private JwksKeyCache cache;
+    private SignedJWT token;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        RSAKey key = new RSAKeyGenerator(2048).keyID(KID).keyUse(KeyUse.SIGNATURE)
+                .algorithm(JWSAlgorithm.RS256).generate();
+        byte[] jwks = new JWKSet(key.toPublicJWK()).toString().getBytes(StandardCharsets.UTF_8);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/jwks", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.getResponseHeaders().add("Cache-Control", "max-age=3600");
+            exchange.sendResponseHeaders(200, jwks.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(jwks);
+            }
+        });
+        server.start();
+
+        cache = JwksKeyCacheRegistry.acquire(
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/jwks", HttpTransport.DEFAULT);
+
+        token = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(KID).build(),
+                new JWTClaimsSet.Builder()
+                        .issuer("https://login.example.com/tenant/v2.0")
+                        .subject("00000000-0000-0000-0000-000000000001")
+                        .audience("client")
+                        .expirationTime(new Date(System.currentTimeMillis() + 3_600_000L))
+                        .claim("nonce", "n-0S6_WzA2Mj")
+                        .build());
+        token.sign(new RSASSASigner(key));
+        if (!verifyPerToken()) {
+            throw new IllegalStateException("Benchmark token does not verify");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        JwksKeyCacheRegistry.release(cache);
+        server.stop(0);
+    }
+
+    @Benchmark
+    public boolean verifyPerToken() throws Exception {
+        return token.verify(resolvePerToken());
+    }
+
+    @Benchmark
+    public boolean verifyPrecomputed() throws Exception {
+        return token.verify(resolvePrecomputed());
+    }
+
+    @Benchmark
+    public JWSVerifier resolvePerToken() throws Exception {
+        JWK jwk = cache.selectKey(token.getHeader().getKeyID());
+        if (!(jwk instanceof RSAKey rsaKey)) {
+            throw new IllegalStateException("No RSA key");
+        }
+        return new RSASSAVerifier(rsaKey.toRSAPublicKey());
+    }
+
+    @Benchmark
+    public JWSVerifier resolvePrecomputed() throws Exception {
+        return cache.selectVerifier(token.getHeader().getKeyID(), token.getHeader().getAlgorithm());
+    }
+}
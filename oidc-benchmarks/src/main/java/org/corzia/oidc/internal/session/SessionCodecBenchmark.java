@@ -0,0 +1,154 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.shiro.session.Session;
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
+import org.corzia.oidc.OidcConstants;
+import org.corzia.oidc.OidcUserInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding a logged-in session with {@link SessionCodec} against
+ * {@link ObjectOutputStream} / {@link ObjectInputStream}.
+ * <p>
+ * The session holds an Entra-like {@link OidcUserInfo} with 20 group ids, a
+ * claims map and three tokens of about 1 KB each. Encoded sizes are printed
+ * once per fork, at setup.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionCodecBenchmark {
+
+    private SimpleSession session;
+    private byte[] codecBytes;
+    private byte[] javaBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        List<String> groupIds = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            groupIds.add(new UUID(random.nextLong(), random.nextLong()).toString());
+        }
+        String tenant = new UUID(random.nextLong(), random.nextLong()).toString();
+        String oid = new UUID(random.nextLong(), random.nextLong()).toString();
+
+        Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("iss", "https://login.microsoftonline.com/" + tenant + "/v2.0");
+        claims.put("sub", "AAAAAAAAAAAAAAAAAAAAAIkzqFVrSaSaFHy782bbtaQ");
+        claims.put("aud", "6cb04018-a3f5-46a7-b995-940c78f5aef3");
+        claims.put("exp", 1_700_003_600L);
+        claims.put("iat", 1_700_000_000L);
+        claims.put("nbf", 1_700_000_000L);
+        claims.put("name", "Ada Lovelace");
+        claims.put("preferred_username", "ada.lovelace@example.com");
+        claims.put("oid", oid);
+        claims.put("tid", tenant);
+        claims.put("nonce", "n-0S6_WzA2Mj");
+        claims.put("groups", groupIds);
+        claims.put("roles", List.of("Portal.User", "Portal.Reader"));
+        Set<String> groups = new LinkedHashSet<>(groupIds);
+
+        OidcUserInfo user = new OidcUserInfo("entra", oid, "ada.lovelace@example.com", "ada.lovelace@example.com",
+                "Ada Lovelace", "Ada", "Lovelace", null, tenant, "sv-SE", true,
+                groups, token(random, 1100), token(random, 1400), token(random, 900), claims);
+
+        session = new SimpleSession();
+        session.setId("b8c9f1d2e3a4_tab-3f2a");
+        session.setStartTimestamp(new Date(1_700_000_000_000L));
+        session.setLastAccessTime(new Date(1_700_000_123_456L));
+        session.setTimeout(1_800_000L);
+        session.setHost("10.0.0.12");
+        session.setAttribute(OidcConstants.ATTR_TAB_ID, "tab-3f2a");
+        session.setAttribute(DefaultSubjectContext.PRINCIPALS_SESSION_KEY,
+                new SimplePrincipalCollection(user, "oidcRealm"));
+        session.setAttribute(DefaultSubjectContext.AUTHENTICATED_SESSION_KEY, true);
+
+        codecBytes = SessionCodec.encode(session);
+        javaBytes = javaEncode();
+        System.out.printf("Encoded session: SessionCodec %d bytes, ObjectOutputStream %d bytes%n",
+                codecBytes.length, javaBytes.length);
+    }
+
+    @Benchmark
+    public byte[] codecEncode() {
+        return SessionCodec.encode(session);
+    }
+
+    @Benchmark
+    public Session codecDecode() {
+        return SessionCodec.decode(codecBytes);
+    }
+
+    @Benchmark
+    public byte[] javaEncode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(session);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object javaDecode() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(javaBytes))) {
+            return in.readObject();
+        }
+    }
+
+    private static String token(Random random, int length) {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_.";
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+}
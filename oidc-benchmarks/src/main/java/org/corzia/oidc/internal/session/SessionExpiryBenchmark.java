@@ -0,0 +1,128 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.session;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.shiro.session.InvalidSessionException;
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One session validation run at 1M sessions: Shiro's default full scan, which
+ * validates every active session, against a {@link HierarchicalTimingWheel}
+ * advanced by one validation interval, which only visits the sessions that
+ * came due.
+ * <p>
+ * Idle deadlines are spread evenly over 48 hours and the wheel uses the same
+ * 1 s tick and 5 s interval as {@code HybridWebSessionManager}. Sessions the
+ * wheel returns are filed again 48 hours ahead, so its size stays constant
+ * and the cost of cascading from higher levels is included on average.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SessionExpiryBenchmark {
+
+    private static final long TICK_MILLIS = 1000L;
+    private static final long INTERVAL_MILLIS = 5 * 1000L;
+    private static final long SPREAD_MILLIS = 48 * 60 * 60 * 1000L;
+
+    @State(Scope.Benchmark)
+    public static class Sessions {
+        @Param({ "1000000" })
+        int count;
+
+        SimpleSession[] sessions;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Random random = new Random(42);
+            Date now = new Date();
+            sessions = new SimpleSession[count];
+            for (int i = 0; i < count; i++) {
+                SimpleSession session = new SimpleSession();
+                session.setId("browser" + i + "_tab" + (i & 7));
+                session.setLastAccessTime(now);
+                session.setTimeout(1 + (long) (random.nextDouble() * SPREAD_MILLIS));
+                sessions[i] = session;
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Wheel {
+        @Param({ "1000000" })
+        int count;
+
+        HierarchicalTimingWheel<String> wheel;
+        long now;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Random random = new Random(42);
+            now = System.currentTimeMillis();
+            wheel = new HierarchicalTimingWheel<>(TICK_MILLIS, now);
+            for (int i = 0; i < count; i++) {
+                wheel.schedule("browser" + i + "_tab" + (i & 7), now + 1 + (long) (random.nextDouble() * SPREAD_MILLIS));
+            }
+        }
+    }
+
+    /**
+     * What {@code AbstractValidatingSessionManager.validateSessions()} does:
+     * validate each active session.
+     */
+    @Benchmark
+    public int fullScan(Sessions state) {
+        int expired = 0;
+        for (SimpleSession session : state.sessions) {
+            try {
+                session.validate();
+            } catch (InvalidSessionException e) {
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    @Benchmark
+    public int timingWheel(Wheel state) {
+        state.now += INTERVAL_MILLIS;
+        List<String> due = state.wheel.advance(state.now);
+        for (String id : due) {
+            state.wheel.schedule(id, state.now + SPREAD_MILLIS);
+        }
+        return due.size();
+    }
+}
@@ -0,0 +1,136 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.corzia.oidc.shiro.OidcRealm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Load test for {@code security.io.virtual_threads}: how many logins per
+ * second one node completes when each login makes a blocking token call to a
+ * slow IdP, with the worker executor of either mode.
+ * <p>
+ * Every invocation starts {@value #LOGINS} logins at once on the executor
+ * {@link OidcExecutors} builds for the mode and waits for all of them; the
+ * score is logins per second. The stub IdP answers after
+ * {@code idpLatencyMillis} on virtual threads, and the token endpoint guard
+ * and HTTP client pool are sized so that neither caps the result. In
+ * platform-thread mode the fixed worker pool is the limit.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class LoginLoadBenchmark {
+
+    private static final int LOGINS = 200;
+    private static final byte[] TOKENS = "{\"id_token\":\"it\",\"access_token\":\"at\",\"expires_in\":300}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Param({ "false", "true" })
+    boolean virtualThreads;
+
+    @Param({ "100" })
+    long idpLatencyMillis;
+
+    private HttpServer idp;
+    private String tokenEndpoint;
+    private HttpTransport transport;
+    private ExecutorService workers;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        idp = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4 * LOGINS);
+        idp.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        idp.createContext("/token", exchange -> {
+            try (exchange) {
+                exchange.getRequestBody().readAllBytes();
+                Thread.sleep(idpLatencyMillis);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, TOKENS.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(TOKENS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        idp.start();
+        tokenEndpoint = "http://127.0.0.1:" + idp.getAddress().getPort() + "/token";
+
+        String provider = "load-" + virtualThreads;
+        Properties props = new Properties();
+        props.setProperty(OidcRealm.HTTP_MAX_THREADS, "64");
+        props.setProperty(OidcRealm.TOKEN_MAX_CONCURRENT, String.valueOf(4 * LOGINS));
+        transport = HttpTransport.configure(provider, props);
+        TokenEndpointGuard.configure(provider, props);
+
+        workers = OidcExecutors.newWorkers(virtualThreads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workers.shutdownNow();
+        idp.stop(0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOGINS)
+    public void concurrentLogins() {
+        CompletableFuture<?>[] logins = new CompletableFuture<?>[LOGINS];
+        for (int i = 0; i < LOGINS; i++) {
+            String code = "code-" + i;
+            logins[i] = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return HttpUtils.exchangeCode(transport, tokenEndpoint, "client", "secret", code,
+                            "https://app.example.com/portal/oidc/callback");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, workers);
+        }
+        CompletableFuture.allOf(logins).join();
+    }
+}
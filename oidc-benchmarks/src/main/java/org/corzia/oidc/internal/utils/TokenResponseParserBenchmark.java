@@ -0,0 +1,100 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Token response parsing with {@link TokenResponseParser} against the
+ * previous path, which decoded the body to a {@code String} and built an
+ * {@code org.json} DOM to read the tokens.
+ * <p>
+ * The payload has the members of a Microsoft Entra code grant response; the
+ * access token length is the parameter, giving bodies of about 4 KB and
+ * 9 KB. Run with {@code -prof gc} to compare allocation.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenResponseParserBenchmark {
+
+    @Param({ "1500", "6000" })
+    int accessTokenLength;
+
+    private byte[] body;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        body = ("{\"token_type\":\"Bearer\","
+                + "\"scope\":\"openid profile email offline_access https://graph.microsoft.com/User.Read\","
+                + "\"expires_in\":4371,\"ext_expires_in\":4371,"
+                + "\"access_token\":\"" + jwt(random, accessTokenLength) + "\","
+                + "\"refresh_token\":\"" + token(random, 1100) + "\","
+                + "\"id_token\":\"" + jwt(random, 1400) + "\","
+                + "\"client_info\":\"" + token(random, 120) + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public TokenResponse streaming() throws IOException {
+        return TokenResponseParser.parse(new ByteArrayInputStream(body));
+    }
+
+    @Benchmark
+    public TokenResponse jsonObject() {
+        JSONObject obj = new JSONObject(new String(body, StandardCharsets.UTF_8));
+        return new TokenResponse(
+                obj.getString("id_token"),
+                obj.getString("access_token"),
+                obj.optString("refresh_token", null));
+    }
+
+    private static String jwt(Random random, int length) {
+        int part = (length - 2) / 3;
+        return token(random, part) + "." + token(random, part) + "." + token(random, length - 2 - 2 * part);
+    }
+
+    private static String token(Random random, int length) {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+}
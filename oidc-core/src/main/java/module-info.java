@@ -21,6 +21,7 @@ module org.corzia.oidc {
 
     // Dependencies
     requires transitive jakarta.servlet;
+    requires java.net.http;
     requires org.apache.shiro.core;
     requires org.apache.shiro.web;
     requires org.json;
@@ -34,10 +35,15 @@ module org.corzia.oidc {
 
     // JPMS Service Discovery
     uses org.corzia.oidc.OidcClient;
+    uses org.corzia.oidc.shiro.SessionStore;
 
     provides org.corzia.oidc.OidcClient with
             org.corzia.oidc.internal.provider.GoogleOidcClient,
             org.corzia.oidc.internal.provider.EntraOidcClient,
             org.corzia.oidc.internal.provider.OktaOidcClient,
             org.corzia.oidc.internal.provider.MockOidcClient;
+
+    provides org.corzia.oidc.shiro.SessionStore with
+            org.corzia.oidc.internal.session.LoopbackSessionStore,
+            org.corzia.oidc.internal.session.MappedFileSessionStore;
 }
@@ -15,20 +15,35 @@
  **************************************************************************/
 package org.corzia.oidc;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Properties;
-import java.security.interfaces.RSAPublicKey;
+import java.util.Set;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 
 import org.corzia.oidc.shiro.OidcRealm;
+import org.corzia.oidc.internal.discovery.ProviderMetadata;
+import org.corzia.oidc.internal.discovery.ProviderMetadataCache;
 import org.corzia.oidc.internal.jwks.JwksKeyCache;
+import org.corzia.oidc.internal.jwks.JwksKeyCacheRegistry;
+import org.corzia.oidc.internal.utils.HttpTransport;
+import org.corzia.oidc.internal.utils.HttpUtils;
+import org.corzia.oidc.internal.utils.OidcExecutors;
+import org.corzia.oidc.internal.utils.ReplayCache;
+import org.corzia.oidc.internal.utils.TokenEndpointGuard;
+import org.corzia.oidc.internal.utils.TokenResponse;
+
+import jakarta.servlet.http.HttpServletRequest;
 
 import com.nimbusds.jose.JWSHeader;
 import com.nimbusds.jose.JWSVerifier;
-import com.nimbusds.jose.crypto.RSASSAVerifier;
-import com.nimbusds.jose.jwk.JWK;
-import com.nimbusds.jose.jwk.RSAKey;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
 
@@ -38,21 +53,34 @@ import com.nimbusds.jwt.SignedJWT;
  * This class provides shared functionality that almost all providers need:
  * </p>
  * <ul>
+ * <li>Resolving endpoints from the provider's discovery document when
+ * {@code AUTHORITY} is configured (explicit endpoint properties win)</li>
  * <li>Caching and resolving signing keys from a JWKS endpoint</li>
  * <li>ID token signature verification</li>
  * <li>Standard OIDC claim validation (issuer, audience, expiry, nonce)</li>
+ * <li>Back-channel logout token validation</li>
+ * <li>The authorization code flow, blocking and asynchronous</li>
  * </ul>
  *
  * <p>
  * Concrete subclasses only need to implement provider-specific details,
- * such as endpoints, issuer and scopes, and then call
- * {@link #validateIdToken(String, String)} when they receive an ID token.
+ * such as endpoints, issuer and scopes, and override
+ * {@link #toUserInfo(TokenResponse, JWTClaimsSet)} when the provider's claims
+ * differ from the standard ones.
  * </p>
  */
 
 public abstract class AbstractOidcClient implements OidcClient {
 
-    private JwksKeyCache jwksKeyCache;
+    private final AtomicReference<JwksKeyCache> jwksKeyCache = new AtomicReference<>();
+    private volatile ProviderMetadataCache discovery;
+    public static final String BACKCHANNEL_LOGOUT_EVENT = "http://schemas.openid.net/event/backchannel-logout";
+    private static final long LOGOUT_TOKEN_MAX_AGE_SECONDS = 300;
+    private static final int MAX_SEEN_LOGOUT_TOKENS = 10_000;
+
+    // An iat up to the max age ahead stays acceptable for twice the max age
+    private final ReplayCache seenLogoutTokens = new ReplayCache(2 * LOGOUT_TOKEN_MAX_AGE_SECONDS * 1000L,
+            MAX_SEEN_LOGOUT_TOKENS);
     protected Properties props;
     protected final String providerName;
 
@@ -63,7 +91,153 @@ public abstract class AbstractOidcClient implements OidcClient {
     @Override
     public void configure(Properties props) {
         this.props = props;
-        this.jwksKeyCache = new JwksKeyCache(jwksUri());
+        HttpTransport.configure(getName(), props);
+        TokenEndpointGuard.configure(getName(), props);
+
+        // The discovery document is fetched in the background; configure()
+        // never waits on the IdP
+        String authority = props.getProperty(OidcRealm.AUTHORITY);
+        ProviderMetadataCache metadata = authority != null && !authority.isBlank()
+                ? new ProviderMetadataCache(authority, getName())
+                : null;
+        if (metadata != null) {
+            metadata.start();
+        }
+        ProviderMetadataCache previousMetadata = this.discovery;
+        this.discovery = metadata;
+        if (previousMetadata != null) {
+            previousMetadata.close();
+        }
+
+        // Acquire before releasing so a client that keeps its JWKS URI keeps
+        // the warm shared cache. A discovered JWKS URI is acquired lazily.
+        String uri = props.getProperty(OidcRealm.JWKS_URI);
+        JwksKeyCache previous = jwksKeyCache.getAndSet(
+                uri != null ? JwksKeyCacheRegistry.acquire(uri, getName()) : null);
+        JwksKeyCacheRegistry.release(previous);
+    }
+
+    /**
+     * Posts the code to the token endpoint while the signing keys are
+     * prefetched in parallel, so a cold or expired JWKS cache does not add a
+     * second sequential IdP round trip.
+     */
+    @Override
+    public OidcUserInfo exchangeCodeForUserInfo(HttpServletRequest req, String code, String expectedNonce)
+            throws Exception {
+        CompletableFuture<Void> keys = prefetchKeys();
+        TokenResponse token = HttpUtils.exchangeCode(
+                transport(),
+                tokenEndpoint(),
+                clientId(),
+                clientSecret(),
+                code,
+                redirectUri());
+        keys.join();
+        return toUserInfo(token, validateIdToken(token.getIdToken(), expectedNonce));
+    }
+
+    /**
+     * Posts the code without blocking, prefetching the signing keys in
+     * parallel, and validates the ID token on the shared worker pool, since a
+     * JWKS refresh may block and must not stall the HTTP client's own threads.
+     */
+    @Override
+    public CompletableFuture<OidcUserInfo> exchangeCodeForUserInfoAsync(HttpServletRequest req, String code,
+            String expectedNonce) {
+        CompletableFuture<TokenResponse> exchange;
+        try {
+            exchange = HttpUtils.exchangeCodeAsync(
+                    transport(),
+                    tokenEndpoint(),
+                    clientId(),
+                    clientSecret(),
+                    code,
+                    redirectUri());
+        } catch (RuntimeException e) {
+            // E.g. discovery is unavailable; callers expect a failed future, not a throw
+            return CompletableFuture.failedFuture(e);
+        }
+        return exchange
+                .thenCombine(prefetchKeys(), (token, ignored) -> token)
+                .thenApplyAsync(token -> {
+                    try {
+                        return toUserInfo(token, validateIdToken(token.getIdToken(), expectedNonce));
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, OidcExecutors.workers());
+    }
+
+    private CompletableFuture<Void> prefetchKeys() {
+        try {
+            JwksKeyCache keys = keys();
+            return keys != null ? keys.prefetch() : CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            // Discovery failed; the token call will report it
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Only looks at a cache already acquired, so it never triggers discovery
+     * or a JWKS download.
+     */
+    @Override
+    public boolean isKeysDegraded() {
+        JwksKeyCache current = jwksKeyCache.get();
+        return current != null && current.isDegraded();
+    }
+
+    /**
+     * Returns the JWKS cache for the current JWKS URI, acquiring it on first
+     * use when the URI comes from the discovery document.
+     */
+    private JwksKeyCache keys() {
+        JwksKeyCache current = jwksKeyCache.get();
+        String uri = jwksUri();
+        if (uri == null || (current != null && current.getJwksUri().equals(uri))) {
+            return current;
+        }
+        JwksKeyCache acquired = JwksKeyCacheRegistry.acquire(uri, getName());
+        if (jwksKeyCache.compareAndSet(current, acquired)) {
+            JwksKeyCacheRegistry.release(current);
+            return acquired;
+        }
+        // Another thread got there first
+        JwksKeyCacheRegistry.release(acquired);
+        return jwksKeyCache.get();
+    }
+
+    /**
+     * Normalizes validated ID token claims into {@link OidcUserInfo}. The
+     * default mapping uses the standard OIDC claims.
+     *
+     * @param token  tokens returned by the token endpoint
+     * @param claims validated ID token claims
+     * @return normalized user information
+     */
+    protected OidcUserInfo toUserInfo(TokenResponse token, JWTClaimsSet claims) {
+        Map<String, Object> claimMap = claims.getClaims();
+        String email = (String) claimMap.get("email");
+
+        return new OidcUserInfo(
+                getName(),
+                (String) claimMap.get("sub"),
+                email,
+                email,
+                (String) claimMap.get("name"),
+                (String) claimMap.get("given_name"),
+                (String) claimMap.get("family_name"),
+                (String) claimMap.get("picture"),
+                null,
+                (String) claimMap.get("locale"),
+                Boolean.TRUE.equals(claimMap.get("email_verified")),
+                Set.of(),
+                token.getIdToken(),
+                token.getAccessToken(),
+                token.getRefreshToken(),
+                claimMap);
     }
 
     /**
@@ -91,25 +265,104 @@ public abstract class AbstractOidcClient implements OidcClient {
     protected JWTClaimsSet validateIdToken(String idToken,
             String expectedNonce) throws Exception {
 
-        SignedJWT jwt = SignedJWT.parse(idToken);
+        JWTClaimsSet claims = verifySignedToken(idToken, "ID token");
+
+        Date now = new Date();
+        if (claims.getExpirationTime() == null || now.after(claims.getExpirationTime())) {
+            throw new SecurityException("ID token expired");
+        }
+
+        if (expectedNonce != null) {
+            String tokenNonce = claims.getStringClaim("nonce");
+            if (tokenNonce == null || !expectedNonce.equals(tokenNonce)) {
+                throw new SecurityException("Invalid nonce");
+            }
+        }
+
+        return claims;
+    }
+
+    /**
+     * Validates an OpenID Connect Back-Channel Logout token.
+     * <p>
+     * The token is verified like an ID token (signature, issuer, audience),
+     * then checked as the specification requires:
+     * </p>
+     * <ul>
+     * <li>{@code iat} is present and within {@value #LOGOUT_TOKEN_MAX_AGE_SECONDS}
+     * seconds of now; {@code exp}, if present, has not passed</li>
+     * <li>the {@code events} claim contains the back-channel logout event</li>
+     * <li>a {@code sub} or a {@code sid} claim is present</li>
+     * <li>there is no {@code nonce} claim</li>
+     * <li>the {@code jti} has not been seen before within twice the accepted
+     * age; at most {@value #MAX_SEEN_LOGOUT_TOKENS} ids are remembered</li>
+     * </ul>
+     *
+     * @param logoutToken raw logout token (JWT) posted by the provider
+     * @return validated {@link JWTClaimsSet}
+     * @throws Exception if verification or claim validation fails
+     */
+    public JWTClaimsSet validateLogoutToken(String logoutToken) throws Exception {
+        JWTClaimsSet claims = verifySignedToken(logoutToken, "logout token");
+
+        long now = System.currentTimeMillis();
+        long maxAge = LOGOUT_TOKEN_MAX_AGE_SECONDS * 1000L;
+        Date issuedAt = claims.getIssueTime();
+        if (issuedAt == null || Math.abs(now - issuedAt.getTime()) > maxAge) {
+            throw new SecurityException("Logout token iat missing or out of range");
+        }
+        if (claims.getExpirationTime() != null && now > claims.getExpirationTime().getTime()) {
+            throw new SecurityException("Logout token expired");
+        }
+
+        Map<String, Object> events = claims.getJSONObjectClaim("events");
+        if (events == null || !events.containsKey(BACKCHANNEL_LOGOUT_EVENT)) {
+            throw new SecurityException("Logout token has no back-channel logout event");
+        }
+        if (claims.getSubject() == null && claims.getStringClaim("sid") == null) {
+            throw new SecurityException("Logout token has neither sub nor sid");
+        }
+        if (claims.getClaim("nonce") != null) {
+            throw new SecurityException("Logout token must not contain a nonce");
+        }
+
+        String jti = claims.getJWTID();
+        if (jti == null) {
+            throw new SecurityException("Logout token has no jti");
+        }
+        if (!seenLogoutTokens.firstSeen(jti, now)) {
+            throw new SecurityException("Logout token replayed");
+        }
+
+        return claims;
+    }
+
+    /**
+     * Verifies the signature of a JWT issued to this client against the
+     * provider's keys, and checks its issuer and audience.
+     */
+    private JWTClaimsSet verifySignedToken(String token, String what) throws Exception {
+        SignedJWT jwt = SignedJWT.parse(token);
         JWSHeader header = jwt.getHeader();
         String kid = header.getKeyID();
 
-        JWK jwk = jwksKeyCache.selectKey(kid);
-        if (jwk == null || !(jwk instanceof RSAKey rsaKey)) {
-            throw new SecurityException("No suitable JWK found for kid=" + kid);
+        JwksKeyCache keys = keys();
+        if (keys == null) {
+            throw new SecurityException("No JWKS_URI configured for provider " + getName());
         }
 
-        RSAPublicKey publicKey = rsaKey.toRSAPublicKey();
-        JWSVerifier verifier = new RSASSAVerifier(publicKey);
+        // Verifiers are prebuilt per (kid, alg) when the JWKS snapshot loads
+        JWSVerifier verifier = keys.selectVerifier(kid, header.getAlgorithm());
+        if (verifier == null) {
+            throw new SecurityException("No suitable JWK found for kid=" + kid);
+        }
 
         if (!jwt.verify(verifier)) {
-            throw new SecurityException("Invalid ID token signature");
+            throw new SecurityException("Invalid " + what + " signature");
         }
 
         JWTClaimsSet claims = jwt.getJWTClaimsSet();
 
-        // Validate issuer, audience, expiry, nonce
         if (!issuer().equals(claims.getIssuer())) {
             throw new SecurityException("Invalid issuer: " + claims.getIssuer());
         }
@@ -118,18 +371,6 @@ public abstract class AbstractOidcClient implements OidcClient {
             throw new SecurityException("Invalid audience");
         }
 
-        Date now = new Date();
-        if (claims.getExpirationTime() == null || now.after(claims.getExpirationTime())) {
-            throw new SecurityException("ID token expired");
-        }
-
-        if (expectedNonce != null) {
-            String tokenNonce = claims.getStringClaim("nonce");
-            if (tokenNonce == null || !expectedNonce.equals(tokenNonce)) {
-                throw new SecurityException("Invalid nonce");
-            }
-        }
-
         return claims;
     }
 
@@ -145,7 +386,7 @@ public abstract class AbstractOidcClient implements OidcClient {
 
     @Override
     public String tokenEndpoint() {
-        return props.getProperty(OidcRealm.TOKEN_ENDPOINT);
+        return resolve(OidcRealm.TOKEN_ENDPOINT, ProviderMetadata::tokenEndpoint);
     }
 
     @Override
@@ -164,15 +405,35 @@ public abstract class AbstractOidcClient implements OidcClient {
     }
 
     protected String authorizationEndpoint() {
-        return props.getProperty(OidcRealm.AUTHORIZATION_ENDPOINT);
+        return resolve(OidcRealm.AUTHORIZATION_ENDPOINT, ProviderMetadata::authorizationEndpoint);
     }
 
     protected String jwksUri() {
-        return props.getProperty(OidcRealm.JWKS_URI);
+        return resolve(OidcRealm.JWKS_URI, ProviderMetadata::jwksUri);
     }
 
     protected String issuer() {
-        return props.getProperty(OidcRealm.ISSUER);
+        return resolve(OidcRealm.ISSUER, ProviderMetadata::issuer);
+    }
+
+    /**
+     * Returns an explicitly configured endpoint, or the value from the
+     * provider's discovery document when {@code AUTHORITY} is set.
+     *
+     * @throws UncheckedIOException if the discovery document is needed but
+     *                              cannot be loaded
+     */
+    private String resolve(String key, Function<ProviderMetadata, String> discovered) {
+        String value = props.getProperty(key);
+        ProviderMetadataCache metadata = discovery;
+        if (value != null || metadata == null) {
+            return value;
+        }
+        try {
+            return discovered.apply(metadata.get());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not discover " + key + " for provider " + getName(), e);
+        }
     }
 
     protected String redirectUri() {
@@ -183,6 +444,13 @@ public abstract class AbstractOidcClient implements OidcClient {
         return props.getProperty(OidcRealm.SCOPES);
     }
 
+    /**
+     * @return the pooled HTTP transport for calls to this provider
+     */
+    protected HttpTransport transport() {
+        return HttpTransport.forName(getName());
+    }
+
     protected String url(String val) {
         return URLEncoder.encode(val, StandardCharsets.UTF_8);
     }
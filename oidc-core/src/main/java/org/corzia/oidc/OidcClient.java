@@ -16,6 +16,7 @@
 package org.corzia.oidc;
 
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 import jakarta.servlet.http.HttpServletRequest;
 
@@ -89,6 +90,33 @@ public interface OidcClient {
     OidcUserInfo exchangeCodeForUserInfo(HttpServletRequest req, String code, String expectedNonce)
             throws Exception;
 
+    /**
+     * Asynchronous variant of
+     * {@link #exchangeCodeForUserInfo(HttpServletRequest, String, String)},
+     * used by the callback servlet so that no request thread is held during
+     * the IdP round trip.
+     * <p>
+     * Implementations must not use {@code req} after this method returns. The
+     * default implementation runs the blocking variant on the calling thread;
+     * {@link AbstractOidcClient} overrides it with a non-blocking token
+     * exchange.
+     * </p>
+     *
+     * @param req           current HTTP request
+     * @param code          authorization code received from the provider
+     * @param expectedNonce nonce value stored in session for this flow
+     * @return future completed with the normalized user information, or
+     *         exceptionally if token exchange or validation fails
+     */
+    default CompletableFuture<OidcUserInfo> exchangeCodeForUserInfoAsync(HttpServletRequest req, String code,
+            String expectedNonce) {
+        try {
+            return CompletableFuture.completedFuture(exchangeCodeForUserInfo(req, code, expectedNonce));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
     /**
      * @return the client ID registered with the provider.
      */
@@ -121,4 +149,13 @@ public interface OidcClient {
      * @return true if configured, false otherwise
      */
     boolean isConfigured();
+
+    /**
+     * @return true if the provider's signing keys are served from a JWKS
+     *         snapshot that could not be refreshed because its endpoint is
+     *         failing
+     */
+    default boolean isKeysDegraded() {
+        return false;
+    }
 }
@@ -40,6 +40,9 @@ public final class OidcConstants {
     public static final String PARAM_MESSAGE = "message";
     public static final String PARAM_NONCE = "nonce";
     public static final String PARAM_EMAIL = "email";
+    public static final String PARAM_LOGOUT_TOKEN = "logout_token";
+    public static final String PARAM_SCOPE = "scope";
+    public static final String SCOPE_BROWSER = "browser";
 
     // Session Attributes
     public static final String ATTR_CSRF_TOKEN = "CSRF_TOKEN";
@@ -79,7 +82,36 @@ public final class OidcConstants {
     public static final String JKEY_NAME = "name";
     public static final String JKEY_DISPLAY_NAME = "displayName";
     public static final String JKEY_IMAGE_URL = "imageUrl";
+    public static final String JKEY_CIRCUIT = "circuit";
+    public static final String JKEY_JWKS = "jwks";
+    public static final String JKEY_ERROR = "error";
+    public static final String JKEY_ERROR_DESCRIPTION = "error_description";
+    public static final String JKEY_TABS = "tabs";
+    public static final String JKEY_CURRENT = "current";
+    public static final String JKEY_LAST_ACCESS = "lastAccess";
+    public static final String JKEY_ENDED = "ended";
 
     // Configuration Properties
     public static final String PROP_CSRF_EXEMPT_PATHS = "csrf.exempt_paths";
+    public static final String PROP_JWKS_REFRESH_MIN_SECONDS = "jwks.refresh_min_seconds";
+    public static final String PROP_JWKS_REFRESH_MAX_SECONDS = "jwks.refresh_max_seconds";
+    public static final String PROP_JWKS_MAX_STALE_SECONDS = "jwks.max_stale_seconds";
+    public static final String PROP_JWKS_CACHE_DIR = "jwks.cache_dir";
+    public static final String PROP_JWKS_PERSISTED_MAX_AGE_SECONDS = "jwks.persisted_max_age_seconds";
+    public static final String PROP_IO_VIRTUAL_THREADS = "io.virtual_threads";
+    public static final String PROP_CALLBACK_TIMEOUT_SECONDS = "oidc.callback_timeout_seconds";
+    public static final String PROP_REFRESH_TIMEOUT_SECONDS = "oidc.refresh_timeout_seconds";
+    public static final String PROP_RENEWAL_ENABLED = "renewal.enabled";
+    public static final String PROP_RENEWAL_LEAD_SECONDS = "renewal.lead_seconds";
+    public static final String PROP_RENEWAL_JITTER_SECONDS = "renewal.jitter_seconds";
+    public static final String PROP_RENEWAL_MAX_PER_SECOND = "renewal.max_per_second";
+    public static final String PROP_RENEWAL_IDLE_SECONDS = "renewal.idle_seconds";
+    public static final String PROP_SESSION_MAX_SESSIONS = "session.max_sessions";
+    public static final String PROP_SESSION_TTL_SECONDS = "session.ttl_seconds";
+    public static final String PROP_SESSION_STORE = "session.store";
+    public static final String PROP_SESSION_TOUCH_WRITE_SECONDS = "session.touch_write_seconds";
+    public static final String PROP_SESSION_STORE_DIR = "session.store_dir";
+    public static final String PROP_SESSION_SEGMENT_MB = "session.segment_mb";
+    public static final String PROP_USERS_MAX_ENTRIES = "users.max_entries";
+    public static final String PROP_USERS_DETACHED_SECONDS = "users.detached_seconds";
 }
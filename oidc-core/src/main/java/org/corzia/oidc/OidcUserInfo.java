@@ -113,6 +113,25 @@ public class OidcUserInfo extends UserInfo {
 		return claims;
 	}
 
+	/**
+	 * Returns a copy of this user info with renewed tokens. Tokens the IdP did
+	 * not return (null) are carried over from this instance.
+	 *
+	 * @param newIdToken      new ID token, or null to keep the current one
+	 * @param newAccessToken  new access token, or null to keep the current one
+	 * @param newRefreshToken rotated refresh token, or null to keep the current
+	 *                        one
+	 * @return the updated user info
+	 */
+	public OidcUserInfo withTokens(String newIdToken, String newAccessToken, String newRefreshToken) {
+		return new OidcUserInfo(providerName, subject, getUsername(), getEmail(), getFullName(), getGivenName(),
+				getFamilyName(), getPicture(), tenantId, getLocale(), isEmailVerified(), getGroups(),
+				newIdToken != null ? newIdToken : idToken,
+				newAccessToken != null ? newAccessToken : accessToken,
+				newRefreshToken != null ? newRefreshToken : refreshToken,
+				claims);
+	}
+
 	@Override
 	public JSONObject toJson() {
 		JSONObject json = super.toJson();
@@ -99,7 +99,9 @@ public class OidcConfigManager {
         String[] keys = {
                 "CLIENT_ID", "CLIENT_SECRET", "TENANT_ID", "REDIRECT_URI",
                 "SCOPES", "TOKEN_ENDPOINT", "AUTHORIZATION_ENDPOINT",
-                "JWKS_URI", "ISSUER", "AUTHORITY", "IMAGE_URL"
+                "JWKS_URI", "ISSUER", "AUTHORITY", "IMAGE_URL",
+                "HTTP_CONNECT_TIMEOUT_MS", "HTTP_READ_TIMEOUT_MS", "HTTP_MAX_THREADS",
+                "TOKEN_MAX_CONCURRENT", "BREAKER_FAILURE_THRESHOLD", "BREAKER_OPEN_SECONDS"
         };
 
         for (String key : keys) {
@@ -0,0 +1,75 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.discovery;
+
+import java.io.IOException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The subset of an OpenID Provider Configuration document (OpenID Connect
+ * Discovery 1.0, section 3) that the clients use.
+ *
+ * @param issuer                issuer identifier, compared against the
+ *                              {@code iss} claim of ID tokens
+ * @param authorizationEndpoint authorization endpoint URL
+ * @param tokenEndpoint         token endpoint URL
+ * @param jwksUri               JWKS URL with the signing keys
+ */
+public record ProviderMetadata(String issuer, String authorizationEndpoint, String tokenEndpoint,
+        String jwksUri) {
+
+    /**
+     * Parses a discovery document and checks that it was issued for the
+     * expected issuer (OpenID Connect Discovery 1.0, section 4.3), so that a
+     * misconfigured or spoofed document cannot change which {@code iss} the
+     * client accepts. A terminating {@code /} is ignored on both sides, since
+     * it is removed before {@code /.well-known} is appended.
+     *
+     * @param json           document body
+     * @param expectedIssuer issuer URL the document was fetched for
+     * @return the metadata
+     * @throws IOException if the document is not JSON, lacks a required
+     *                     member or names a different issuer
+     */
+    public static ProviderMetadata parse(String json, String expectedIssuer) throws IOException {
+        ProviderMetadata metadata;
+        try {
+            JSONObject doc = new JSONObject(json);
+            metadata = new ProviderMetadata(
+                    doc.getString("issuer"),
+                    doc.getString("authorization_endpoint"),
+                    doc.optString("token_endpoint", null),
+                    doc.getString("jwks_uri"));
+        } catch (JSONException e) {
+            throw new IOException("Invalid OpenID Provider Configuration: " + e.getMessage(), e);
+        }
+        if (!stripTrailingSlashes(metadata.issuer()).equals(stripTrailingSlashes(expectedIssuer))) {
+            throw new IOException("OpenID Provider Configuration names issuer " + metadata.issuer()
+                    + ", expected " + expectedIssuer);
+        }
+        return metadata;
+    }
+
+    static String stripTrailingSlashes(String url) {
+        String s = url.trim();
+        while (s.endsWith("/")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        return s;
+    }
+}
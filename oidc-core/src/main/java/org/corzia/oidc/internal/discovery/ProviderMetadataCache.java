@@ -0,0 +1,123 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.discovery;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.corzia.oidc.internal.utils.CachedHttpResource;
+
+/**
+ * Cached OpenID Provider Configuration for one authority.
+ * <p>
+ * The document at {@code AUTHORITY/.well-known/openid-configuration} is
+ * fetched in the background as soon as the cache is started, so startup never
+ * waits on the IdP. A login that arrives before the first fetch completes
+ * joins it (or starts it) through a single-flight fetch shared by all
+ * callers.
+ * </p>
+ *
+ * <p>
+ * The document is kept for the lifetime its {@code Cache-Control} or
+ * {@code Expires} headers allow (clamped to between 5 minutes and a day, one
+ * hour when the IdP says nothing), refreshed in the background shortly
+ * before it expires and revalidated with {@code ETag}/{@code Last-Modified}.
+ * If a refresh fails the last document stays in use; endpoints rarely move.
+ * A document whose {@code issuer} is not the authority it was fetched from
+ * is rejected like a failed fetch. Fetching, revalidation and retry backoff
+ * are shared with the JWKS cache through {@link CachedHttpResource}.
+ * </p>
+ */
+public class ProviderMetadataCache implements AutoCloseable {
+
+    static final String WELL_KNOWN_PATH = "/.well-known/openid-configuration";
+
+    private static final CachedHttpResource.Policy POLICY = new CachedHttpResource.Policy(
+            60 * 60 * 1000L, // when the IdP sends no caching headers
+            5 * 60 * 1000L,
+            24 * 60 * 60 * 1000L,
+            60 * 1000L,
+            Long.MAX_VALUE, // a stale document beats none
+            5 * 1000L,
+            5 * 60 * 1000L);
+
+    private final String discoveryUri;
+    private final CachedHttpResource<ProviderMetadata> document;
+
+    /**
+     * @param authority     issuer URL of the provider, or the full discovery
+     *                      document URL
+     * @param transportName HTTP transport to fetch with (the provider name)
+     */
+    public ProviderMetadataCache(String authority, String transportName) {
+        this.discoveryUri = discoveryUri(authority);
+        String issuer = issuerOf(authority);
+        this.document = new CachedHttpResource<>(discoveryUri, transportName, "OpenID Provider Configuration",
+                POLICY, body -> ProviderMetadata.parse(new String(body, StandardCharsets.UTF_8), issuer), null);
+    }
+
+    /**
+     * @param authority issuer URL, with or without a trailing slash, or the
+     *                  discovery document URL itself
+     * @return the discovery document URL
+     */
+    public static String discoveryUri(String authority) {
+        return issuerOf(authority) + WELL_KNOWN_PATH;
+    }
+
+    /**
+     * @param authority issuer URL, with or without a trailing slash, or the
+     *                  discovery document URL itself
+     * @return the issuer URL without a trailing slash
+     */
+    static String issuerOf(String authority) {
+        String base = authority.trim();
+        if (base.endsWith(WELL_KNOWN_PATH)) {
+            base = base.substring(0, base.length() - WELL_KNOWN_PATH.length());
+        }
+        return ProviderMetadata.stripTrailingSlashes(base);
+    }
+
+    /**
+     * Starts the first fetch in the background.
+     */
+    public void start() {
+        document.start();
+    }
+
+    /**
+     * Returns the provider metadata, fetching it on the calling thread only if
+     * no document has been loaded yet.
+     *
+     * @return the metadata
+     * @throws IOException if no document is available and fetching one fails
+     */
+    public ProviderMetadata get() throws IOException {
+        return document.get().value();
+    }
+
+    public String getDiscoveryUri() {
+        return discoveryUri;
+    }
+
+    /**
+     * Stops background refreshes. The last document stays readable.
+     */
+    @Override
+    public void close() {
+        document.close();
+    }
+}
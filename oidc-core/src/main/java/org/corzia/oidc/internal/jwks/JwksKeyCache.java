@@ -16,40 +16,158 @@
 package org.corzia.oidc.internal.jwks;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.corzia.oidc.OidcConstants;
+import org.corzia.oidc.internal.config.OidcConfigManager;
+import org.corzia.oidc.internal.utils.CachedHttpResource;
+import org.corzia.oidc.internal.utils.CachedHttpResource.Entry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
 import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jose.jwk.JWKSet;
 import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
 
-public class JwksKeyCache {
+/**
+ * Caches the key set published at a JWKS endpoint.
+ * <p>
+ * Readers work against an immutable snapshot held in a volatile field and never
+ * take a lock once the first load has completed. The snapshot is refreshed on a
+ * shared background scheduler shortly before it expires; if a refresh is late
+ * or fails, the previous snapshot keeps being served (stale-while-revalidate).
+ * Only the very first {@link #selectKey(String)} call blocks on the network.
+ * </p>
+ *
+ * <p>
+ * Each snapshot also carries ready-made {@link JWSVerifier}s for its RSA
+ * signing keys, keyed by {@code kid} and algorithm. They are built once when
+ * the snapshot is loaded and replaced together with it on key rotation, so
+ * token validation does not re-decode public keys per request.
+ * </p>
+ *
+ * <p>
+ * A token signed with an unknown {@code kid} (typically right after the IdP
+ * rotated its keys) triggers an immediate refresh. All network fetches, whether
+ * initial, scheduled or kid-driven, are single-flight: concurrent callers join
+ * the fetch already in progress. Kid-driven refreshes are additionally limited
+ * by a minimum interval, and kids that are still unknown afterwards are
+ * remembered for a while, so tokens with a bogus {@code kid} cannot turn into a
+ * stream of JWKS requests against the IdP.
+ * </p>
+ *
+ * <p>
+ * Fetches follow HTTP caching semantics: the snapshot lifetime comes from the
+ * response's {@code Cache-Control: max-age} or {@code Expires} header (clamped
+ * to the configured floor and ceiling), and refreshes are conditional
+ * ({@code If-None-Match} / {@code If-Modified-Since}) so that an unchanged key
+ * set costs a 304 and no re-parse.
+ * </p>
+ *
+ * <p>
+ * If {@code security.jwks.cache_dir} is configured, every new key set is
+ * also written to disk and read back when the cache is created, so a fresh
+ * node can validate tokens immediately while the first download runs in the
+ * background. Revalidations that return the same keys do not rewrite it.
+ * </p>
+ *
+ * <p>
+ * When the JWKS endpoint fails, the cache enters a degraded mode: it keeps
+ * serving the last good snapshot for up to {@code security.jwks.max_stale_seconds}
+ * past its expiry, retries with exponential backoff and jitter, and refuses
+ * further fetches (including kid-driven ones) until the next retry is due.
+ * {@link #isDegraded()} exposes this state; operators see it per provider as
+ * the {@code jwks} field of {@code /api/providers}.
+ * </p>
+ *
+ * <p>
+ * Fetching, revalidation and backoff are shared with the discovery cache
+ * through {@link CachedHttpResource}; this class adds the verifiers, the
+ * unknown-kid handling and persistence.
+ * </p>
+ */
+public class JwksKeyCache implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(JwksKeyCache.class);
 
     private final String jwksUri;
-    private volatile JWKSet jwkSet;
-    private volatile long lastRefreshMillis = 0L;
-    private final long refreshIntervalMillis = 5 * 60 * 1000L; // 5 minutes
+    private final CachedHttpResource<Keys> keys;
+    private final JwksSnapshotStore store;
+    private final long persistedMaxAgeMillis;
+    private volatile long persistedAtMillis;
+    private final long minKidRefreshIntervalMillis = 10 * 1000L;
+    private final long unknownKidTtlMillis = 60 * 1000L;
+    private final int maxUnknownKids = 256;
 
-    public JwksKeyCache(String jwksUri) {
-        this.jwksUri = jwksUri;
+    private final Map<String, Long> unknownKids = new ConcurrentHashMap<>();
+
+    /**
+     * A parsed key set with the verifiers built from it; a revalidation (304)
+     * keeps the same instance.
+     */
+    private record Keys(JWKSet jwkSet, Map<VerifierKey, JWSVerifier> verifiers) {
     }
 
-    protected synchronized JWKSet getJwkSet() throws IOException, ParseException, URISyntaxException {
-        long now = System.currentTimeMillis();
-        if (jwkSet == null || now - lastRefreshMillis > refreshIntervalMillis) {
-            try (InputStream in = URI.create(jwksUri).toURL().openStream()) {
-                String json = new String(in.readAllBytes(), StandardCharsets.UTF_8);
-                jwkSet = JWKSet.parse(json);
-                lastRefreshMillis = now;
-            }
+    /**
+     * Verifier lookup key; a {@code null} kid stands for "the default signing
+     * key" used when a token carries no {@code kid} header.
+     */
+    private record VerifierKey(String kid, JWSAlgorithm alg) {
+    }
+
+    /**
+     * Use {@link JwksKeyCacheRegistry#acquire(String, String)} so that clients
+     * sharing a JWKS URI share the cache.
+     */
+    JwksKeyCache(String jwksUri, String transportName) {
+        this.jwksUri = jwksUri;
+        Properties security = OidcConfigManager.getSecurityConfig(OidcConstants.CONFIG_SECURITY);
+        long minLifetimeMillis = seconds(security, OidcConstants.PROP_JWKS_REFRESH_MIN_SECONDS, 60L) * 1000L;
+        long maxLifetimeMillis = Math.max(minLifetimeMillis,
+                seconds(security, OidcConstants.PROP_JWKS_REFRESH_MAX_SECONDS, 3600L) * 1000L);
+        long maxStaleMillis = seconds(security, OidcConstants.PROP_JWKS_MAX_STALE_SECONDS, 86400L) * 1000L;
+        CachedHttpResource.Policy policy = new CachedHttpResource.Policy(
+                5 * 60 * 1000L, // when the IdP sends no caching headers
+                minLifetimeMillis,
+                maxLifetimeMillis,
+                30 * 1000L, // refresh up to 30 seconds before expiry
+                maxStaleMillis,
+                5 * 1000L,
+                5 * 60 * 1000L);
+        this.keys = new CachedHttpResource<>(jwksUri, transportName, "JWKS", policy,
+                JwksKeyCache::parse, this::persist);
+
+        String cacheDir = security.getProperty(OidcConstants.PROP_JWKS_CACHE_DIR);
+        this.store = cacheDir != null && !cacheDir.isBlank() ? new JwksSnapshotStore(cacheDir.trim()) : null;
+        this.persistedMaxAgeMillis = seconds(security, OidcConstants.PROP_JWKS_PERSISTED_MAX_AGE_SECONDS, 86400L)
+                * 1000L;
+        if (store != null) {
+            loadPersisted(persistedMaxAgeMillis);
         }
-        return jwkSet;
     }
 
-    public JWK selectKey(String kid) throws IOException, ParseException, URISyntaxException {
+    public String getJwksUri() {
+        return jwksUri;
+    }
+
+    protected JWKSet getJwkSet() throws IOException {
+        return keys.get().value().jwkSet();
+    }
+
+    public JWK selectKey(String kid) throws IOException {
         JWKSet set = getJwkSet();
         if (kid == null) {
             // If kid is null, just pick first RSA key; a bit naive but works in practice.
@@ -58,6 +176,213 @@ public class JwksKeyCache {
                     .findFirst()
                     .orElse(null);
         }
-        return set.getKeyByKeyId(kid);
+        JWK jwk = set.getKeyByKeyId(kid);
+        if (jwk == null) {
+            Keys fresh = refreshForUnknownKid(kid);
+            jwk = fresh != null ? fresh.jwkSet().getKeyByKeyId(kid) : null;
+        }
+        return jwk;
+    }
+
+    /**
+     * Returns the precomputed verifier for the given key ID and algorithm.
+     *
+     * @param kid key ID from the JWS header, or null to use the first RSA
+     *            signing key
+     * @param alg algorithm from the JWS header
+     * @return the verifier, or null if no matching RSA signing key is published
+     */
+    public JWSVerifier selectVerifier(String kid, JWSAlgorithm alg) throws IOException {
+        VerifierKey key = new VerifierKey(kid, alg);
+        JWSVerifier verifier = keys.get().value().verifiers().get(key);
+        if (verifier == null && kid != null) {
+            Keys fresh = refreshForUnknownKid(kid);
+            verifier = fresh != null ? fresh.verifiers().get(key) : null;
+        }
+        return verifier;
+    }
+
+    /**
+     * Starts loading keys ahead of a signature check, so that the JWKS download
+     * can overlap with other work such as the token endpoint call.
+     * <p>
+     * If a usable snapshot is present this only triggers a background refresh
+     * when it has expired, and returns a completed future. Otherwise the
+     * returned future completes once the (shared) fetch finishes. It never
+     * completes exceptionally; fetch failures surface from the subsequent
+     * {@link #selectVerifier(String, JWSAlgorithm)} call.
+     * </p>
+     *
+     * @return future to join before verifying
+     */
+    public CompletableFuture<Void> prefetch() {
+        return keys.prefetch();
+    }
+
+    /**
+     * @return true if the last fetch failed and keys are being served from a
+     *         snapshot that could not be refreshed
+     */
+    public boolean isDegraded() {
+        return keys.isDegraded();
+    }
+
+    /**
+     * @return number of JWKS fetches that failed since the last success
+     */
+    public int getConsecutiveFailures() {
+        return keys.getConsecutiveFailures();
+    }
+
+    /**
+     * @return time of the last successful fetch or revalidation, or 0 if keys
+     *         were never loaded
+     */
+    public long getLastFetchedMillis() {
+        Entry<Keys> current = keys.peek();
+        return current != null ? current.fetchedAtMillis() : 0L;
+    }
+
+    /**
+     * Stops background refreshes for this cache. The last snapshot stays
+     * readable.
+     */
+    @Override
+    public void close() {
+        keys.close();
+    }
+
+    /**
+     * Refreshes the key set because a token referenced a kid we do not know.
+     *
+     * @return the refreshed keys, or null if the refresh was suppressed
+     *         because the kid is negatively cached or the keys were fetched
+     *         too recently
+     */
+    private Keys refreshForUnknownKid(String kid) throws IOException {
+        long now = System.currentTimeMillis();
+        Long knownUnknownUntil = unknownKids.get(kid);
+        if (knownUnknownUntil != null && knownUnknownUntil > now) {
+            return null;
+        }
+        Entry<Keys> current = keys.peek();
+        if (current != null && !keys.isFetching()
+                && (now - current.fetchedAtMillis() < minKidRefreshIntervalMillis
+                        || now < keys.getRetryNotBeforeMillis())) {
+            rememberUnknownKid(kid, now);
+            return null;
+        }
+
+        log.debug("Unknown kid {} for {}, refreshing JWKS", kid, jwksUri);
+        Keys fresh;
+        try {
+            fresh = keys.refreshNow().value();
+        } catch (IOException | RuntimeException e) {
+            if (current == null) {
+                throw e;
+            }
+            // Degraded: keep validating with the keys we have
+            rememberUnknownKid(kid, now);
+            return null;
+        }
+        if (fresh.jwkSet().getKeyByKeyId(kid) == null) {
+            rememberUnknownKid(kid, now);
+        }
+        return fresh;
+    }
+
+    private void rememberUnknownKid(String kid, long now) {
+        if (unknownKids.size() >= maxUnknownKids) {
+            unknownKids.values().removeIf(until -> until <= now);
+            if (unknownKids.size() >= maxUnknownKids) {
+                return;
+            }
+        }
+        unknownKids.put(kid, now + unknownKidTtlMillis);
+    }
+
+    private static Keys parse(byte[] body) throws IOException {
+        try {
+            JWKSet jwkSet = JWKSet.parse(new String(body, StandardCharsets.UTF_8));
+            return new Keys(jwkSet, buildVerifiers(jwkSet));
+        } catch (ParseException e) {
+            throw new IOException("Invalid JWKS: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the snapshot to disk if the key set or its validators changed.
+     * An unchanged key set (a 304) is only written again once the file is
+     * half-way to {@code security.jwks.persisted_max_age_seconds}, so that it
+     * stays usable for a warm start.
+     */
+    private void persist(Entry<Keys> previous, Entry<Keys> fresh) {
+        if (store == null) {
+            return;
+        }
+        boolean changed = previous == null || previous.value() != fresh.value()
+                || !Objects.equals(previous.etag(), fresh.etag())
+                || !Objects.equals(previous.lastModified(), fresh.lastModified());
+        if (changed || fresh.fetchedAtMillis() - persistedAtMillis > persistedMaxAgeMillis / 2) {
+            store.save(jwksUri, fresh.value().jwkSet(), fresh.fetchedAtMillis(), fresh.etag(), fresh.lastModified());
+            persistedAtMillis = fresh.fetchedAtMillis();
+        }
+    }
+
+    /**
+     * Seeds the cache from the persisted snapshot, if there is a usable one,
+     * and refreshes it in the background right away.
+     */
+    private void loadPersisted(long maxAgeMillis) {
+        JwksSnapshotStore.Persisted persisted = store.load(jwksUri, maxAgeMillis);
+        if (persisted == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        persistedAtMillis = persisted.fetchedAtMillis();
+        keys.seed(new Entry<>(new Keys(persisted.jwkSet(), buildVerifiers(persisted.jwkSet())),
+                persisted.fetchedAtMillis(), now, persisted.etag(), persisted.lastModified()));
+        log.info("Loaded persisted JWKS for {} ({} keys, fetched {}s ago)", jwksUri,
+                persisted.jwkSet().getKeys().size(), (now - persisted.fetchedAtMillis()) / 1000L);
+    }
+
+    private static long seconds(Properties props, String key, long defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring invalid value '{}' for {}", value, key);
+            return defaultValue;
+        }
+    }
+
+    private static Map<VerifierKey, JWSVerifier> buildVerifiers(JWKSet jwkSet) {
+        Map<VerifierKey, JWSVerifier> verifiers = new HashMap<>();
+        for (JWK jwk : jwkSet.getKeys()) {
+            if (!(jwk instanceof RSAKey rsaKey)
+                    || (jwk.getKeyUse() != null && !KeyUse.SIGNATURE.equals(jwk.getKeyUse()))) {
+                continue;
+            }
+            JWSVerifier verifier;
+            try {
+                verifier = new RSASSAVerifier(rsaKey);
+            } catch (JOSEException e) {
+                log.warn("Skipping unusable JWK kid={}: {}", jwk.getKeyID(), e.getMessage());
+                continue;
+            }
+            Set<JWSAlgorithm> algs = jwk.getAlgorithm() != null
+                    ? Set.of(JWSAlgorithm.parse(jwk.getAlgorithm().getName()))
+                    : RSASSAVerifier.SUPPORTED_ALGORITHMS;
+            for (JWSAlgorithm alg : algs) {
+                if (jwk.getKeyID() != null) {
+                    verifiers.put(new VerifierKey(jwk.getKeyID(), alg), verifier);
+                }
+                verifiers.putIfAbsent(new VerifierKey(null, alg), verifier);
+            }
+        }
+        return Map.copyOf(verifiers);
     }
 }
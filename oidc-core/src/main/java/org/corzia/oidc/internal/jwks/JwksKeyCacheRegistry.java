@@ -0,0 +1,110 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.jwks;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide registry of {@link JwksKeyCache} instances, keyed by JWKS URI.
+ * <p>
+ * Clients that point at the same JWKS endpoint (for example several Entra
+ * tenants using the common keys) share one snapshot and one refresh schedule.
+ * Caches are reference counted: a cache is closed only when the last client
+ * using it releases it, so reconfiguring a client onto the same URI keeps the
+ * warm keys.
+ * </p>
+ */
+public final class JwksKeyCacheRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(JwksKeyCacheRegistry.class);
+
+    private static final Map<String, Entry> CACHES = new ConcurrentHashMap<>();
+
+    private static final class Entry {
+        private final JwksKeyCache cache;
+        private int refs; // only touched inside ConcurrentHashMap.compute*
+
+        private Entry(JwksKeyCache cache) {
+            this.cache = cache;
+        }
+    }
+
+    private JwksKeyCacheRegistry() {
+        // Static registry
+    }
+
+    /**
+     * Returns the shared cache for the given JWKS URI, creating it on first
+     * use. Every call must be balanced by {@link #release(JwksKeyCache)}.
+     *
+     * @param jwksUri       JWKS endpoint URL
+     * @param transportName name of the HTTP transport to fetch with when the
+     *                      cache is created (usually the provider name)
+     * @return the shared cache
+     */
+    public static JwksKeyCache acquire(String jwksUri, String transportName) {
+        Entry existing = CACHES.computeIfPresent(jwksUri, (uri, entry) -> {
+            entry.refs++;
+            return entry;
+        });
+        if (existing != null) {
+            return existing.cache;
+        }
+
+        // Created outside the map lock: loading a persisted snapshot reads
+        // from disk, which must not block (or pin) while holding the bin lock
+        JwksKeyCache created = new JwksKeyCache(jwksUri, transportName);
+        Entry entry = CACHES.compute(jwksUri, (uri, current) -> {
+            if (current == null) {
+                log.debug("Creating shared JWKS cache for {}", uri);
+                current = new Entry(created);
+            }
+            current.refs++;
+            return current;
+        });
+        if (entry.cache != created) {
+            created.close();
+        }
+        return entry.cache;
+    }
+
+    /**
+     * Releases a cache obtained from {@link #acquire(String, String)}; the cache is
+     * closed once no client references it any more.
+     *
+     * @param cache the cache to release, may be null
+     */
+    public static void release(JwksKeyCache cache) {
+        if (cache == null) {
+            return;
+        }
+        CACHES.computeIfPresent(cache.getJwksUri(), (uri, entry) -> {
+            if (entry.cache != cache) {
+                return entry;
+            }
+            if (--entry.refs > 0) {
+                return entry;
+            }
+            log.debug("Closing shared JWKS cache for {}", uri);
+            entry.cache.close();
+            return null;
+        });
+    }
+}
@@ -0,0 +1,142 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.jwks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nimbusds.jose.jwk.JWKSet;
+
+/**
+ * Persists the last good key set per JWKS URI to a local directory, so that
+ * a restarted or newly scaled-out node can validate tokens before its first
+ * JWKS download completes.
+ * <p>
+ * One JSON file per URI holds the public keys together with the fetch time
+ * and HTTP validators. Files are written to a temporary name and moved into
+ * place, so a crash never leaves a half-written snapshot behind.
+ * </p>
+ */
+class JwksSnapshotStore {
+
+    private static final Logger log = LoggerFactory.getLogger(JwksSnapshotStore.class);
+
+    private static final String KEY_URI = "uri";
+    private static final String KEY_FETCHED_AT = "fetchedAt";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_KEYS = "jwks";
+
+    /**
+     * A key set read back from disk.
+     */
+    record Persisted(JWKSet jwkSet, long fetchedAtMillis, String etag, String lastModified) {
+    }
+
+    private final Path directory;
+
+    JwksSnapshotStore(String directory) {
+        this.directory = Paths.get(directory);
+    }
+
+    /**
+     * Reads the persisted key set for the given URI.
+     *
+     * @param jwksUri     JWKS endpoint URL
+     * @param maxAgeMillis snapshots fetched longer ago than this are ignored
+     * @return the persisted key set, or null if there is none or it is too old
+     */
+    Persisted load(String jwksUri, long maxAgeMillis) {
+        Path file = fileFor(jwksUri);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            JSONObject json = new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+            if (!jwksUri.equals(json.optString(KEY_URI))) {
+                return null;
+            }
+            long fetchedAt = json.getLong(KEY_FETCHED_AT);
+            if (System.currentTimeMillis() - fetchedAt > maxAgeMillis) {
+                log.info("Ignoring persisted JWKS for {}: older than the allowed staleness", jwksUri);
+                return null;
+            }
+            JWKSet jwkSet = JWKSet.parse(json.getJSONObject(KEY_KEYS).toString());
+            return new Persisted(jwkSet, fetchedAt,
+                    json.optString(KEY_ETAG, null), json.optString(KEY_LAST_MODIFIED, null));
+        } catch (IOException | JSONException | java.text.ParseException e) {
+            log.warn("Could not read persisted JWKS for {} from {}: {}", jwksUri, file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the public part of the key set for the given URI.
+     */
+    void save(String jwksUri, JWKSet jwkSet, long fetchedAtMillis, String etag, String lastModified) {
+        Path file = fileFor(jwksUri);
+        JSONObject json = new JSONObject();
+        json.put(KEY_URI, jwksUri);
+        json.put(KEY_FETCHED_AT, fetchedAtMillis);
+        json.put(KEY_ETAG, etag);
+        json.put(KEY_LAST_MODIFIED, lastModified);
+        json.put(KEY_KEYS, new JSONObject(jwkSet.toString(true)));
+        Path tmp = null;
+        try {
+            Files.createDirectories(directory);
+            tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            Files.writeString(tmp, json.toString(), StandardCharsets.UTF_8);
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.warn("Could not persist JWKS for {} to {}: {}", jwksUri, file, e.getMessage());
+        } finally {
+            if (tmp != null) {
+                // Only still there if writing or moving failed
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    log.debug("Could not delete {}: {}", tmp, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private Path fileFor(String jwksUri) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(jwksUri.getBytes(StandardCharsets.UTF_8));
+            return directory.resolve("jwks-" + HexFormat.of().formatHex(digest) + ".json");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -27,7 +27,6 @@ import jakarta.servlet.http.HttpServletRequest;
 import com.nimbusds.jwt.JWTClaimsSet;
 import org.corzia.oidc.AbstractOidcClient;
 import org.corzia.oidc.OidcUserInfo;
-import org.corzia.oidc.internal.utils.HttpUtils;
 import org.corzia.oidc.internal.utils.TokenResponse;
 
 public class EntraOidcClient extends AbstractOidcClient {
@@ -48,18 +47,7 @@ public class EntraOidcClient extends AbstractOidcClient {
         }
 
         @Override
-        public OidcUserInfo exchangeCodeForUserInfo(HttpServletRequest request,
-                        String code,
-                        String expectedNonce) throws Exception {
-
-                TokenResponse token = HttpUtils.exchangeCode(
-                                tokenEndpoint(),
-                                clientId(),
-                                clientSecret(),
-                                code,
-                                redirectUri());
-
-                JWTClaimsSet claims = validateIdToken(token.getIdToken(), expectedNonce);
+        protected OidcUserInfo toUserInfo(TokenResponse token, JWTClaimsSet claims) {
                 Map<String, Object> claimMap = claims.getClaims();
 
                 String username = (String) claimMap.getOrDefault(
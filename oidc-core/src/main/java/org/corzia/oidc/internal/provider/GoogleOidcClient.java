@@ -25,7 +25,6 @@ import jakarta.servlet.http.HttpServletRequest;
 import com.nimbusds.jwt.JWTClaimsSet;
 import org.corzia.oidc.AbstractOidcClient;
 import org.corzia.oidc.OidcUserInfo;
-import org.corzia.oidc.internal.utils.HttpUtils;
 import org.corzia.oidc.internal.utils.TokenResponse;
 
 public class GoogleOidcClient extends AbstractOidcClient {
@@ -47,18 +46,7 @@ public class GoogleOidcClient extends AbstractOidcClient {
     }
 
     @Override
-    public OidcUserInfo exchangeCodeForUserInfo(HttpServletRequest request,
-            String code,
-            String expectedNonce) throws Exception {
-
-        TokenResponse token = HttpUtils.exchangeCode(
-                tokenEndpoint(),
-                clientId(),
-                clientSecret(),
-                code,
-                redirectUri());
-
-        JWTClaimsSet claims = validateIdToken(token.getIdToken(), expectedNonce);
+    protected OidcUserInfo toUserInfo(TokenResponse token, JWTClaimsSet claims) {
         Map<String, Object> claimMap = claims.getClaims();
 
         String email = (String) claimMap.get("email");
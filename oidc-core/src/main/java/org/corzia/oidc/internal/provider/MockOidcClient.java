@@ -18,6 +18,7 @@ package org.corzia.oidc.internal.provider;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import jakarta.servlet.http.HttpServletRequest;
 
@@ -90,4 +91,15 @@ public class MockOidcClient extends AbstractOidcClient {
 
         throw new Exception("Unknown mock user: " + code);
     }
+
+    @Override
+    public CompletableFuture<OidcUserInfo> exchangeCodeForUserInfoAsync(HttpServletRequest req, String code,
+            String expectedNonce) {
+        // Nothing to wait for, answer on the calling thread
+        try {
+            return CompletableFuture.completedFuture(exchangeCodeForUserInfo(req, code, expectedNonce));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 }
@@ -19,17 +19,15 @@ import org.corzia.oidc.shiro.*;
 import org.corzia.oidc.internal.utils.*;
 import org.corzia.oidc.internal.jwks.*;
 
-import java.util.Map;
-import java.util.Set;
 import jakarta.servlet.http.HttpServletRequest;
-import com.nimbusds.jwt.JWTClaimsSet;
 import org.corzia.oidc.AbstractOidcClient;
-import org.corzia.oidc.OidcUserInfo;
-import org.corzia.oidc.internal.utils.HttpUtils;
-import org.corzia.oidc.internal.utils.TokenResponse;
 
 /**
  * OIDC client implementation for Okta.
+ * <p>
+ * Okta uses the standard OIDC claim names, so the default
+ * {@link AbstractOidcClient#toUserInfo} mapping applies.
+ * </p>
  */
 public class OktaOidcClient extends AbstractOidcClient {
 
@@ -47,47 +45,4 @@ public class OktaOidcClient extends AbstractOidcClient {
                 + "&state=" + url(state)
                 + "&nonce=" + url(nonce);
     }
-
-    @Override
-    public OidcUserInfo exchangeCodeForUserInfo(HttpServletRequest request,
-            String code,
-            String expectedNonce) throws Exception {
-
-        TokenResponse token = HttpUtils.exchangeCode(
-                tokenEndpoint(),
-                clientId(),
-                clientSecret(),
-                code,
-                redirectUri());
-
-        JWTClaimsSet claims = validateIdToken(token.getIdToken(), expectedNonce);
-        Map<String, Object> claimMap = claims.getClaims();
-
-        String email = (String) claimMap.get("email");
-        String subject = (String) claimMap.get("sub");
-        String fullName = (String) claimMap.get("name");
-        String givenName = (String) claimMap.get("given_name");
-        String familyName = (String) claimMap.get("family_name");
-        String picture = (String) claimMap.get("picture");
-        String locale = (String) claimMap.get("locale");
-        boolean emailVerified = Boolean.TRUE.equals(claimMap.get("email_verified"));
-
-        return new OidcUserInfo(
-                getName(),
-                subject,
-                email,
-                email,
-                fullName,
-                givenName,
-                familyName,
-                picture,
-                null, // tenantId not typical in Okta
-                locale,
-                emailVerified,
-                Set.of(),
-                token.getIdToken(),
-                token.getAccessToken(),
-                token.getRefreshToken(),
-                claimMap);
-    }
 }
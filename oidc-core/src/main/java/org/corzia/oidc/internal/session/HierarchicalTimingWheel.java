@@ -0,0 +1,191 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hierarchical timing wheel of deadlines, used to expire sessions without
+ * scanning all of them.
+ * <p>
+ * The wheel has {@value #LEVELS} levels of {@value #SLOTS} slots. A slot on
+ * level 0 spans one tick, a slot on level {@code n} spans
+ * {@code 64^n} ticks. A key is filed on the lowest level whose range covers
+ * its deadline; when the wheel reaches the start of a higher-level slot, the
+ * keys in it are cascaded down to finer slots. {@link #advance(long)} therefore
+ * only touches keys that are due or being cascaded, never the whole set.
+ * Deadlines beyond the top level are parked in its farthest slot and filed
+ * again when they come around.
+ * </p>
+ * <p>
+ * Scheduling a key again replaces its previous deadline; the old entry is
+ * skipped when its slot is reached. Lookups ({@link #contains(Object)}) do
+ * not take the lock.
+ * </p>
+ *
+ * @param <K> key type
+ */
+public final class HierarchicalTimingWheel<K> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_SPAN = 1L << (SLOT_BITS * LEVELS);
+
+    private final long tickMillis;
+    private final List<Entry<K>>[][] slots;
+    private final Map<K, Entry<K>> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private long currentTick; // guarded by lock
+
+    private static final class Entry<K> {
+        private final K key;
+        private final long deadlineTick;
+
+        private Entry(K key, long deadlineTick) {
+            this.key = key;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+
+    /**
+     * @param tickMillis resolution of the wheel; deadlines are rounded up to
+     *                   a whole tick
+     * @param nowMillis  current time, the wheel starts at this tick
+     */
+    @SuppressWarnings("unchecked")
+    public HierarchicalTimingWheel(long tickMillis, long nowMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.slots = new List[LEVELS][SLOTS];
+        for (List<Entry<K>>[] level : slots) {
+            for (int i = 0; i < SLOTS; i++) {
+                level[i] = new ArrayList<>();
+            }
+        }
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    /**
+     * Schedules the key to come due at the given time, replacing any earlier
+     * deadline. Deadlines in the past come due on the next tick.
+     */
+    public void schedule(K key, long deadlineMillis) {
+        lock.lock();
+        try {
+            long tick = Math.max(Math.ceilDiv(deadlineMillis, tickMillis), currentTick + 1);
+            Entry<K> entry = new Entry<>(key, tick);
+            entries.put(key, entry);
+            file(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the key; its entry is discarded lazily when its slot is reached.
+     */
+    public void cancel(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * @return true if the key has a pending deadline
+     */
+    public boolean contains(K key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * @return number of keys with a pending deadline
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Moves the wheel forward to the given time.
+     *
+     * @return keys whose deadline has passed, in deadline order; they are no
+     *         longer scheduled
+     */
+    public List<K> advance(long nowMillis) {
+        List<K> due = new ArrayList<>();
+        lock.lock();
+        try {
+            long target = nowMillis / tickMillis;
+            while (currentTick < target) {
+                currentTick++;
+                cascade();
+                List<Entry<K>> slot = slots[0][(int) (currentTick & SLOT_MASK)];
+                for (Entry<K> entry : slot) {
+                    if (entries.remove(entry.key, entry)) {
+                        due.add(entry.key);
+                    }
+                }
+                slot.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return due;
+    }
+
+    /**
+     * At the start of a level's slot span, re-files the keys of that slot on
+     * the levels below. Higher levels are only visited when the level below
+     * wrapped around.
+     */
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                return;
+            }
+            List<Entry<K>> slot = slots[level][(int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK)];
+            if (!slot.isEmpty()) {
+                List<Entry<K>> cascading = new ArrayList<>(slot);
+                slot.clear();
+                for (Entry<K> entry : cascading) {
+                    if (entries.get(entry.key) == entry) {
+                        file(entry);
+                    }
+                }
+            }
+        }
+    }
+
+    private void file(Entry<K> entry) {
+        long delta = entry.deadlineTick - currentTick;
+        long tick = entry.deadlineTick;
+        if (delta >= MAX_SPAN) {
+            // Parked in the farthest top-level slot, re-filed when it cascades
+            tick = currentTick + MAX_SPAN - 1;
+            delta = MAX_SPAN - 1;
+        }
+        int level = 0;
+        while (delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        slots[level][(int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK)].add(entry);
+    }
+}
@@ -0,0 +1,102 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.session;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.corzia.oidc.shiro.SessionStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reference {@link SessionStore} that keeps sessions in this JVM.
+ * <p>
+ * All instances share one map and one set of listeners, so several
+ * near-cached DAOs in the same process (for example two web applications, or
+ * simulated nodes) behave like nodes of one cluster. Invalidations are
+ * delivered synchronously to every listener. Selected with
+ * {@code security.session.store=loopback}.
+ * </p>
+ */
+public class LoopbackSessionStore implements SessionStore {
+
+    private static final Logger log = LoggerFactory.getLogger(LoopbackSessionStore.class);
+
+    private static final Map<String, byte[]> SESSIONS = new ConcurrentHashMap<>();
+    private static final List<InvalidationListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    @Override
+    public String getName() {
+        return "loopback";
+    }
+
+    @Override
+    public void configure(Properties props) {
+        // Nothing to configure
+    }
+
+    @Override
+    public byte[] read(String sessionId) {
+        byte[] data = SESSIONS.get(sessionId);
+        return data != null ? data.clone() : null;
+    }
+
+    @Override
+    public void write(String sessionId, byte[] data, String origin) {
+        SESSIONS.put(sessionId, data.clone());
+        publish(sessionId, origin);
+    }
+
+    @Override
+    public boolean writeIfPresent(String sessionId, byte[] data, String origin) {
+        if (SESSIONS.computeIfPresent(sessionId, (id, previous) -> data.clone()) == null) {
+            return false;
+        }
+        publish(sessionId, origin);
+        return true;
+    }
+
+    @Override
+    public void delete(String sessionId, String origin) {
+        if (SESSIONS.remove(sessionId) != null) {
+            publish(sessionId, origin);
+        }
+    }
+
+    @Override
+    public void subscribe(InvalidationListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    @Override
+    public void unsubscribe(InvalidationListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    private static void publish(String sessionId, String origin) {
+        for (InvalidationListener listener : LISTENERS) {
+            try {
+                listener.invalidated(sessionId, origin);
+            } catch (RuntimeException e) {
+                log.warn("Session invalidation listener failed for {}", sessionId, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,895 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.corzia.oidc.OidcConstants;
+import org.corzia.oidc.shiro.SessionStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link SessionStore} that keeps sessions in memory-mapped files, so they
+ * survive a restart or redeploy. Selected with
+ * {@code security.session.store=mapped}.
+ * <p>
+ * Sessions are appended to a log of fixed-size segment files in
+ * {@code security.session.store_dir}. Each record is
+ * </p>
+ *
+ * <pre>
+ * int   length   bytes after this field, 0 marks the end of the segment
+ * int   crc      CRC32C of the bytes after this field
+ * byte  type     1 = put, 2 = delete
+ * long  time     write time, epoch millis
+ * short idLength
+ * byte[] id      UTF-8
+ * byte[] data    encoded session (put only)
+ * </pre>
+ * <p>
+ * The length is written last, so a record torn by a crash fails its checksum
+ * and ends the segment. Every {@value #SYNC_INTERVAL_SECONDS} seconds the
+ * written part of each segment is forced to disk, after which a checkpoint
+ * file records how far each segment is known to be intact. On startup the
+ * records up to the checkpoint are replayed from their headers alone and
+ * only the tail after it is checksummed; session data is read from the
+ * mapping when a session is first requested and is never decoded here.
+ * </p>
+ * <p>
+ * Records older than {@code security.session.ttl_seconds} are dead, as are
+ * overwritten and deleted ones. Once a minute the oldest sealed segments are
+ * dropped as a whole once their newest record has expired, and the oldest
+ * sealed segment with less than half of its bytes live is compacted: its
+ * live records and any still-needed delete markers are copied to a new file
+ * without holding the store lock, which then replaces the segment under the
+ * same sequence number. A crash before the replacement leaves an unfinished
+ * copy that is removed on the next start.
+ * </p>
+ */
+public class MappedFileSessionStore implements SessionStore {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedFileSessionStore.class);
+
+    private static final int MAGIC = 0x4f535331; // "OSS1"
+    private static final int CHECKPOINT_MAGIC = 0x4f534331; // "OSC1"
+    private static final int FILE_HEADER = 8;
+    private static final int RECORD_HEADER = 4 + 4 + 1 + 8 + 2;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("sessions-(\\d{8})\\.seg");
+    private static final String COMPACTING_SUFFIX = ".compacting";
+    private static final String CHECKPOINT_FILE = "sessions.checkpoint";
+    private static final long COMPACT_INTERVAL_SECONDS = 60;
+    private static final long SYNC_INTERVAL_SECONDS = 5;
+
+    public static final int DEFAULT_SEGMENT_MB = 64;
+    public static final long DEFAULT_TTL_SECONDS = 2 * 60 * 60L;
+
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Segment> segments = new ArrayList<>(); // guarded by lock, oldest first
+
+    private Path directory;
+    private int segmentBytes;
+    private long ttlMillis;
+    private Segment active; // guarded by lock
+    private long lastSequence; // guarded by lock
+    private boolean checkpointDirty; // guarded by lock
+    private ScheduledExecutorService maintenance;
+
+    /**
+     * A mapped segment file.
+     */
+    private static final class Segment {
+        private final long sequence;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        // All guarded by store lock
+        private int position;
+        private long liveBytes;
+        private long newestTime;
+        private int lastRecord = -1;
+        private int syncedPosition = FILE_HEADER;
+        private int syncedCrc;
+
+        private Segment(long sequence, Path path, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Where the latest record of a session lives.
+     */
+    private record Location(Segment segment, int offset, int recordBytes, int dataOffset, int dataLength,
+            long time) {
+    }
+
+    /**
+     * How far a segment was forced to disk: the end of its last synced
+     * record and that record's checksum.
+     */
+    private record Mark(int position, int crc) {
+    }
+
+    private record Checkpoint(long lastSequence, Map<Long, Mark> marks) {
+    }
+
+    /**
+     * A record read back on startup, applied once its segment is verified.
+     */
+    private record Replayed(String sessionId, Location location) {
+    }
+
+    /**
+     * A put copied by compaction, from its offset in the old segment.
+     */
+    private record Copied(String sessionId, int from, int to) {
+    }
+
+    @Override
+    public String getName() {
+        return "mapped";
+    }
+
+    @Override
+    public void configure(Properties props) {
+        String dir = props.getProperty(OidcConstants.PROP_SESSION_STORE_DIR);
+        this.directory = dir != null && !dir.isBlank() ? Path.of(dir.trim())
+                : Path.of(System.getProperty("java.io.tmpdir"), "oidc-sessions");
+        this.segmentBytes = (int) Math.min(Integer.MAX_VALUE,
+                Math.max(1L, longValue(props, OidcConstants.PROP_SESSION_SEGMENT_MB, DEFAULT_SEGMENT_MB))
+                        * 1024L * 1024L);
+        this.ttlMillis = longValue(props, OidcConstants.PROP_SESSION_TTL_SECONDS, DEFAULT_TTL_SECONDS) * 1000L;
+
+        lock.lock();
+        try {
+            Files.createDirectories(directory);
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open session store in " + directory, e);
+        } finally {
+            lock.unlock();
+        }
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "oidc-session-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        maintenance.scheduleWithFixedDelay(this::maintain, COMPACT_INTERVAL_SECONDS, COMPACT_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+        maintenance.scheduleWithFixedDelay(this::syncQuietly, SYNC_INTERVAL_SECONDS, SYNC_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    @Override
+    public byte[] read(String sessionId) {
+        Location location = index.get(sessionId);
+        if (location == null || isExpired(location.time(), System.currentTimeMillis())) {
+            return null;
+        }
+        byte[] data = new byte[location.dataLength()];
+        location.segment().buffer.get(location.dataOffset(), data);
+        return data;
+    }
+
+    @Override
+    public void write(String sessionId, byte[] data, String origin) {
+        lock.lock();
+        try {
+            append(PUT, sessionId, data, System.currentTimeMillis());
+        } finally {
+            lock.unlock();
+        }
+        publish(sessionId, origin);
+    }
+
+    @Override
+    public boolean writeIfPresent(String sessionId, byte[] data, String origin) {
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            Location location = index.get(sessionId);
+            if (location == null || isExpired(location.time(), now)) {
+                return false;
+            }
+            append(PUT, sessionId, data, now);
+        } finally {
+            lock.unlock();
+        }
+        publish(sessionId, origin);
+        return true;
+    }
+
+    @Override
+    public void delete(String sessionId, String origin) {
+        boolean removed;
+        lock.lock();
+        try {
+            removed = index.containsKey(sessionId);
+            if (removed) {
+                append(DELETE, sessionId, null, System.currentTimeMillis());
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (removed) {
+            publish(sessionId, origin);
+        }
+    }
+
+    @Override
+    public void subscribe(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void unsubscribe(InvalidationListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Stops maintenance, forces all segments to disk and writes a final
+     * checkpoint.
+     */
+    @Override
+    public void close() {
+        if (maintenance != null) {
+            maintenance.shutdownNow();
+            try {
+                maintenance.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        syncQuietly();
+    }
+
+    /**
+     * @return number of sessions in the index
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * @return number of segment files
+     */
+    public int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void publish(String sessionId, String origin) {
+        for (InvalidationListener listener : listeners) {
+            try {
+                listener.invalidated(sessionId, origin);
+            } catch (RuntimeException e) {
+                log.warn("Session invalidation listener failed for {}", sessionId, e);
+            }
+        }
+    }
+
+    // --- Log -------------------------------------------------------------------
+
+    /**
+     * Maps the existing segments oldest first and replays their record
+     * headers into the index, checksumming only what the checkpoint does not
+     * cover.
+     */
+    private void open() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) list::iterator) {
+                String name = path.getFileName().toString();
+                if (SEGMENT_NAME.matcher(name).matches()) {
+                    files.add(path);
+                } else if (name.endsWith(COMPACTING_SUFFIX)
+                        || (name.startsWith(CHECKPOINT_FILE) && name.endsWith(".tmp"))) {
+                    // Left behind by a crash; the segment it was made from is intact
+                    log.info("Removing unfinished session store file {}", path);
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+        files.sort(null);
+
+        Checkpoint checkpoint = readCheckpoint();
+        lastSequence = checkpoint != null ? checkpoint.lastSequence() : 0;
+        long now = System.currentTimeMillis();
+        int records = 0;
+        int checked = 0;
+        for (Path file : files) {
+            Matcher m = SEGMENT_NAME.matcher(file.getFileName().toString());
+            m.matches();
+            long sequence = Long.parseLong(m.group(1));
+            // Never hand out this number again, even if the file is skipped
+            lastSequence = Math.max(lastSequence, sequence);
+            Segment segment;
+            try {
+                segment = new Segment(sequence, file, map(file, (int) Math.max(Files.size(file), FILE_HEADER)));
+            } catch (IOException e) {
+                log.warn("Skipping unreadable session segment {}: {}", file, e.getMessage());
+                continue;
+            }
+            if (segment.buffer.getInt(0) != MAGIC) {
+                log.warn("Skipping session segment {} with unknown format", file);
+                continue;
+            }
+
+            List<Replayed> replayed = new ArrayList<>();
+            Mark mark = checkpoint != null ? checkpoint.marks().get(sequence) : null;
+            int verified = replay(segment, now, mark, replayed);
+            if (verified < 0) {
+                log.warn("Checkpoint does not match session segment {}; checking every record", file);
+                replayed.clear();
+                verified = replay(segment, now, null, replayed);
+            }
+            for (Replayed record : replayed) {
+                apply(record.sessionId(), record.location());
+            }
+            records += replayed.size();
+            checked += verified;
+            segments.add(segment);
+        }
+        if (!segments.isEmpty()) {
+            active = segments.get(segments.size() - 1);
+        }
+        log.info("Session store in {}: {} segments, {} records ({} checksummed), {} sessions", directory,
+                segments.size(), records, checked, index.size());
+    }
+
+    /**
+     * Reads the record headers of a segment. Records that end at or before
+     * the checkpoint mark are trusted; the rest are checksummed, and the
+     * first that fails ends the segment.
+     *
+     * @param mark     how far the segment is known to be intact, or null to
+     *                 check every record
+     * @param replayed receives the records to apply to the index
+     * @return number of records checksummed, or -1 if the segment does not
+     *         match the mark
+     */
+    private int replay(Segment segment, long now, Mark mark, List<Replayed> replayed) {
+        MappedByteBuffer buffer = segment.buffer;
+        int trustedEnd = mark != null ? mark.position() : FILE_HEADER;
+        boolean confirmed = trustedEnd == FILE_HEADER;
+        int pos = FILE_HEADER;
+        int checked = 0;
+        CRC32C crc = new CRC32C();
+        segment.lastRecord = -1;
+        segment.newestTime = 0L;
+        while (pos + RECORD_HEADER <= buffer.capacity()) {
+            int length = buffer.getInt(pos);
+            int recordBytes = 4 + length;
+            if (length < RECORD_HEADER - 4 || pos + recordBytes > buffer.capacity()) {
+                break;
+            }
+            int storedCrc = buffer.getInt(pos + 4);
+            int idLength = Short.toUnsignedInt(buffer.getShort(pos + 17));
+            if (pos + recordBytes > trustedEnd) {
+                if (!confirmed) {
+                    return -1;
+                }
+                crc.reset();
+                crc.update(buffer.slice(pos + 8, length - 4));
+                if ((int) crc.getValue() != storedCrc || RECORD_HEADER + idLength > recordBytes) {
+                    log.warn("Session segment {} ends with a torn record at {}", segment.path, pos);
+                    break;
+                }
+                checked++;
+            } else if (RECORD_HEADER + idLength > recordBytes) {
+                return -1;
+            }
+            byte type = buffer.get(pos + 8);
+            long time = buffer.getLong(pos + 9);
+            byte[] id = new byte[idLength];
+            buffer.get(pos + RECORD_HEADER, id);
+            String sessionId = new String(id, StandardCharsets.UTF_8);
+            int dataOffset = pos + RECORD_HEADER + idLength;
+
+            if (type == PUT && !isExpired(time, now)) {
+                replayed.add(new Replayed(sessionId,
+                        new Location(segment, pos, recordBytes, dataOffset, pos + recordBytes - dataOffset, time)));
+            } else {
+                replayed.add(new Replayed(sessionId, null));
+            }
+            segment.lastRecord = pos;
+            segment.newestTime = Math.max(segment.newestTime, time);
+            pos += recordBytes;
+            if (pos == trustedEnd) {
+                if (storedCrc != mark.crc()) {
+                    return -1;
+                }
+                confirmed = true;
+            }
+        }
+        if (!confirmed) {
+            return -1;
+        }
+        segment.position = pos;
+        // Read back from the file, so already on disk
+        segment.syncedPosition = pos;
+        segment.syncedCrc = segment.lastRecord >= 0 ? buffer.getInt(segment.lastRecord + 4) : 0;
+        return checked;
+    }
+
+    /**
+     * Appends a record to the active segment, rolling to a new one when it is
+     * full, and updates the index. Called with the lock held.
+     */
+    private Location append(byte type, String sessionId, byte[] data, long time) {
+        byte[] id = sessionId.getBytes(StandardCharsets.UTF_8);
+        int dataLength = data != null ? data.length : 0;
+        int recordBytes = RECORD_HEADER + id.length + dataLength;
+        if (id.length > 0xffff || FILE_HEADER + recordBytes > segmentBytes) {
+            throw new IllegalArgumentException("Session " + sessionId + " is too large for the session store");
+        }
+        if (active == null || active.position + recordBytes > active.buffer.capacity()) {
+            roll();
+        }
+        MappedByteBuffer buffer = active.buffer;
+        int pos = active.position;
+        buffer.put(pos + 8, type);
+        buffer.putLong(pos + 9, time);
+        buffer.putShort(pos + 17, (short) id.length);
+        buffer.put(pos + RECORD_HEADER, id);
+        if (data != null) {
+            buffer.put(pos + RECORD_HEADER + id.length, data);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(pos + 8, recordBytes - 8));
+        buffer.putInt(pos + 4, (int) crc.getValue());
+        // Length last: until it is written the record does not exist
+        buffer.putInt(pos, recordBytes - 4);
+        active.position = pos + recordBytes;
+        active.lastRecord = pos;
+        active.newestTime = Math.max(active.newestTime, time);
+        if (active.position + 4 <= buffer.capacity()) {
+            buffer.putInt(active.position, 0);
+        }
+
+        Location location = type == PUT
+                ? new Location(active, pos, recordBytes, pos + RECORD_HEADER + id.length, dataLength, time)
+                : null;
+        apply(sessionId, location);
+        return location;
+    }
+
+    /**
+     * Points the index at a session's latest record and keeps the live byte
+     * counts of the segments in step.
+     */
+    private void apply(String sessionId, Location location) {
+        Location previous = location != null ? index.put(sessionId, location) : index.remove(sessionId);
+        if (previous != null) {
+            previous.segment().liveBytes -= previous.recordBytes();
+        }
+        if (location != null) {
+            location.segment().liveBytes += location.recordBytes();
+        }
+    }
+
+    /**
+     * Starts a new active segment. The segment it replaces is forced to disk
+     * by the next sync, not here, so writers do not wait for the disk.
+     */
+    private void roll() {
+        long sequence = lastSequence + 1;
+        Path path = directory.resolve(String.format("sessions-%08d.seg", sequence));
+        try {
+            Segment segment = new Segment(sequence, path, map(path, segmentBytes));
+            segment.buffer.putInt(0, MAGIC);
+            segment.buffer.putInt(4, 1);
+            segment.buffer.putInt(FILE_HEADER, 0);
+            segment.position = FILE_HEADER;
+            segments.add(segment);
+            lastSequence = sequence;
+            active = segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create session segment " + path, e);
+        }
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    // --- Sync and checkpoint ---------------------------------------------------
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (RuntimeException e) {
+            log.warn("Session store sync failed", e);
+        }
+    }
+
+    /**
+     * Forces what was written since the last sync to disk, without holding
+     * the lock while the disk works, then records it in the checkpoint.
+     */
+    private void sync() {
+        record Pending(Segment segment, int position, int crc) {
+        }
+        List<Pending> pending = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Segment segment : segments) {
+                if (segment.position > segment.syncedPosition) {
+                    pending.add(new Pending(segment, segment.position,
+                            segment.buffer.getInt(segment.lastRecord + 4)));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (Pending p : pending) {
+            p.segment().buffer.force(0, p.position());
+        }
+
+        Checkpoint checkpoint;
+        lock.lock();
+        try {
+            for (Pending p : pending) {
+                if (p.position() > p.segment().syncedPosition) {
+                    p.segment().syncedPosition = p.position();
+                    p.segment().syncedCrc = p.crc();
+                    checkpointDirty = true;
+                }
+            }
+            if (!checkpointDirty) {
+                return;
+            }
+            Map<Long, Mark> marks = new HashMap<>();
+            for (Segment segment : segments) {
+                marks.put(segment.sequence, new Mark(segment.syncedPosition, segment.syncedCrc));
+            }
+            checkpoint = new Checkpoint(lastSequence, marks);
+            checkpointDirty = false;
+        } finally {
+            lock.unlock();
+        }
+        writeCheckpoint(checkpoint);
+    }
+
+    /**
+     * Replaces the checkpoint file. Written to a temporary name and moved
+     * into place; a checkpoint that is lost or fails its checksum only makes
+     * the next start check every record.
+     */
+    private void writeCheckpoint(Checkpoint checkpoint) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeLong(checkpoint.lastSequence());
+            out.writeInt(checkpoint.marks().size());
+            for (Map.Entry<Long, Mark> entry : checkpoint.marks().entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeInt(entry.getValue().position());
+                out.writeInt(entry.getValue().crc());
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(directory, CHECKPOINT_FILE, ".tmp");
+            Files.write(tmp, bytes.toByteArray());
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.warn("Could not write session store checkpoint {}: {}", file, e.getMessage());
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    log.debug("Could not delete {}: {}", tmp, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private Checkpoint readCheckpoint() {
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (in.remaining() < 4 + 8 + 4 + 4) {
+                throw new IOException("truncated");
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(in.array(), 0, in.limit() - 4);
+            if ((int) crc.getValue() != in.getInt(in.limit() - 4) || in.getInt() != CHECKPOINT_MAGIC) {
+                throw new IOException("checksum mismatch");
+            }
+            long lastSequence = in.getLong();
+            int count = in.getInt();
+            if (count < 0 || in.remaining() != count * 16 + 4) {
+                throw new IOException("bad length");
+            }
+            Map<Long, Mark> marks = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                long sequence = in.getLong();
+                marks.put(sequence, new Mark(in.getInt(), in.getInt()));
+            }
+            return new Checkpoint(lastSequence, marks);
+        } catch (IOException e) {
+            log.warn("Ignoring session store checkpoint {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    // --- Maintenance -----------------------------------------------------------
+
+    /**
+     * Drops expired segments and compacts one segment. Runs on the
+     * maintenance thread.
+     */
+    void maintain() {
+        try {
+            expire();
+            compact();
+        } catch (RuntimeException e) {
+            log.warn("Session store maintenance failed", e);
+        }
+    }
+
+    /**
+     * Drops the oldest sealed segments whose newest record outlived the TTL.
+     * Records are appended in time order, so everything in them is expired;
+     * only the records of a dropped segment are visited, never the whole
+     * index. A read already ignores an expired session before its segment
+     * is dropped. No delete marker is needed: a restart skips expired
+     * records by their timestamp.
+     */
+    private void expire() {
+        long now = System.currentTimeMillis();
+        while (true) {
+            Segment oldest;
+            int end;
+            lock.lock();
+            try {
+                oldest = segments.isEmpty() ? null : segments.get(0);
+                if (oldest == null || oldest == active || !isExpired(oldest.newestTime, now)) {
+                    return;
+                }
+                end = oldest.position;
+            } finally {
+                lock.unlock();
+            }
+
+            // Sealed, so its records do not change
+            int expired = 0;
+            for (int pos = FILE_HEADER; pos < end; pos += 4 + oldest.buffer.getInt(pos)) {
+                if (oldest.buffer.get(pos + 8) == PUT && index.computeIfPresent(sessionIdAt(oldest.buffer, pos),
+                        (id, location) -> location.segment() == oldest ? null : location) == null) {
+                    expired++;
+                }
+            }
+
+            lock.lock();
+            try {
+                segments.remove(oldest);
+                checkpointDirty = true;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException e) {
+                log.warn("Cannot remove expired session segment {}: {}", oldest.path, e.getMessage());
+            }
+            log.debug("Dropped expired session segment {} ({} sessions)", oldest.path.getFileName(), expired);
+        }
+    }
+
+    /**
+     * Compacts the oldest sealed segment that is less than half live. The
+     * live records are copied to a new file without holding the lock; the
+     * lock is only taken to move the file into place and repoint the index
+     * at the copies that are still current.
+     */
+    private void compact() {
+        Segment victim = null;
+        boolean oldest;
+        int end;
+        lock.lock();
+        try {
+            for (Segment segment : segments) {
+                if (segment != active && segment.liveBytes * 2 < segment.position - FILE_HEADER) {
+                    victim = segment;
+                    break;
+                }
+            }
+            if (victim == null) {
+                return;
+            }
+            oldest = victim == segments.get(0);
+            end = victim.position;
+        } finally {
+            lock.unlock();
+        }
+
+        Path output = victim.path.resolveSibling(victim.path.getFileName() + COMPACTING_SUFFIX);
+        long now = System.currentTimeMillis();
+        List<Copied> copied = new ArrayList<>();
+        Segment compacted;
+        try {
+            compacted = new Segment(victim.sequence, victim.path, map(output, end + 4));
+            MappedByteBuffer from = victim.buffer;
+            MappedByteBuffer to = compacted.buffer;
+            to.putInt(0, MAGIC);
+            to.putInt(4, 1);
+            int out = FILE_HEADER;
+            for (int pos = FILE_HEADER; pos < end;) {
+                int recordBytes = 4 + from.getInt(pos);
+                byte type = from.get(pos + 8);
+                long time = from.getLong(pos + 9);
+                String sessionId = sessionIdAt(from, pos);
+
+                boolean keep;
+                if (type == PUT) {
+                    // Rechecked under the lock before the copy is used
+                    Location location = index.get(sessionId);
+                    keep = location != null && location.segment() == victim && location.offset() == pos;
+                } else {
+                    // An older segment may still hold a put this marker cancels
+                    keep = !oldest && !index.containsKey(sessionId) && !isExpired(time, now);
+                }
+                if (keep) {
+                    to.put(out, from, pos, recordBytes);
+                    if (type == PUT) {
+                        copied.add(new Copied(sessionId, pos, out));
+                    }
+                    compacted.lastRecord = out;
+                    compacted.newestTime = Math.max(compacted.newestTime, time);
+                    out += recordBytes;
+                }
+                pos += recordBytes;
+            }
+            to.putInt(out, 0);
+            compacted.position = out;
+            to.force();
+            compacted.syncedPosition = out;
+            compacted.syncedCrc = compacted.lastRecord >= 0 ? to.getInt(compacted.lastRecord + 4) : 0;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot compact session segment {}: {}", victim.path.getFileName(), e.getMessage());
+            deleteQuietly(output);
+            return;
+        }
+
+        int moved = 0;
+        lock.lock();
+        try {
+            int slot = segments.indexOf(victim);
+            if (slot < 0) {
+                deleteQuietly(output);
+                return;
+            }
+            if (compacted.lastRecord < 0) {
+                // Nothing left worth keeping
+                segments.remove(slot);
+                Files.deleteIfExists(victim.path);
+                deleteQuietly(output);
+            } else {
+                try {
+                    Files.move(output, victim.path, StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(output, victim.path, StandardCopyOption.REPLACE_EXISTING);
+                }
+                segments.set(slot, compacted);
+                for (Copied copy : copied) {
+                    Location location = index.get(copy.sessionId());
+                    if (location != null && location.segment() == victim && location.offset() == copy.from()) {
+                        index.put(copy.sessionId(), new Location(compacted, copy.to(), location.recordBytes(),
+                                location.dataOffset() - copy.from() + copy.to(), location.dataLength(),
+                                location.time()));
+                        compacted.liveBytes += location.recordBytes();
+                        moved++;
+                    }
+                }
+            }
+            checkpointDirty = true;
+        } catch (IOException e) {
+            log.warn("Cannot replace compacted session segment {}: {}", victim.path.getFileName(), e.getMessage());
+            deleteQuietly(output);
+            return;
+        } finally {
+            lock.unlock();
+        }
+        log.debug("Compacted session segment {}: {} live records kept", victim.path.getFileName(), moved);
+    }
+
+    private static String sessionIdAt(MappedByteBuffer buffer, int pos) {
+        byte[] id = new byte[Short.toUnsignedInt(buffer.getShort(pos + 17))];
+        buffer.get(pos + RECORD_HEADER, id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.debug("Could not delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    private boolean isExpired(long time, long now) {
+        return ttlMillis > 0 && now - time > ttlMillis;
+    }
+
+    private static long longValue(Properties props, String key, long defaultValue) {
+        String value = props.getProperty(key);
+        try {
+            return value != null && !value.isBlank() ? Long.parseLong(value.trim()) : defaultValue;
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring invalid value '{}' for {}", value, key);
+            return defaultValue;
+        }
+    }
+}
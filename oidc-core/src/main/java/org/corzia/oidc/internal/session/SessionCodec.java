@@ -0,0 +1,597 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.shiro.session.Session;
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
+import org.corzia.oidc.OidcConstants;
+import org.corzia.oidc.OidcUserInfo;
+import org.corzia.oidc.UserInfo;
+import org.corzia.oidc.shiro.TrackedSession;
+
+/**
+ * Compact, versioned binary encoding of sessions for the shared and
+ * persistent session stores.
+ * <p>
+ * Java serialization of a {@link SimpleSession} writes full class
+ * descriptors for the session, the principal collection, the user info and
+ * every claim value. This codec writes the fields directly instead:
+ * </p>
+ * <ul>
+ * <li>integers and lengths as varints, timestamps relative to the session
+ * start</li>
+ * <li>every string through a dictionary: the first occurrence is written
+ * out, later ones as a reference. The dictionary is seeded with provider
+ * names and the usual attribute keys, so those are never written, and a
+ * user's group ids are written once even if they appear in several
+ * places</li>
+ * <li>{@link UserInfo}, {@link OidcUserInfo}, principal collections and
+ * claim values (strings, numbers, booleans, dates, lists and maps) as tagged
+ * values</li>
+ * </ul>
+ * <p>
+ * Attribute values of other types are embedded as Java serialization, and a
+ * session that is not a {@link SimpleSession} is serialized as a whole.
+ * Data written by Java serialization alone (before this codec) is still
+ * read. Serialized data is only read through an allowlist of JDK, Shiro and
+ * OIDC classes; anything else is rejected.
+ * </p>
+ */
+public final class SessionCodec {
+
+    private static final byte MAGIC = 0x53; // 'S'
+    private static final byte VERSION_1 = 1;
+    private static final byte JAVA_SERIALIZED = 0;
+
+    /**
+     * Embedded Java serialization is read from shared and persistent stores,
+     * so only JDK, Shiro and our own classes may be instantiated.
+     */
+    private static final ObjectInputFilter SERIAL_FILTER = ObjectInputFilter.Config
+            .createFilter("maxdepth=32;maxrefs=100000;maxbytes=4194304;"
+                    + "java.base/*;org.corzia.oidc.**;org.apache.shiro.**;!*");
+
+    /**
+     * Strings every version 1 dictionary starts with. Part of the format:
+     * entries may only be changed together with a new version.
+     */
+    private static final List<String> SEEDS_V1 = List.of(
+            "google", "entra", "okta", "mock", "default",
+            DefaultSubjectContext.PRINCIPALS_SESSION_KEY,
+            DefaultSubjectContext.AUTHENTICATED_SESSION_KEY,
+            OidcConstants.ATTR_TAB_ID,
+            OidcConstants.ATTR_CSRF_TOKEN,
+            OidcConstants.ATTR_OIDC_STATE,
+            OidcConstants.ATTR_OIDC_NONCE,
+            OidcConstants.ATTR_OIDC_PROVIDER,
+            OidcConstants.ATTR_SAVED_REQUEST);
+
+    // Session flags
+    private static final int F_TRACKED = 1;
+    private static final int F_EXPIRED = 2;
+    private static final int F_STOPPED = 4;
+
+    // Value tags
+    private static final int T_NULL = 0;
+    private static final int T_STRING = 1;
+    private static final int T_TRUE = 2;
+    private static final int T_FALSE = 3;
+    private static final int T_INT = 4;
+    private static final int T_LONG = 5;
+    private static final int T_DOUBLE = 6;
+    private static final int T_DATE = 7;
+    private static final int T_LIST = 8;
+    private static final int T_MAP = 9;
+    private static final int T_PRINCIPALS = 10;
+    private static final int T_USER_INFO = 11;
+    private static final int T_OIDC_USER_INFO = 12;
+    private static final int T_SERIALIZED = 13;
+
+    private SessionCodec() {
+    }
+
+    /**
+     * @return the encoded session
+     */
+    public static byte[] encode(Session session) {
+        if (!(session instanceof SimpleSession simple) || !(session.getId() instanceof String)) {
+            return javaSerialized(session);
+        }
+        Writer out = new Writer();
+        out.raw(MAGIC);
+        out.raw(VERSION_1);
+
+        long start = time(simple.getStartTimestamp());
+        int flags = (session instanceof TrackedSession ? F_TRACKED : 0)
+                | (simple.isExpired() ? F_EXPIRED : 0)
+                | (simple.getStopTimestamp() != null ? F_STOPPED : 0);
+        out.varint(flags);
+        out.string((String) simple.getId());
+        out.varlong(start);
+        out.varlong(time(simple.getLastAccessTime()) - start);
+        if (simple.getStopTimestamp() != null) {
+            out.varlong(time(simple.getStopTimestamp()) - start);
+        }
+        out.signed(simple.getTimeout());
+        out.string(simple.getHost());
+
+        Map<Object, Object> attributes = simple.getAttributes();
+        out.varint(attributes != null ? attributes.size() : 0);
+        if (attributes != null) {
+            for (Map.Entry<Object, Object> attribute : attributes.entrySet()) {
+                out.value(attribute.getKey());
+                out.value(attribute.getValue());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the decoded session
+     * @throws IllegalArgumentException if the data is not a session in a
+     *                                  known format or holds a class that
+     *                                  may not be deserialized
+     */
+    public static Session decode(byte[] data) {
+        if (data.length >= 2 && data[0] == (byte) 0xac && data[1] == (byte) 0xed) {
+            // Plain Java serialization, as written before this codec
+            return readSerializedSession(data, 0, data.length);
+        }
+        if (data.length < 2 || data[0] != MAGIC) {
+            throw new IllegalArgumentException("Not an encoded session");
+        }
+        if (data[1] == JAVA_SERIALIZED) {
+            return readSerializedSession(data, 2, data.length - 2);
+        }
+        if (data[1] != VERSION_1) {
+            throw new IllegalArgumentException("Unsupported session encoding version " + data[1]);
+        }
+
+        Reader in = new Reader(data, 2);
+        int flags = in.varint();
+        SimpleSession session = (flags & F_TRACKED) != 0 ? new TrackedSession() : new SimpleSession();
+        session.setId(in.string());
+        long start = in.varlong();
+        session.setStartTimestamp(new Date(start));
+        session.setLastAccessTime(new Date(start + in.varlong()));
+        if ((flags & F_STOPPED) != 0) {
+            session.setStopTimestamp(new Date(start + in.varlong()));
+        }
+        session.setExpired((flags & F_EXPIRED) != 0);
+        session.setTimeout(in.signed());
+        session.setHost(in.string());
+
+        int count = in.varint();
+        Map<Object, Object> attributes = new HashMap<>(Math.max(4, count * 2));
+        for (int i = 0; i < count; i++) {
+            Object key = in.value();
+            attributes.put(key, in.value());
+        }
+        session.setAttributes(attributes);
+        if (session instanceof TrackedSession tracked) {
+            tracked.clearDirty();
+        }
+        return session;
+    }
+
+    private static long time(Date date) {
+        return date != null ? date.getTime() : 0L;
+    }
+
+    private static byte[] javaSerialized(Session session) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        bytes.write(MAGIC);
+        bytes.write(JAVA_SERIALIZED);
+        writeSerialized(bytes, session);
+        return bytes.toByteArray();
+    }
+
+    private static void writeSerialized(ByteArrayOutputStream bytes, Object value) {
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot serialize " + value.getClass().getName(), e);
+        }
+    }
+
+    private static Session readSerializedSession(byte[] data, int offset, int length) {
+        if (readSerialized(data, offset, length) instanceof Session session) {
+            return session;
+        }
+        throw new IllegalArgumentException("Serialized data is not a session");
+    }
+
+    private static Object readSerialized(byte[] data, int offset, int length) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data, offset, length))) {
+            in.setObjectInputFilter(SERIAL_FILTER);
+            return in.readObject();
+        } catch (InvalidClassException e) {
+            throw new IllegalArgumentException("Session data holds a class that may not be deserialized: "
+                    + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot deserialize session data", e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Cannot deserialize session data", e);
+        }
+    }
+
+    /**
+     * Growable output buffer with the string dictionary.
+     */
+    private static final class Writer {
+        private byte[] buf = new byte[256];
+        private int len;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+
+        private Writer() {
+            for (String seed : SEEDS_V1) {
+                dictionary.put(seed, dictionary.size());
+            }
+        }
+
+        private void raw(int b) {
+            if (len == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            buf[len++] = (byte) b;
+        }
+
+        private void raw(byte[] bytes) {
+            if (len + bytes.length > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + bytes.length));
+            }
+            System.arraycopy(bytes, 0, buf, len, bytes.length);
+            len += bytes.length;
+        }
+
+        private void varint(int value) {
+            varlong(value & 0xffffffffL);
+        }
+
+        private void varlong(long value) {
+            while ((value & ~0x7fL) != 0) {
+                raw((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            raw((int) value);
+        }
+
+        private void signed(long value) {
+            varlong((value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * 0 is null, odd values reference the dictionary, even values are the
+         * length of a new string plus one, shifted.
+         */
+        private void string(String value) {
+            if (value == null) {
+                varint(0);
+                return;
+            }
+            Integer ref = dictionary.get(value);
+            if (ref != null) {
+                varint((ref << 1) | 1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint((bytes.length + 1) << 1);
+            raw(bytes);
+            dictionary.put(value, dictionary.size());
+        }
+
+        private void strings(Collection<String> values) {
+            if (values == null) {
+                varint(0);
+                return;
+            }
+            varint(values.size() + 1);
+            for (String value : values) {
+                string(value);
+            }
+        }
+
+        private void value(Object value) {
+            if (value == null) {
+                varint(T_NULL);
+            } else if (value instanceof String s) {
+                varint(T_STRING);
+                string(s);
+            } else if (value instanceof Boolean b) {
+                varint(b ? T_TRUE : T_FALSE);
+            } else if (value instanceof Integer i) {
+                varint(T_INT);
+                signed(i);
+            } else if (value instanceof Long l) {
+                varint(T_LONG);
+                signed(l);
+            } else if (value instanceof Double d) {
+                varint(T_DOUBLE);
+                varlong(Double.doubleToRawLongBits(d));
+            } else if (value instanceof Date d && value.getClass() == Date.class) {
+                varint(T_DATE);
+                signed(d.getTime());
+            } else if (value instanceof List<?> list) {
+                varint(T_LIST);
+                varint(list.size());
+                for (Object item : list) {
+                    value(item);
+                }
+            } else if (value instanceof Map<?, ?> map && isStringKeyed(map)) {
+                varint(T_MAP);
+                varint(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    string((String) entry.getKey());
+                    value(entry.getValue());
+                }
+            } else if (value.getClass() == SimplePrincipalCollection.class) {
+                SimplePrincipalCollection principals = (SimplePrincipalCollection) value;
+                varint(T_PRINCIPALS);
+                Set<String> realms = principals.getRealmNames();
+                varint(realms.size());
+                for (String realm : realms) {
+                    string(realm);
+                    Collection<?> fromRealm = principals.fromRealm(realm);
+                    varint(fromRealm.size());
+                    for (Object principal : fromRealm) {
+                        value(principal);
+                    }
+                }
+            } else if (value.getClass() == OidcUserInfo.class) {
+                OidcUserInfo user = (OidcUserInfo) value;
+                varint(T_OIDC_USER_INFO);
+                userInfo(user);
+                string(user.getProviderName());
+                string(user.getSubject());
+                string(user.getTenantId());
+                string(user.getIdToken());
+                string(user.getAccessToken());
+                string(user.getRefreshToken());
+                value(user.getClaims());
+            } else if (value.getClass() == UserInfo.class) {
+                varint(T_USER_INFO);
+                userInfo((UserInfo) value);
+            } else if (value instanceof Serializable) {
+                varint(T_SERIALIZED);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+                writeSerialized(bytes, value);
+                varint(bytes.size());
+                raw(bytes.toByteArray());
+            } else {
+                throw new IllegalArgumentException(
+                        "Session attribute of type " + value.getClass().getName() + " cannot be stored");
+            }
+        }
+
+        private void userInfo(UserInfo user) {
+            string(user.getUsername());
+            string(user.getEmail());
+            string(user.getFullName());
+            string(user.getGivenName());
+            string(user.getFamilyName());
+            string(user.getPicture());
+            string(user.getLocale());
+            raw(user.isEmailVerified() ? 1 : 0);
+            strings(user.getGroups());
+        }
+
+        private static boolean isStringKeyed(Map<?, ?> map) {
+            for (Object key : map.keySet()) {
+                if (!(key instanceof String)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buf, len);
+        }
+    }
+
+    /**
+     * Input cursor with the string dictionary.
+     */
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos;
+        private final List<String> dictionary = new ArrayList<>(SEEDS_V1);
+
+        private Reader(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        private int raw() {
+            if (pos >= buf.length) {
+                throw new IllegalArgumentException("Truncated session data");
+            }
+            return buf[pos++] & 0xff;
+        }
+
+        private int varint() {
+            long value = varlong();
+            if (value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Malformed session data");
+            }
+            return (int) value;
+        }
+
+        private long varlong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = raw();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed session data");
+        }
+
+        private long signed() {
+            long value = varlong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private String string() {
+            int header = varint();
+            if (header == 0) {
+                return null;
+            }
+            if ((header & 1) != 0) {
+                int ref = header >>> 1;
+                if (ref >= dictionary.size()) {
+                    throw new IllegalArgumentException("Malformed session data");
+                }
+                return dictionary.get(ref);
+            }
+            int length = (header >>> 1) - 1;
+            if (length < 0 || length > buf.length - pos) {
+                throw new IllegalArgumentException("Truncated session data");
+            }
+            String value = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            dictionary.add(value);
+            return value;
+        }
+
+        private Set<String> strings() {
+            int count = varint();
+            if (count == 0) {
+                return null;
+            }
+            Set<String> values = new LinkedHashSet<>();
+            for (int i = 1; i < count; i++) {
+                values.add(string());
+            }
+            return values;
+        }
+
+        private Object value() {
+            int tag = varint();
+            switch (tag) {
+                case T_NULL:
+                    return null;
+                case T_STRING:
+                    return string();
+                case T_TRUE:
+                    return Boolean.TRUE;
+                case T_FALSE:
+                    return Boolean.FALSE;
+                case T_INT:
+                    return (int) signed();
+                case T_LONG:
+                    return signed();
+                case T_DOUBLE:
+                    return Double.longBitsToDouble(varlong());
+                case T_DATE:
+                    return new Date(signed());
+                case T_LIST: {
+                    int size = varint();
+                    List<Object> list = new ArrayList<>(Math.min(size, 64));
+                    for (int i = 0; i < size; i++) {
+                        list.add(value());
+                    }
+                    return list;
+                }
+                case T_MAP: {
+                    int size = varint();
+                    Map<String, Object> map = new LinkedHashMap<>();
+                    for (int i = 0; i < size; i++) {
+                        String key = string();
+                        map.put(key, value());
+                    }
+                    return map;
+                }
+                case T_PRINCIPALS: {
+                    SimplePrincipalCollection principals = new SimplePrincipalCollection();
+                    int realms = varint();
+                    for (int r = 0; r < realms; r++) {
+                        String realm = string();
+                        int size = varint();
+                        for (int i = 0; i < size; i++) {
+                            principals.add(value(), realm);
+                        }
+                    }
+                    return principals;
+                }
+                case T_USER_INFO:
+                    return new UserInfo(string(), string(), string(), string(), string(), string(), string(),
+                            raw() != 0, strings());
+                case T_OIDC_USER_INFO:
+                    return oidcUserInfo();
+                case T_SERIALIZED: {
+                    int length = varint();
+                    if (length > buf.length - pos) {
+                        throw new IllegalArgumentException("Truncated session data");
+                    }
+                    Object value = readSerialized(buf, pos, length);
+                    pos += length;
+                    return value;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown session value tag " + tag);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private OidcUserInfo oidcUserInfo() {
+            String username = string();
+            String email = string();
+            String fullName = string();
+            String givenName = string();
+            String familyName = string();
+            String picture = string();
+            String locale = string();
+            boolean emailVerified = raw() != 0;
+            Set<String> groups = strings();
+            String providerName = string();
+            String subject = string();
+            String tenantId = string();
+            String idToken = string();
+            String accessToken = string();
+            String refreshToken = string();
+            Object claims = value();
+            return new OidcUserInfo(providerName, subject, username, email, fullName, givenName, familyName,
+                    picture, tenantId, locale, emailVerified, groups, idToken, accessToken, refreshToken,
+                    claims instanceof Map ? (Map<String, Object>) claims : null);
+        }
+    }
+}
@@ -16,16 +16,124 @@
 package org.corzia.oidc.internal.user;
 import org.corzia.oidc.*;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.corzia.oidc.internal.config.OidcConfigManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A shared directory for looking up authenticated user information (UserInfo)
  * by username.
+ * <p>
+ * Users logged in through an IdP ({@link OidcUserInfo}) are bound to their
+ * sessions and leave the directory with them: once the last bound session
+ * ends, the entry is removed as soon as its tokens have expired and at the
+ * latest after {@code security.users.detached_seconds}. The directory holds
+ * at most {@code security.users.max_entries} IdP users; beyond that, the
+ * user detached longest is evicted first, then the least recently updated
+ * one. Both are kept in insertion order, so an eviction does not search.
+ * Evicting a user that still has sessions ends them through the eviction
+ * listener; without a listener such users are not evicted. Plain
+ * {@link UserInfo} profiles are registered by the application and stay
+ * until removed.
+ * </p>
+ * <p>
+ * Users can also be found by (provider, subject), by email and by browser id,
+ * and sessions by (provider, subject) and by IdP session id ({@code sid}),
+ * through indexes kept in step with the entries.
+ * </p>
  */
 public class OidcUserDirectory {
 
-    private static final Map<String, UserInfo> USERS = new ConcurrentHashMap<>();
+    private static final Logger log = LoggerFactory.getLogger(OidcUserDirectory.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+    public static final long DEFAULT_DETACHED_SECONDS = 300;
+    private static final long SWEEP_SECONDS = 60;
+
+    private static final Map<String, Entry> USERS = new ConcurrentHashMap<>();
+    private static final Map<SubjectKey, String> BY_SUBJECT = new ConcurrentHashMap<>();
+    private static final Map<String, Set<String>> BY_EMAIL = new ConcurrentHashMap<>();
+    private static final Map<String, Set<String>> BY_BROWSER = new ConcurrentHashMap<>();
+    private static final Map<Serializable, Binding> BY_SESSION = new ConcurrentHashMap<>();
+    private static final Map<SubjectKey, Set<Serializable>> BY_SID = new ConcurrentHashMap<>();
+    /** IdP users without a bound session, oldest detach first; guarded by LOCK. */
+    private static final LinkedHashMap<String, Long> DETACHED = new LinkedHashMap<>();
+    /** IdP users, least recently updated first; guarded by LOCK. */
+    private static final LinkedHashMap<String, Long> UPDATED = new LinkedHashMap<>();
+    private static final ReentrantLock LOCK = new ReentrantLock();
+    private static volatile Consumer<Set<Serializable>> evictionListener;
+
+    /**
+     * Identifies a user, or with a {@code sid} a login session, at an IdP.
+     */
+    public record SubjectKey(String provider, String subject) {
+    }
+
+    /**
+     * A session bound to a user, with the IdP session it was created by.
+     */
+    private record Binding(String username, SubjectKey sid) {
+    }
+
+    private static final class Entry {
+        private volatile UserInfo info;
+        private final Set<Serializable> sessionIds = ConcurrentHashMap.newKeySet();
+        private final Set<String> browserIds = ConcurrentHashMap.newKeySet();
+
+        private Entry(UserInfo info) {
+            this.info = info;
+        }
+    }
+
+    private static final class Holder {
+        private static final int MAX_ENTRIES;
+        private static final long DETACHED_MILLIS;
+
+        static {
+            Properties security = OidcConfigManager.getSecurityConfig(OidcConstants.CONFIG_SECURITY);
+            MAX_ENTRIES = (int) longValue(security, OidcConstants.PROP_USERS_MAX_ENTRIES, DEFAULT_MAX_ENTRIES);
+            DETACHED_MILLIS = longValue(security, OidcConstants.PROP_USERS_DETACHED_SECONDS,
+                    DEFAULT_DETACHED_SECONDS) * 1000L;
+
+            ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "oidc-user-directory-sweep");
+                t.setDaemon(true);
+                return t;
+            });
+            sweeper.scheduleWithFixedDelay(OidcUserDirectory::sweep, SWEEP_SECONDS, SWEEP_SECONDS,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Sets the listener that ends the sessions of a user evicted for
+     * capacity while still logged in. It is called outside the directory
+     * lock. Without a listener, users with sessions are never evicted and
+     * the directory may exceed its capacity.
+     *
+     * @param listener receives the ids of the sessions to end, may be null
+     */
+    public static void setEvictionListener(Consumer<Set<Serializable>> listener) {
+        evictionListener = listener;
+    }
 
     /**
      * Stores user info by username.
@@ -34,19 +142,50 @@ public class OidcUserDirectory {
      */
     public static void put(UserInfo info) {
         if (info != null && info.getUsername() != null) {
-            USERS.put(info.getUsername(), info);
+            put(info.getUsername(), info);
         }
     }
 
     /**
-     * Stores user info with an explicit username key.
+     * Stores user info with an explicit username key. Sessions already bound
+     * to the username stay bound.
      * 
      * @param username the username key
      * @param info     the UserInfo object to store
      */
     public static void put(String username, UserInfo info) {
-        if (username != null && info != null) {
-            USERS.put(username, info);
+        if (username == null || info == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        boolean added;
+        LOCK.lock();
+        try {
+            Entry entry = USERS.get(username);
+            added = entry == null;
+            if (added) {
+                entry = new Entry(info);
+                USERS.put(username, entry);
+            } else {
+                unindex(username, entry.info);
+                entry.info = info;
+            }
+            index(username, info);
+            // Re-inserted to move to the tail
+            UPDATED.remove(username);
+            if (info instanceof OidcUserInfo) {
+                UPDATED.put(username, now);
+            }
+            if (info instanceof OidcUserInfo && entry.sessionIds.isEmpty()) {
+                DETACHED.putIfAbsent(username, now);
+            } else {
+                DETACHED.remove(username);
+            }
+        } finally {
+            LOCK.unlock();
+        }
+        if (added && info instanceof OidcUserInfo) {
+            enforceCapacity(username);
         }
     }
 
@@ -57,6 +196,386 @@ public class OidcUserDirectory {
      * @return the UserInfo object, or null if not found
      */
     public static UserInfo get(String username) {
-        return username != null ? USERS.get(username) : null;
+        Entry entry = username != null ? USERS.get(username) : null;
+        return entry != null ? entry.info : null;
+    }
+
+    /**
+     * Removes a user, its indexes and its session bindings.
+     *
+     * @param username the username key
+     * @return the removed user info, or null if not found
+     */
+    public static UserInfo remove(String username) {
+        if (username == null) {
+            return null;
+        }
+        LOCK.lock();
+        try {
+            Entry entry = USERS.remove(username);
+            if (entry == null) {
+                return null;
+            }
+            unindex(username, entry.info);
+            for (Serializable sessionId : entry.sessionIds) {
+                Binding binding = BY_SESSION.get(sessionId);
+                if (binding != null && binding.username().equals(username)) {
+                    BY_SESSION.remove(sessionId);
+                    removeSid(binding, sessionId);
+                }
+            }
+            for (String browserId : entry.browserIds) {
+                removeFrom(BY_BROWSER, browserId, username);
+            }
+            DETACHED.remove(username);
+            UPDATED.remove(username);
+            return entry.info;
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    /**
+     * Binds a session to a user, so the user stays in the directory while
+     * the session lives and can be found by browser id. The session is also
+     * indexed by the {@code sid} claim of the user's current ID token, if
+     * any, so it should be bound right after the login that stored the user.
+     *
+     * @param username  the username key, must already be stored
+     * @param sessionId the Shiro session id
+     * @param browserId the browser the session belongs to, may be null
+     */
+    public static void bindSession(String username, Serializable sessionId, String browserId) {
+        if (username == null || sessionId == null) {
+            return;
+        }
+        LOCK.lock();
+        try {
+            Entry entry = USERS.get(username);
+            if (entry == null) {
+                return;
+            }
+            SubjectKey sid = sidOf(entry.info);
+            Binding previous = BY_SESSION.put(sessionId, new Binding(username, sid));
+            if (previous != null) {
+                removeSid(previous, sessionId);
+                if (!previous.username().equals(username)) {
+                    detachSession(previous.username(), sessionId);
+                }
+            }
+            if (sid != null) {
+                BY_SID.computeIfAbsent(sid, k -> ConcurrentHashMap.newKeySet()).add(sessionId);
+            }
+            entry.sessionIds.add(sessionId);
+            if (browserId != null && entry.browserIds.add(browserId)) {
+                BY_BROWSER.computeIfAbsent(browserId, b -> ConcurrentHashMap.newKeySet()).add(username);
+            }
+            DETACHED.remove(username);
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    /**
+     * Unbinds an ended session from its user.
+     *
+     * @param sessionId the Shiro session id
+     */
+    public static void unbindSession(Serializable sessionId) {
+        if (sessionId == null) {
+            return;
+        }
+        LOCK.lock();
+        try {
+            Binding binding = BY_SESSION.remove(sessionId);
+            if (binding != null) {
+                removeSid(binding, sessionId);
+                detachSession(binding.username(), sessionId);
+            }
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    /**
+     * @return the user logged in with the given IdP subject, or null
+     */
+    public static UserInfo findBySubject(String provider, String subject) {
+        String username = BY_SUBJECT.get(new SubjectKey(provider, subject));
+        return get(username);
+    }
+
+    /**
+     * @return users with the given email address (case-insensitive)
+     */
+    public static List<UserInfo> findByEmail(String email) {
+        return email != null ? lookup(BY_EMAIL.get(email.toLowerCase(Locale.ROOT))) : List.of();
+    }
+
+    /**
+     * @return users with a session in the given browser
+     */
+    public static List<UserInfo> findByBrowserId(String browserId) {
+        return browserId != null ? lookup(BY_BROWSER.get(browserId)) : List.of();
+    }
+
+    /**
+     * @return ids of the sessions bound to the user; empty if none
+     */
+    public static Set<Serializable> getSessionIds(String username) {
+        Entry entry = username != null ? USERS.get(username) : null;
+        return entry != null ? Collections.unmodifiableSet(entry.sessionIds) : Set.of();
+    }
+
+    /**
+     * @return the username a session is bound to, or null
+     */
+    public static String getUsernameForSession(Serializable sessionId) {
+        Binding binding = sessionId != null ? BY_SESSION.get(sessionId) : null;
+        return binding != null ? binding.username() : null;
+    }
+
+    /**
+     * Finds the sessions a back-channel logout applies to: those created by
+     * the IdP session {@code sid}, or all sessions of the user {@code sub}
+     * when no sid is given. With both, only sessions of that sid that belong
+     * to that user.
+     *
+     * @param provider provider name
+     * @param subject  the {@code sub} claim, may be null
+     * @param sid      the {@code sid} claim, may be null
+     * @return matching session ids, a snapshot
+     */
+    public static Set<Serializable> findSessionIds(String provider, String subject, String sid) {
+        if (sid != null) {
+            Set<Serializable> sessions = BY_SID.get(new SubjectKey(provider, sid));
+            if (sessions == null) {
+                return Set.of();
+            }
+            String username = subject != null ? BY_SUBJECT.get(new SubjectKey(provider, subject)) : null;
+            if (subject != null && username == null) {
+                return Set.of();
+            }
+            Set<Serializable> matches = new HashSet<>();
+            for (Serializable sessionId : sessions) {
+                if (username == null || username.equals(getUsernameForSession(sessionId))) {
+                    matches.add(sessionId);
+                }
+            }
+            return matches;
+        }
+        if (subject != null) {
+            return Set.copyOf(getSessionIds(BY_SUBJECT.get(new SubjectKey(provider, subject))));
+        }
+        return Set.of();
+    }
+
+    /**
+     * @return number of users in the directory
+     */
+    public static int size() {
+        return USERS.size();
+    }
+
+    private static SubjectKey sidOf(UserInfo info) {
+        if (info instanceof OidcUserInfo oidc && oidc.getClaims() != null
+                && oidc.getClaims().get("sid") instanceof String sid) {
+            return new SubjectKey(oidc.getProviderName(), sid);
+        }
+        return null;
+    }
+
+    // Called with LOCK held
+    private static void removeSid(Binding binding, Serializable sessionId) {
+        if (binding.sid() != null) {
+            BY_SID.computeIfPresent(binding.sid(), (k, sessions) -> {
+                sessions.remove(sessionId);
+                return sessions.isEmpty() ? null : sessions;
+            });
+        }
+    }
+
+    // Called with LOCK held
+    private static void detachSession(String username, Serializable sessionId) {
+        Entry entry = USERS.get(username);
+        if (entry == null) {
+            return;
+        }
+        entry.sessionIds.remove(sessionId);
+        if (entry.sessionIds.isEmpty() && entry.info instanceof OidcUserInfo) {
+            // Re-inserted to keep detach order
+            DETACHED.remove(username);
+            DETACHED.put(username, System.currentTimeMillis());
+        }
+    }
+
+    // Called with LOCK held
+    private static void index(String username, UserInfo info) {
+        if (info instanceof OidcUserInfo oidc && oidc.getProviderName() != null && oidc.getSubject() != null) {
+            BY_SUBJECT.put(new SubjectKey(oidc.getProviderName(), oidc.getSubject()), username);
+        }
+        if (info.getEmail() != null) {
+            BY_EMAIL.computeIfAbsent(info.getEmail().toLowerCase(Locale.ROOT), e -> ConcurrentHashMap.newKeySet())
+                    .add(username);
+        }
+    }
+
+    // Called with LOCK held
+    private static void unindex(String username, UserInfo info) {
+        if (info instanceof OidcUserInfo oidc && oidc.getProviderName() != null && oidc.getSubject() != null) {
+            BY_SUBJECT.remove(new SubjectKey(oidc.getProviderName(), oidc.getSubject()), username);
+        }
+        if (info.getEmail() != null) {
+            removeFrom(BY_EMAIL, info.getEmail().toLowerCase(Locale.ROOT), username);
+        }
+    }
+
+    private static void removeFrom(Map<String, Set<String>> index, String key, String username) {
+        index.computeIfPresent(key, (k, usernames) -> {
+            usernames.remove(username);
+            return usernames.isEmpty() ? null : usernames;
+        });
+    }
+
+    private static List<UserInfo> lookup(Set<String> usernames) {
+        if (usernames == null) {
+            return List.of();
+        }
+        List<UserInfo> users = new ArrayList<>(usernames.size());
+        for (String username : usernames) {
+            UserInfo info = get(username);
+            if (info != null) {
+                users.add(info);
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Removes detached users whose tokens expired or whose grace period
+     * ended. Only the detached users are visited.
+     */
+    private static void sweep() {
+        try {
+            long now = System.currentTimeMillis();
+            int removed = 0;
+            List<Map.Entry<String, Long>> snapshot = new ArrayList<>();
+            LOCK.lock();
+            try {
+                for (Map.Entry<String, Long> detached : DETACHED.entrySet()) {
+                    snapshot.add(Map.entry(detached.getKey(), detached.getValue()));
+                }
+            } finally {
+                LOCK.unlock();
+            }
+            for (Map.Entry<String, Long> detached : snapshot) {
+                String username = detached.getKey();
+                Entry entry = USERS.get(username);
+                boolean expired = entry == null || now - detached.getValue() > Holder.DETACHED_MILLIS
+                        || (entry.info instanceof OidcUserInfo oidc && tokensExpired(oidc, now));
+                if (expired && removeDetached(username)) {
+                    removed++;
+                }
+            }
+            if (removed > 0) {
+                log.debug("Removed {} users without sessions, {} remaining", removed, USERS.size());
+            }
+        } catch (RuntimeException e) {
+            log.warn("User directory sweep failed", e);
+        }
+    }
+
+    /**
+     * Evicts users beyond the capacity: the longest detached first, then the
+     * least recently updated. The user just added is never the victim.
+     *
+     * @param added username of the user just added
+     */
+    private static void enforceCapacity(String added) {
+        if (USERS.size() <= Holder.MAX_ENTRIES) {
+            return;
+        }
+        Consumer<Set<Serializable>> listener = evictionListener;
+        List<Set<Serializable>> ended = new ArrayList<>();
+        LOCK.lock();
+        try {
+            int excess = USERS.size() - Holder.MAX_ENTRIES;
+            while (excess > 0) {
+                String victim = eldest(DETACHED, added);
+                if (victim == null) {
+                    victim = eldest(UPDATED, added);
+                }
+                if (victim == null) {
+                    return;
+                }
+                Entry entry = USERS.get(victim);
+                if (entry != null && !entry.sessionIds.isEmpty()) {
+                    if (listener == null) {
+                        log.warn("User directory is full ({} entries) and {} still has sessions; not evicting",
+                                Holder.MAX_ENTRIES, victim);
+                        return;
+                    }
+                    log.warn("User directory is full ({} entries); evicting {} and ending its {} sessions",
+                            Holder.MAX_ENTRIES, victim, entry.sessionIds.size());
+                    ended.add(Set.copyOf(entry.sessionIds));
+                }
+                if (remove(victim) != null) {
+                    excess--;
+                } else {
+                    DETACHED.remove(victim);
+                    UPDATED.remove(victim);
+                }
+            }
+        } finally {
+            LOCK.unlock();
+            for (Set<Serializable> sessionIds : ended) {
+                try {
+                    listener.accept(sessionIds);
+                } catch (RuntimeException e) {
+                    log.warn("User directory eviction listener failed", e);
+                }
+            }
+        }
+    }
+
+    // Called with LOCK held
+    private static String eldest(LinkedHashMap<String, Long> order, String skip) {
+        Iterator<String> it = order.keySet().iterator();
+        while (it.hasNext()) {
+            String username = it.next();
+            if (!username.equals(skip)) {
+                return username;
+            }
+        }
+        return null;
+    }
+
+    private static boolean removeDetached(String username) {
+        LOCK.lock();
+        try {
+            Entry entry = USERS.get(username);
+            if (entry != null && !entry.sessionIds.isEmpty()) {
+                DETACHED.remove(username);
+                return false;
+            }
+            return remove(username) != null || DETACHED.remove(username) != null;
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    private static boolean tokensExpired(OidcUserInfo user, long now) {
+        long expiresAt = TokenRenewalScheduler.expiresAtMillis(user);
+        return expiresAt > 0 && expiresAt <= now;
+    }
+
+    private static long longValue(Properties props, String key, long defaultValue) {
+        String value = props.getProperty(key);
+        try {
+            return value != null && !value.isBlank() ? Long.parseLong(value.trim()) : defaultValue;
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring invalid value '{}' for {}", value, key);
+            return defaultValue;
+        }
     }
-}
\ No newline at end of file
+}
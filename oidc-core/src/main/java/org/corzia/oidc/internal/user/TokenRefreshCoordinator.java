@@ -0,0 +1,156 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.user;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.corzia.oidc.OidcClient;
+import org.corzia.oidc.OidcClientFactory;
+import org.corzia.oidc.OidcUserInfo;
+import org.corzia.oidc.UserInfo;
+import org.corzia.oidc.internal.utils.HttpTransport;
+import org.corzia.oidc.internal.utils.HttpUtils;
+import org.corzia.oidc.internal.utils.TokenResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces concurrent refresh-token grants per (provider, subject).
+ * <p>
+ * Several tabs of the same user tend to refresh at the same moment. Only one
+ * refresh grant is sent; every concurrent caller receives its result. The
+ * result is also handed to callers arriving within a short reuse window after
+ * it completed, because with rotating refresh tokens a second grant would
+ * present the token the first one just invalidated. Failures are shared with
+ * the callers that were waiting, but never reused.
+ * </p>
+ */
+public final class TokenRefreshCoordinator {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenRefreshCoordinator.class);
+
+    private static final long REUSE_WINDOW_MILLIS = 5 * 1000L;
+
+    private static final Map<Key, Flight> FLIGHTS = new ConcurrentHashMap<>();
+
+    private record Key(String provider, String subject) {
+    }
+
+    private static final class Flight {
+        private final CompletableFuture<OidcUserInfo> result = new CompletableFuture<>();
+        private volatile long completedAtMillis;
+    }
+
+    private TokenRefreshCoordinator() {
+        // Static coordinator
+    }
+
+    /**
+     * Renews the tokens of a user and stores the result in
+     * {@link OidcUserDirectory}.
+     *
+     * @param user the user whose tokens to renew; the latest tokens in the
+     *             directory are used if they are newer
+     * @return the user info carrying the renewed tokens
+     * @throws IOException if the refresh grant fails
+     */
+    public static OidcUserInfo refresh(OidcUserInfo user) throws IOException {
+        Key key = new Key(user.getProviderName(), user.getSubject());
+        while (true) {
+            Flight flight = FLIGHTS.get(key);
+            if (flight != null) {
+                if (!flight.result.isDone()) {
+                    return await(flight);
+                }
+                if (!flight.result.isCompletedExceptionally()
+                        && System.currentTimeMillis() - flight.completedAtMillis < REUSE_WINDOW_MILLIS) {
+                    return flight.result.join();
+                }
+                FLIGHTS.remove(key, flight);
+            }
+
+            Flight mine = new Flight();
+            if (FLIGHTS.putIfAbsent(key, mine) != null) {
+                continue;
+            }
+            try {
+                OidcUserInfo updated = grant(latest(user));
+                mine.completedAtMillis = System.currentTimeMillis();
+                mine.result.complete(updated);
+                CompletableFuture.delayedExecutor(REUSE_WINDOW_MILLIS, TimeUnit.MILLISECONDS)
+                        .execute(() -> FLIGHTS.remove(key, mine));
+                return updated;
+            } catch (IOException | RuntimeException e) {
+                FLIGHTS.remove(key, mine);
+                mine.result.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    private static OidcUserInfo await(Flight flight) throws IOException {
+        try {
+            return flight.result.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * The session principal keeps the tokens from login time; the directory
+     * has the most recent ones.
+     */
+    private static OidcUserInfo latest(OidcUserInfo user) {
+        UserInfo stored = OidcUserDirectory.get(user.getUsername());
+        if (stored instanceof OidcUserInfo oidc
+                && user.getProviderName().equals(oidc.getProviderName())
+                && user.getSubject().equals(oidc.getSubject())) {
+            return oidc;
+        }
+        return user;
+    }
+
+    private static OidcUserInfo grant(OidcUserInfo user) throws IOException {
+        if (user.getRefreshToken() == null) {
+            throw new IOException("No refresh token available for " + user.getUsername());
+        }
+        OidcClient client = OidcClientFactory.getInstance().getClient(user.getProviderName());
+        TokenResponse tokens = HttpUtils.refreshAccessToken(
+                HttpTransport.forName(client.getName()),
+                client.tokenEndpoint(),
+                client.clientId(),
+                client.clientSecret(),
+                user.getRefreshToken());
+
+        OidcUserInfo updated = user.withTokens(tokens.getIdToken(), tokens.getAccessToken(),
+                tokens.getRefreshToken());
+        OidcUserDirectory.put(updated.getUsername(), updated);
+        log.debug("Refreshed tokens for {} at {}", updated.getUsername(), updated.getProviderName());
+        return updated;
+    }
+}
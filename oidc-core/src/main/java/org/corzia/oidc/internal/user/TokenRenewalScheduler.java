@@ -0,0 +1,422 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.user;
+
+import java.io.Serializable;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Date;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.shiro.session.Session;
+import org.apache.shiro.session.SessionListener;
+import org.apache.shiro.session.UnknownSessionException;
+import org.apache.shiro.session.mgt.ValidatingSession;
+import org.apache.shiro.session.mgt.eis.SessionDAO;
+import org.corzia.oidc.OidcConstants;
+import org.corzia.oidc.OidcUserInfo;
+import org.corzia.oidc.UserInfo;
+import org.corzia.oidc.internal.config.OidcConfigManager;
+import org.corzia.oidc.internal.session.HierarchicalTimingWheel;
+import org.corzia.oidc.internal.utils.OidcExecutors;
+import org.corzia.oidc.internal.utils.ProviderUnavailableException;
+import org.corzia.oidc.shiro.BoundedSessionDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTParser;
+
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+
+/**
+ * Renews access tokens in the background shortly before they expire, so API
+ * calls find a fresh token in {@link OidcUserDirectory} instead of paying the
+ * IdP round trip on a user request.
+ * <p>
+ * Users are tracked from login together with their Shiro sessions, and filed
+ * in a {@link HierarchicalTimingWheel} by the time their renewal is due.
+ * Every few seconds the users that came due are renewed as a batch through
+ * {@link TokenRefreshCoordinator}; users that are not due are not visited:
+ * </p>
+ * <ul>
+ * <li>only users with a session accessed within
+ * {@code security.renewal.idle_seconds} are renewed; idle users are looked
+ * at again a minute later, and users whose sessions all ended are dropped.
+ * Sessions are looked up without touching them.</li>
+ * <li>a user is due {@code security.renewal.lead_seconds} before the token
+ * expires, minus a random per-user jitter of up to
+ * {@code security.renewal.jitter_seconds}, so users who logged in together
+ * do not renew together</li>
+ * <li>a global token bucket ({@code security.renewal.max_per_second}) caps
+ * the renewal rate across all providers; users over the cap wait for the
+ * next batch</li>
+ * </ul>
+ *
+ * <p>
+ * The expiry comes from the access token's {@code exp} claim, or from the ID
+ * token's when the access token is opaque. Renewal is on by default and can
+ * be turned off with {@code security.renewal.enabled=false}.
+ * </p>
+ */
+public final class TokenRenewalScheduler implements SessionListener {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenRenewalScheduler.class);
+
+    private static final TokenRenewalScheduler INSTANCE = new TokenRenewalScheduler();
+
+    private static final long TICK_MILLIS = 5 * 1000L;
+    private static final long RETRY_MILLIS = 60 * 1000L;
+    private static final int MAX_FAILURES = 3;
+
+    private final Map<String, Tracked> tracked = new ConcurrentHashMap<>();
+    private final Map<Serializable, String> sessionUsers = new ConcurrentHashMap<>();
+    /** Tracked users by the time their renewal is due. */
+    private final HierarchicalTimingWheel<String> due = new HierarchicalTimingWheel<>(TICK_MILLIS,
+            System.currentTimeMillis());
+
+    private volatile SessionDAO sessionDAO;
+    private volatile ScheduledExecutorService ticker;
+    private volatile Bucket rateLimit;
+    private volatile long leadMillis;
+    private volatile long jitterMillis;
+    private volatile long idleMillis;
+
+    /**
+     * Renewal state of one user.
+     */
+    private static final class Tracked {
+        private final String username;
+        private final long jitterMillis;
+        private final Set<Serializable> sessionIds = ConcurrentHashMap.newKeySet();
+        private volatile String accessToken;
+        private volatile long expiresAtMillis;
+        private volatile long retryNotBeforeMillis;
+        private volatile int failures;
+        private volatile boolean renewing;
+
+        private Tracked(String username, long jitterMillis) {
+            this.username = username;
+            this.jitterMillis = jitterMillis;
+        }
+    }
+
+    private TokenRenewalScheduler() {
+    }
+
+    public static TokenRenewalScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts the scheduler, unless renewal is disabled.
+     *
+     * @param sessionDAO DAO used to check whether a user's sessions are still
+     *                   active; read without touching them when it is a
+     *                   {@link BoundedSessionDAO}
+     */
+    public void start(SessionDAO sessionDAO) {
+        Properties security = OidcConfigManager.getSecurityConfig(OidcConstants.CONFIG_SECURITY);
+        if (!Boolean.parseBoolean(security.getProperty(OidcConstants.PROP_RENEWAL_ENABLED, "true").trim())) {
+            log.info("Background token renewal is disabled");
+            return;
+        }
+        this.sessionDAO = sessionDAO;
+        this.leadMillis = seconds(security, OidcConstants.PROP_RENEWAL_LEAD_SECONDS, 120L) * 1000L;
+        this.jitterMillis = seconds(security, OidcConstants.PROP_RENEWAL_JITTER_SECONDS, 60L) * 1000L;
+        this.idleMillis = seconds(security, OidcConstants.PROP_RENEWAL_IDLE_SECONDS, 900L) * 1000L;
+        long perSecond = Math.max(1L, seconds(security, OidcConstants.PROP_RENEWAL_MAX_PER_SECOND, 10L));
+        this.rateLimit = Bucket.builder()
+                .addLimit(Bandwidth.builder()
+                        .capacity(perSecond)
+                        .refillGreedy(perSecond, Duration.ofSeconds(1))
+                        .build())
+                .build();
+
+        if (ticker == null) {
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "oidc-token-renewal");
+                t.setDaemon(true);
+                return t;
+            });
+            executor.scheduleWithFixedDelay(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+            ticker = executor;
+        }
+        log.info("Background token renewal started ({}s before expiry, at most {}/s)", leadMillis / 1000L,
+                perSecond);
+    }
+
+    /**
+     * Stops the scheduler. Tracked users and the session DAO are forgotten.
+     */
+    public void stop() {
+        ScheduledExecutorService executor = ticker;
+        ticker = null;
+        sessionDAO = null;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        for (String username : tracked.keySet()) {
+            due.cancel(username);
+        }
+        tracked.clear();
+        sessionUsers.clear();
+    }
+
+    /**
+     * Starts tracking a user's tokens for the given session. Users without a
+     * refresh token or a token expiry are ignored.
+     *
+     * @param user      the logged-in user
+     * @param sessionId the Shiro session the user logged in with
+     */
+    public void track(OidcUserInfo user, Serializable sessionId) {
+        if (ticker == null || user.getRefreshToken() == null || user.getUsername() == null || sessionId == null) {
+            return;
+        }
+        long expiresAt = expiresAtMillis(user);
+        if (expiresAt <= 0) {
+            return;
+        }
+        Tracked t = tracked.computeIfAbsent(user.getUsername(),
+                u -> new Tracked(u, jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis) : 0L));
+        t.sessionIds.add(sessionId);
+        t.accessToken = user.getAccessToken();
+        t.expiresAtMillis = expiresAt;
+        t.failures = 0;
+        sessionUsers.put(sessionId, user.getUsername());
+        if (!t.renewing) {
+            schedule(t);
+        }
+    }
+
+    /**
+     * @return number of users whose tokens are being kept fresh
+     */
+    public int getTrackedCount() {
+        return tracked.size();
+    }
+
+    @Override
+    public void onStart(Session session) {
+        // Users are tracked from login
+    }
+
+    @Override
+    public void onStop(Session session) {
+        untrack(session.getId());
+    }
+
+    @Override
+    public void onExpiration(Session session) {
+        untrack(session.getId());
+    }
+
+    private void untrack(Serializable sessionId) {
+        String username = sessionId != null ? sessionUsers.remove(sessionId) : null;
+        if (username != null && tracked.computeIfPresent(username, (u, t) -> {
+            t.sessionIds.remove(sessionId);
+            return t.sessionIds.isEmpty() ? null : t;
+        }) == null) {
+            due.cancel(username);
+        }
+    }
+
+    private void forget(Tracked t) {
+        if (tracked.remove(t.username, t)) {
+            due.cancel(t.username);
+        }
+    }
+
+    /**
+     * Files the user at the time its renewal is due: ahead of expiry by the
+     * lead time and the user's jitter, but not before a pending retry.
+     */
+    private void schedule(Tracked t) {
+        schedule(t, Math.max(t.expiresAtMillis - leadMillis - t.jitterMillis, t.retryNotBeforeMillis));
+    }
+
+    private void schedule(Tracked t, long atMillis) {
+        if (tracked.get(t.username) == t) {
+            due.schedule(t.username, atMillis);
+        }
+    }
+
+    /**
+     * Starts renewals for the users that came due, as far as the global rate
+     * allows. Users over the rate are filed for the next batch.
+     */
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            boolean capped = false;
+            for (String username : due.advance(now)) {
+                Tracked t = tracked.get(username);
+                if (t == null || t.renewing) {
+                    // A running renewal files the user again when it ends
+                    continue;
+                }
+                if (capped) {
+                    schedule(t, now + TICK_MILLIS);
+                    continue;
+                }
+                if (now < t.retryNotBeforeMillis || !isDue(t, now)) {
+                    schedule(t);
+                    continue;
+                }
+                if (!isActive(t, now)) {
+                    if (!t.sessionIds.isEmpty()) {
+                        schedule(t, now + RETRY_MILLIS);
+                    }
+                    continue;
+                }
+                if (!rateLimit.tryConsume(1)) {
+                    log.debug("Token renewal rate cap reached; continuing in the next batch");
+                    capped = true;
+                    schedule(t, now + TICK_MILLIS);
+                    continue;
+                }
+                t.renewing = true;
+                OidcExecutors.workers().execute(() -> renew(t));
+            }
+        } catch (RuntimeException e) {
+            log.warn("Token renewal batch failed", e);
+        }
+    }
+
+    private boolean isDue(Tracked t, long now) {
+        if (t.expiresAtMillis - leadMillis - t.jitterMillis > now) {
+            return false;
+        }
+        // The user may have refreshed explicitly since we last looked
+        UserInfo current = OidcUserDirectory.get(t.username);
+        if (current instanceof OidcUserInfo user && user.getAccessToken() != null
+                && !user.getAccessToken().equals(t.accessToken)) {
+            t.accessToken = user.getAccessToken();
+            t.expiresAtMillis = expiresAtMillis(user);
+            return t.expiresAtMillis - leadMillis - t.jitterMillis <= now;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if any of the user's sessions was used recently; sessions
+     *         that no longer exist are dropped
+     */
+    private boolean isActive(Tracked t, long now) {
+        SessionDAO dao = sessionDAO;
+        if (dao == null) {
+            // Stopped
+            return false;
+        }
+        boolean active = false;
+        for (Serializable id : t.sessionIds) {
+            Session session;
+            try {
+                session = dao instanceof BoundedSessionDAO bounded ? bounded.peek(id) : dao.readSession(id);
+            } catch (UnknownSessionException e) {
+                session = null;
+            }
+            if (session == null || (session instanceof ValidatingSession vs && !vs.isValid())) {
+                untrack(id);
+                continue;
+            }
+            Date lastAccess = session.getLastAccessTime();
+            if (lastAccess != null && now - lastAccess.getTime() <= idleMillis) {
+                active = true;
+            }
+        }
+        return active;
+    }
+
+    private void renew(Tracked t) {
+        try {
+            UserInfo current = OidcUserDirectory.get(t.username);
+            if (!(current instanceof OidcUserInfo user) || user.getRefreshToken() == null) {
+                forget(t);
+                return;
+            }
+            OidcUserInfo renewed = TokenRefreshCoordinator.refresh(user);
+            long expiresAt = expiresAtMillis(renewed);
+            t.accessToken = renewed.getAccessToken();
+            t.failures = 0;
+            if (expiresAt <= t.expiresAtMillis) {
+                // The IdP did not extend the token; do not ask again right away
+                t.retryNotBeforeMillis = System.currentTimeMillis() + RETRY_MILLIS;
+            }
+            t.expiresAtMillis = expiresAt;
+            log.debug("Renewed tokens for {} ahead of expiry", t.username);
+        } catch (Exception e) {
+            long retryIn = e instanceof ProviderUnavailableException pu ? Math.max(pu.getRetryAfterMillis(), 1000L)
+                    : RETRY_MILLIS;
+            t.retryNotBeforeMillis = System.currentTimeMillis() + retryIn;
+            if (!(e instanceof ProviderUnavailableException) && ++t.failures >= MAX_FAILURES) {
+                log.warn("Giving up background token renewal for {} after {} failures: {}", t.username,
+                        t.failures, e.getMessage());
+                forget(t);
+            } else {
+                log.debug("Background token renewal for {} failed: {}", t.username, e.getMessage());
+            }
+        } finally {
+            t.renewing = false;
+            schedule(t);
+        }
+    }
+
+    /**
+     * @return expiry of the access token, falling back to the ID token, or 0
+     *         if neither is a JWT with an {@code exp} claim
+     */
+    static long expiresAtMillis(OidcUserInfo user) {
+        long expiresAt = jwtExpiry(user.getAccessToken());
+        return expiresAt > 0 ? expiresAt : jwtExpiry(user.getIdToken());
+    }
+
+    private static long jwtExpiry(String token) {
+        if (token == null || token.indexOf('.') < 0) {
+            return 0L;
+        }
+        try {
+            JWT jwt = JWTParser.parse(token);
+            Date exp = jwt.getJWTClaimsSet().getExpirationTime();
+            return exp != null ? exp.getTime() : 0L;
+        } catch (ParseException | RuntimeException e) {
+            // Opaque or encrypted token
+            return 0L;
+        }
+    }
+
+    private static long seconds(Properties props, String key, long defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring invalid value '{}' for {}", value, key);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,448 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.utils;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A document fetched over HTTP from an IdP, such as a JWKS or a discovery
+ * document, kept in memory and refreshed in the background.
+ * <p>
+ * Readers get an immutable {@link Entry} from a volatile field and never take
+ * a lock. The entry is kept for the lifetime its {@code Cache-Control} or
+ * {@code Expires} headers allow (clamped by the {@link Policy}), refreshed on
+ * a shared scheduler shortly before it expires and revalidated with
+ * {@code If-None-Match}/{@code If-Modified-Since}, so an unchanged document
+ * costs a 304 and no re-parse. All fetches are single-flight: concurrent
+ * callers join the fetch already in progress.
+ * </p>
+ *
+ * <p>
+ * A failed fetch leaves the last entry in use for up to
+ * {@link Policy#maxStaleMillis()} past its expiry and is retried with
+ * exponential backoff and jitter. Until the next retry is due, callers that
+ * have nothing to serve fail fast instead of hitting the IdP again.
+ * </p>
+ *
+ * @param <T> parsed form of the document
+ */
+public final class CachedHttpResource<T> implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(CachedHttpResource.class);
+
+    private static final ScheduledExecutorService REFRESHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "oidc-http-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Turns a response body into the cached value.
+     */
+    @FunctionalInterface
+    public interface Parser<T> {
+        T parse(byte[] body) throws IOException;
+    }
+
+    /**
+     * Called after every successful fetch or revalidation, outside the
+     * single-flight section.
+     */
+    @FunctionalInterface
+    public interface Listener<T> {
+        void refreshed(Entry<T> previous, Entry<T> fresh);
+    }
+
+    /**
+     * Lifetimes and retry timing of a resource, in milliseconds.
+     *
+     * @param defaultLifetimeMillis lifetime when the IdP sends no caching
+     *                              headers
+     * @param minLifetimeMillis     floor for the advertised lifetime
+     * @param maxLifetimeMillis     ceiling for the advertised lifetime
+     * @param refreshAheadMillis    how long before expiry to refresh, at most
+     *                              a tenth of the lifetime
+     * @param maxStaleMillis        how long past expiry an entry may still be
+     *                              served while refreshes fail
+     * @param initialBackoffMillis  delay before the first retry
+     * @param maxBackoffMillis      ceiling for the retry delay
+     */
+    public record Policy(long defaultLifetimeMillis, long minLifetimeMillis, long maxLifetimeMillis,
+            long refreshAheadMillis, long maxStaleMillis, long initialBackoffMillis, long maxBackoffMillis) {
+    }
+
+    /**
+     * Immutable view of the document as fetched (or last revalidated) at a
+     * given point in time, together with the HTTP validators needed to
+     * revalidate it.
+     */
+    public record Entry<T>(T value, long fetchedAtMillis, long expiresAtMillis, String etag, String lastModified) {
+
+        Entry<T> revalidated(long now, long lifetimeMillis, String newEtag, String newLastModified) {
+            return new Entry<>(value, now, now + lifetimeMillis,
+                    newEtag != null ? newEtag : etag,
+                    newLastModified != null ? newLastModified : lastModified);
+        }
+    }
+
+    private final String uri;
+    private final String transportName;
+    private final String description;
+    private final Policy policy;
+    private final Parser<T> parser;
+    private final Listener<T> listener;
+
+    private final AtomicReference<CompletableFuture<Entry<T>>> inflight = new AtomicReference<>();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long retryNotBeforeMillis;
+    private volatile Entry<T> entry;
+    private volatile ScheduledFuture<?> nextRefresh;
+    private volatile boolean closed;
+
+    /**
+     * @param uri           document URL
+     * @param transportName HTTP transport to fetch with (the provider name)
+     * @param description   what the document is, for log and error messages
+     * @param policy        lifetimes and retry timing
+     * @param parser        parses a response body
+     * @param listener      notified of every successful refresh, may be null
+     */
+    public CachedHttpResource(String uri, String transportName, String description, Policy policy,
+            Parser<T> parser, Listener<T> listener) {
+        this.uri = uri;
+        this.transportName = transportName;
+        this.description = description;
+        this.policy = policy;
+        this.parser = parser;
+        this.listener = listener;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * Starts the first fetch in the background.
+     */
+    public void start() {
+        OidcExecutors.workers().execute(this::refresh);
+    }
+
+    /**
+     * Installs an entry obtained elsewhere (e.g. from disk) and refreshes it
+     * in the background right away.
+     *
+     * @param seeded the entry to serve until the first fetch completes
+     */
+    public void seed(Entry<T> seeded) {
+        entry = seeded;
+        scheduleRefresh(0L);
+    }
+
+    /**
+     * Returns the current entry, fetching on the calling thread only if there
+     * is none or it is more than {@link Policy#maxStaleMillis()} past expiry.
+     * An expired entry that can still be served triggers a background
+     * refresh.
+     *
+     * @return the entry
+     * @throws IOException if nothing can be served and fetching fails, or a
+     *                     retry is not due yet
+     */
+    public Entry<T> get() throws IOException {
+        Entry<T> current = entry;
+        long now = System.currentTimeMillis();
+        if (current == null || now - current.expiresAtMillis() > policy.maxStaleMillis()) {
+            // Nothing we can serve: fetch inline, unless we are backing off
+            if (now < retryNotBeforeMillis && inflight.get() == null) {
+                throw new IOException(description + " from " + uri + " is unavailable; next retry in "
+                        + (retryNotBeforeMillis - now) + " ms");
+            }
+            return refreshNow();
+        }
+        if (now > current.expiresAtMillis()) {
+            // The scheduled refresh has not landed yet or is failing; serve what
+            // we have and let the refresh happen off the request thread.
+            refreshAsync();
+        }
+        return current;
+    }
+
+    /**
+     * @return the current entry without any I/O, or null if none was loaded
+     */
+    public Entry<T> peek() {
+        return entry;
+    }
+
+    /**
+     * Starts loading the document ahead of a {@link #get()}, so that the
+     * download can overlap with other work.
+     * <p>
+     * If a usable entry is present this only triggers a background refresh
+     * when it has expired, and returns a completed future. Otherwise the
+     * returned future completes once the (shared) fetch finishes. It never
+     * completes exceptionally; fetch failures surface from the subsequent
+     * {@link #get()}.
+     * </p>
+     *
+     * @return future to join before reading
+     */
+    public CompletableFuture<Void> prefetch() {
+        Entry<T> current = entry;
+        long now = System.currentTimeMillis();
+        if (current != null && now - current.expiresAtMillis() <= policy.maxStaleMillis()) {
+            if (now > current.expiresAtMillis()) {
+                refreshAsync();
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+        if (closed || (now < retryNotBeforeMillis && inflight.get() == null)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Entry<T>> running = inflight.get();
+        if (running != null) {
+            return running.handle((e, t) -> null);
+        }
+        return CompletableFuture.runAsync(this::refresh, OidcExecutors.workers());
+    }
+
+    /**
+     * Fetches and installs a new entry, or joins the fetch that is already in
+     * flight so that concurrent callers share a single request.
+     *
+     * @return the fresh entry
+     * @throws IOException if the fetch fails
+     */
+    public Entry<T> refreshNow() throws IOException {
+        CompletableFuture<Entry<T>> call = new CompletableFuture<>();
+        CompletableFuture<Entry<T>> existing = inflight.compareAndExchange(null, call);
+        if (existing != null) {
+            return await(existing);
+        }
+        Entry<T> previous = entry;
+        Entry<T> fresh;
+        try {
+            fresh = fetch(previous);
+            install(fresh);
+            onFetchSucceeded();
+            call.complete(fresh);
+        } catch (IOException | RuntimeException e) {
+            onFetchFailed(e);
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.set(null);
+        }
+        if (listener != null) {
+            listener.refreshed(previous, fresh);
+        }
+        return fresh;
+    }
+
+    /**
+     * @return true while a fetch is in progress
+     */
+    public boolean isFetching() {
+        return inflight.get() != null;
+    }
+
+    /**
+     * @return time before which a failed fetch is not retried, 0 if the last
+     *         fetch succeeded
+     */
+    public long getRetryNotBeforeMillis() {
+        return retryNotBeforeMillis;
+    }
+
+    /**
+     * @return true if the last fetch failed
+     */
+    public boolean isDegraded() {
+        return consecutiveFailures.get() > 0;
+    }
+
+    /**
+     * @return number of fetches that failed since the last success
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    /**
+     * Stops background refreshes. The last entry stays readable.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        ScheduledFuture<?> pending = nextRefresh;
+        if (pending != null) {
+            pending.cancel(false);
+        }
+    }
+
+    private static <T> Entry<T> await(CompletableFuture<Entry<T>> call) throws IOException {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void refreshAsync() {
+        if (!closed && inflight.get() == null) {
+            REFRESHER.execute(() -> runBlocking(() -> {
+                // Several stale reads may have queued this; only the first refreshes
+                Entry<T> current = entry;
+                if (current == null || System.currentTimeMillis() > current.expiresAtMillis()) {
+                    refresh();
+                }
+            }));
+        }
+    }
+
+    /**
+     * Runs a fetch on the refresher thread, or hands it to a virtual thread in
+     * virtual-thread mode so that one slow endpoint does not hold up the
+     * refreshes of all others.
+     */
+    private static void runBlocking(Runnable task) {
+        if (OidcExecutors.isVirtualThreads()) {
+            OidcExecutors.workers().execute(task);
+        } else {
+            task.run();
+        }
+    }
+
+    private void refresh() {
+        if (closed || inflight.get() != null) {
+            return;
+        }
+        try {
+            refreshNow();
+            log.debug("Refreshed {} from {}", description, uri);
+        } catch (Exception e) {
+            // Already recorded and rescheduled by onFetchFailed
+        }
+    }
+
+    private void onFetchSucceeded() {
+        int failures = consecutiveFailures.getAndSet(0);
+        retryNotBeforeMillis = 0L;
+        if (failures > 0) {
+            log.info("{} at {} recovered after {} failed attempts", description, uri, failures);
+        }
+    }
+
+    /**
+     * Records a failed fetch and schedules the next attempt with exponential
+     * backoff and jitter, so that an IdP outage does not turn into a retry
+     * storm from every node.
+     */
+    private void onFetchFailed(Exception e) {
+        int failures = consecutiveFailures.incrementAndGet();
+        long backoff = Math.min(policy.maxBackoffMillis(),
+                policy.initialBackoffMillis() << Math.min(failures - 1, 16));
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        retryNotBeforeMillis = System.currentTimeMillis() + delay;
+        if (failures == 1) {
+            log.warn("{} fetch from {} failed{}: {}", description, uri,
+                    entry != null ? ", serving last good copy (degraded)" : "", e.getMessage());
+        } else {
+            log.debug("{} fetch from {} failed {} times in a row: {}", description, uri, failures, e.getMessage());
+        }
+        scheduleRefresh(delay);
+    }
+
+    private Entry<T> fetch(Entry<T> previous) throws IOException {
+        HttpTransport transport = HttpTransport.forName(transportName);
+        HttpRequest.Builder request = transport.request(uri).GET();
+        if (previous != null) {
+            if (previous.etag() != null) {
+                request.header(HttpCaching.HEADER_IF_NONE_MATCH, previous.etag());
+            }
+            if (previous.lastModified() != null) {
+                request.header(HttpCaching.HEADER_IF_MODIFIED_SINCE, previous.lastModified());
+            }
+        }
+
+        HttpResponse<byte[]> response = transport.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        int status = response.statusCode();
+        long now = System.currentTimeMillis();
+        Function<String, String> header = name -> response.headers().firstValue(name).orElse(null);
+        long lifetime = lifetimeMillis(HttpCaching.freshnessLifetimeMillis(header, now));
+        String etag = header.apply(HttpCaching.HEADER_ETAG);
+        String lastModified = header.apply(HttpCaching.HEADER_LAST_MODIFIED);
+
+        if (status == HttpCaching.SC_NOT_MODIFIED && previous != null) {
+            log.debug("{} at {} not modified, keeping parsed copy", description, uri);
+            return previous.revalidated(now, lifetime, etag, lastModified);
+        }
+        if (status != 200) {
+            throw new IOException(description + " endpoint " + uri + " returned HTTP " + status);
+        }
+        return new Entry<>(parser.parse(response.body()), now, now + lifetime, etag, lastModified);
+    }
+
+    /**
+     * Applies the policy's floor and ceiling to the freshness lifetime
+     * advertised by the IdP, falling back to the default if it advertised
+     * none.
+     */
+    private long lifetimeMillis(long advertisedMillis) {
+        long lifetime = advertisedMillis < 0 ? policy.defaultLifetimeMillis() : advertisedMillis;
+        return Math.min(policy.maxLifetimeMillis(), Math.max(policy.minLifetimeMillis(), lifetime));
+    }
+
+    private void install(Entry<T> fresh) {
+        entry = fresh;
+        long lifetime = fresh.expiresAtMillis() - fresh.fetchedAtMillis();
+        scheduleRefresh(lifetime - Math.min(policy.refreshAheadMillis(), lifetime / 10));
+    }
+
+    private void scheduleRefresh(long delayMillis) {
+        if (closed) {
+            return;
+        }
+        ScheduledFuture<?> previous = nextRefresh;
+        nextRefresh = REFRESHER.schedule(() -> runBlocking(this::refresh), delayMillis, TimeUnit.MILLISECONDS);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+}
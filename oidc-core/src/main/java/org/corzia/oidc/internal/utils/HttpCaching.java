@@ -0,0 +1,121 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.utils;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Minimal HTTP caching helpers (RFC 9111) for the GET requests we make
+ * against an IdP, such as JWKS and discovery documents.
+ * <p>
+ * Headers are read through a {@code name -> first value} function so the
+ * helpers work with any HTTP client.
+ * </p>
+ */
+public final class HttpCaching {
+
+    public static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    public static final String HEADER_EXPIRES = "Expires";
+    public static final String HEADER_DATE = "Date";
+    public static final String HEADER_AGE = "Age";
+    public static final String HEADER_ETAG = "ETag";
+    public static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    public static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    public static final int SC_NOT_MODIFIED = 304;
+
+    private static final long MAX_DELTA_SECONDS = 1L << 31;
+
+    private HttpCaching() {
+        // Utility class
+    }
+
+    /**
+     * Computes how long a response stays fresh from its {@code Cache-Control},
+     * {@code Expires}, {@code Date} and {@code Age} headers.
+     *
+     * @param header    lookup of the first value of a response header
+     * @param nowMillis current time, used when the response carries no
+     *                  {@code Date}
+     * @return remaining freshness in milliseconds, {@code 0} if the response
+     *         must be revalidated before reuse, or {@code -1} if the response
+     *         states nothing about freshness
+     */
+    public static long freshnessLifetimeMillis(Function<String, String> header, long nowMillis) {
+        long lifetime = -1L;
+        String cacheControl = header.apply(HEADER_CACHE_CONTROL);
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                String d = directive.trim().toLowerCase(Locale.ROOT);
+                if (d.equals("no-store") || d.equals("no-cache")) {
+                    return 0L;
+                }
+                if (d.startsWith("max-age=")) {
+                    lifetime = parseSeconds(d.substring("max-age=".length())) * 1000L;
+                }
+            }
+        }
+
+        if (lifetime < 0) {
+            String expires = header.apply(HEADER_EXPIRES);
+            if (expires == null) {
+                return -1L;
+            }
+            Long expiresAt = parseDate(expires);
+            if (expiresAt == null) {
+                // An invalid Expires value means "already expired"
+                return 0L;
+            }
+            Long date = parseDate(header.apply(HEADER_DATE));
+            lifetime = expiresAt - (date != null ? date : nowMillis);
+        }
+
+        String age = header.apply(HEADER_AGE);
+        if (age != null) {
+            lifetime -= parseSeconds(age) * 1000L;
+        }
+        return Math.max(0L, lifetime);
+    }
+
+    /**
+     * Parses delta-seconds; values too large to represent are capped at
+     * 2^31 (RFC 9111, section 1.2.2) so they cannot overflow as milliseconds.
+     */
+    private static long parseSeconds(String value) {
+        String digits = value.trim().replace("\"", "");
+        try {
+            return Math.min(Math.max(0L, Long.parseLong(digits)), MAX_DELTA_SECONDS);
+        } catch (NumberFormatException e) {
+            return !digits.isEmpty() && digits.chars().allMatch(Character::isDigit) ? MAX_DELTA_SECONDS : 0L;
+        }
+    }
+
+    private static Long parseDate(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.utils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import org.corzia.oidc.OidcConstants;
+import org.corzia.oidc.shiro.OidcRealm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pooled HTTP transport for calls to an identity provider.
+ * <p>
+ * Each provider gets one long-lived {@link HttpClient} so that connections
+ * (and their TLS sessions) are reused across token exchanges, refreshes and
+ * JWKS fetches, with HTTP/2 where the IdP supports it. Connect and read
+ * timeouts and the size of the client's executor are configured per
+ * provider; in virtual-thread mode (see {@link OidcExecutors}) the executor
+ * is unbounded and {@code HTTP_MAX_THREADS} is ignored.
+ * </p>
+ *
+ * <p>
+ * Transports are looked up by name on every call, so a reconfigured provider
+ * picks up its new transport immediately; the replaced client is shut down
+ * once its in-flight requests complete.
+ * </p>
+ */
+public final class HttpTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(HttpTransport.class);
+
+    /** Name of the transport used for calls that are not tied to a provider. */
+    public static final String DEFAULT = "default";
+
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 5000;
+    private static final int DEFAULT_READ_TIMEOUT_MS = 10000;
+    private static final int DEFAULT_MAX_THREADS = 8;
+
+    private static final Map<String, HttpTransport> TRANSPORTS = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final Settings settings;
+    private final ExecutorService executor;
+    private final HttpClient client;
+
+    /**
+     * Transport settings; a transport is only rebuilt when these change.
+     */
+    private record Settings(Duration connectTimeout, Duration readTimeout, int maxThreads) {
+
+        static Settings from(Properties props) {
+            return new Settings(
+                    Duration.ofMillis(intProperty(props, OidcRealm.HTTP_CONNECT_TIMEOUT_MS, DEFAULT_CONNECT_TIMEOUT_MS)),
+                    Duration.ofMillis(intProperty(props, OidcRealm.HTTP_READ_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS)),
+                    Math.max(1, intProperty(props, OidcRealm.HTTP_MAX_THREADS, DEFAULT_MAX_THREADS)));
+        }
+    }
+
+    private HttpTransport(String name, Settings settings) {
+        this.name = name;
+        this.settings = settings;
+        this.executor = OidcExecutors.newHttpExecutor("oidc-http-" + name + "-", settings.maxThreads());
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(settings.connectTimeout())
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build();
+    }
+
+    /**
+     * Creates or updates the transport for a provider from its configuration.
+     *
+     * @param name  provider name
+     * @param props provider configuration
+     * @return the transport now registered for the provider
+     */
+    public static HttpTransport configure(String name, Properties props) {
+        Settings settings = Settings.from(props != null ? props : new Properties());
+        HttpTransport[] replaced = new HttpTransport[1];
+        HttpTransport transport = TRANSPORTS.compute(name, (n, existing) -> {
+            if (existing != null && existing.settings.equals(settings)) {
+                return existing;
+            }
+            replaced[0] = existing;
+            return new HttpTransport(n, settings);
+        });
+        if (replaced[0] != null) {
+            log.debug("Replacing HTTP transport for {}", name);
+            replaced[0].shutdown();
+        }
+        return transport;
+    }
+
+    /**
+     * Returns the transport registered for a provider, falling back to the
+     * shared default transport.
+     *
+     * @param name provider name, may be null
+     * @return the transport to use
+     */
+    public static HttpTransport forName(String name) {
+        HttpTransport transport = name != null ? TRANSPORTS.get(name) : null;
+        if (transport == null) {
+            transport = TRANSPORTS.computeIfAbsent(DEFAULT, n -> new HttpTransport(n, Settings.from(new Properties())));
+        }
+        return transport;
+    }
+
+    /**
+     * Starts a request to the given URL with this transport's read timeout and
+     * a JSON {@code Accept} header.
+     */
+    public HttpRequest.Builder request(String url) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(settings.readTimeout())
+                .header("Accept", OidcConstants.TYPE_JSON);
+    }
+
+    /**
+     * Builds a form-encoded POST request.
+     */
+    public HttpRequest postForm(String url, String formBody) {
+        return request(url)
+                .header("Content-Type", OidcConstants.TYPE_FORM)
+                .POST(HttpRequest.BodyPublishers.ofString(formBody))
+                .build();
+    }
+
+    /**
+     * Sends a request and waits for the response.
+     */
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return client.send(request, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while calling " + request.uri(), e);
+        }
+    }
+
+    /**
+     * Sends a request without blocking the calling thread.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        return client.sendAsync(request, handler);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return how long to wait for a response, and for reading its body
+     */
+    public Duration getReadTimeout() {
+        return settings.readTimeout();
+    }
+
+    private void shutdown() {
+        client.shutdown();
+        // The client still needs its executor to finish in-flight exchanges
+        Thread.ofVirtual().name("oidc-http-" + name + "-shutdown").start(() -> {
+            try {
+                client.awaitTermination(settings.readTimeout().multipliedBy(2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executor.shutdown();
+        });
+    }
+
+    private static int intProperty(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring invalid value '{}' for {}", value, key);
+            return defaultValue;
+        }
+    }
+}
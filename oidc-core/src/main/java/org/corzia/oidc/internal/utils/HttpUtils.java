@@ -15,20 +15,34 @@
  **************************************************************************/
 package org.corzia.oidc.internal.utils;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URI;
-import java.net.URL;
+import java.net.URLEncoder;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.nio.charset.StandardCharsets;
-
-import org.corzia.oidc.OidcConstants;
-import org.json.JSONObject;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class HttpUtils {
 
+        private static final ScheduledExecutorService BODY_DEADLINES = Executors
+                        .newSingleThreadScheduledExecutor(r -> {
+                                Thread t = new Thread(r, "oidc-http-body-deadline");
+                                t.setDaemon(true);
+                                return t;
+                        });
+
         /**
          * Exchanges an authorization code for tokens.
          * 
+         * @param transport     pooled HTTP transport of the provider
          * @param tokenEndpoint token endpoint URL
          * @param clientId      client identifier
          * @param clientSecret  client secret
@@ -37,37 +51,67 @@ public class HttpUtils {
          * @return TokenResponse containing idToken, accessToken, and optional
          *         refreshToken
          */
-        public static TokenResponse exchangeCode(String tokenEndpoint,
+        public static TokenResponse exchangeCode(HttpTransport transport,
+                        String tokenEndpoint,
                         String clientId,
                         String clientSecret,
                         String code,
-                        String redirectUri) throws Exception {
-                URL url = new URI(tokenEndpoint).toURL();
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod(OidcConstants.METHOD_POST);
-                conn.setDoOutput(true);
-
-                String body = "grant_type=authorization_code"
-                                + "&client_id=" + clientId
-                                + "&client_secret=" + clientSecret
-                                + "&code=" + code
-                                + "&redirect_uri=" + redirectUri;
-
-                try (OutputStream os = conn.getOutputStream()) {
-                        os.write(body.getBytes(StandardCharsets.UTF_8));
-                }
+                        String redirectUri) throws IOException {
+                return requireTokens(postForm(transport, tokenEndpoint,
+                                codeGrant(clientId, clientSecret, code, redirectUri)));
+        }
 
-                String json = new String(conn.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-                JSONObject obj = new JSONObject(json);
-                return new TokenResponse(
-                                obj.getString("id_token"),
-                                obj.getString("access_token"),
-                                obj.optString("refresh_token", null));
+        /**
+         * Exchanges an authorization code for tokens without blocking the calling
+         * thread.
+         *
+         * @see #exchangeCode(HttpTransport, String, String, String, String, String)
+         * @return future completed with the tokens, or exceptionally with an
+         *         {@link IOException} if the token endpoint rejects the request
+         *         or a {@link ProviderUnavailableException} if it is isolated
+         */
+        public static CompletableFuture<TokenResponse> exchangeCodeAsync(HttpTransport transport,
+                        String tokenEndpoint,
+                        String clientId,
+                        String clientSecret,
+                        String code,
+                        String redirectUri) {
+                TokenEndpointGuard.Permit permit;
+                try {
+                        permit = TokenEndpointGuard.forName(transport.getName()).acquire();
+                } catch (ProviderUnavailableException e) {
+                        return CompletableFuture.failedFuture(e);
+                }
+                CompletableFuture<HttpResponse<InputStream>> sent;
+                try {
+                        sent = transport.sendAsync(
+                                        transport.postForm(tokenEndpoint,
+                                                        codeGrant(clientId, clientSecret, code, redirectUri)),
+                                        HttpResponse.BodyHandlers.ofInputStream());
+                } catch (RuntimeException e) {
+                        permit.failure();
+                        throw e;
+                }
+                return sent
+                                .whenComplete((response, error) -> {
+                                        if (error != null) {
+                                                permit.failure();
+                                        }
+                                })
+                                // Reading the body blocks, so not on the HTTP client's threads
+                                .thenApplyAsync(response -> {
+                                        try {
+                                                return requireTokens(read(transport, tokenEndpoint, response, permit));
+                                        } catch (IOException e) {
+                                                throw new CompletionException(e);
+                                        }
+                                }, OidcExecutors.workers());
         }
 
         /**
          * Refreshes an access token using a refresh token.
          * 
+         * @param transport     pooled HTTP transport of the provider
          * @param tokenEndpoint token endpoint URL
          * @param clientId      client identifier
          * @param clientSecret  client secret
@@ -75,29 +119,140 @@ public class HttpUtils {
          * @return TokenResponse containing new idToken, accessToken, and optional
          *         refreshToken
          */
-        public static TokenResponse refreshAccessToken(String tokenEndpoint,
+        public static TokenResponse refreshAccessToken(HttpTransport transport,
+                        String tokenEndpoint,
                         String clientId,
                         String clientSecret,
-                        String refreshToken) throws Exception {
-                URL url = new URI(tokenEndpoint).toURL();
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod(OidcConstants.METHOD_POST);
-                conn.setDoOutput(true);
-
+                        String refreshToken) throws IOException {
                 String body = "grant_type=refresh_token"
-                                + "&client_id=" + clientId
-                                + "&client_secret=" + clientSecret
-                                + "&refresh_token=" + refreshToken;
+                                + "&client_id=" + form(clientId)
+                                + "&client_secret=" + form(clientSecret)
+                                + "&refresh_token=" + form(refreshToken);
+
+                return postForm(transport, tokenEndpoint, body);
+        }
+
+        private static String codeGrant(String clientId, String clientSecret, String code, String redirectUri) {
+                return "grant_type=authorization_code"
+                                + "&client_id=" + form(clientId)
+                                + "&client_secret=" + form(clientSecret)
+                                + "&code=" + form(code)
+                                + "&redirect_uri=" + form(redirectUri);
+        }
+
+        private static TokenResponse requireTokens(TokenResponse tokens) throws IOException {
+                if (tokens.getIdToken() == null || tokens.getAccessToken() == null) {
+                        throw new IOException("Token response is missing id_token or access_token");
+                }
+                return tokens;
+        }
+
+        /**
+         * Posts through the provider's {@link TokenEndpointGuard}, so a slow or
+         * failing IdP is isolated from the others.
+         */
+        private static TokenResponse postForm(HttpTransport transport, String url, String body) throws IOException {
+                TokenEndpointGuard.Permit permit = TokenEndpointGuard.forName(transport.getName()).acquire();
+                HttpResponse<InputStream> response;
+                try {
+                        response = transport.send(transport.postForm(url, body),
+                                        HttpResponse.BodyHandlers.ofInputStream());
+                } catch (IOException | RuntimeException e) {
+                        permit.failure();
+                        throw e;
+                }
+                return read(transport, url, response, permit);
+        }
 
-                try (OutputStream os = conn.getOutputStream()) {
-                        os.write(body.getBytes(StandardCharsets.UTF_8));
+        /**
+         * Reads the response body within the transport's read timeout, which
+         * otherwise only covers the wait for the headers, and completes the
+         * permit once the body is read. The bulkhead therefore also covers a
+         * slow body, and a body that cannot be read counts as a failure.
+         */
+        private static TokenResponse read(HttpTransport transport, String url, HttpResponse<InputStream> response,
+                        TokenEndpointGuard.Permit permit) throws IOException {
+                InputStream body = response.body();
+                long timeoutMillis = transport.getReadTimeout().toMillis();
+                AtomicBoolean timedOut = new AtomicBoolean();
+                ScheduledFuture<?> deadline = BODY_DEADLINES.schedule(() -> {
+                        timedOut.set(true);
+                        closeQuietly(body);
+                }, timeoutMillis, TimeUnit.MILLISECONDS);
+                try {
+                        TokenResponse tokens = parse(url, response);
+                        record(permit, response.statusCode());
+                        return tokens;
+                } catch (IOException | RuntimeException e) {
+                        if (e instanceof TokenEndpointException) {
+                                record(permit, response.statusCode());
+                        } else {
+                                permit.failure();
+                        }
+                        if (timedOut.get()) {
+                                throw new HttpTimeoutException("Response body from " + url + " not read within "
+                                                + timeoutMillis + " ms");
+                        }
+                        throw e;
+                } finally {
+                        deadline.cancel(false);
+                }
+        }
+
+        /**
+         * Server errors and throttling count against the provider; client
+         * errors such as an expired code mean the endpoint itself is healthy.
+         */
+        private static void record(TokenEndpointGuard.Permit permit, int status) {
+                if (status >= 500 || status == 429) {
+                        permit.failure();
+                } else {
+                        permit.success();
+                }
+        }
+
+        /**
+         * Parses the token response straight from the body stream.
+         */
+        private static TokenResponse parse(String url, HttpResponse<InputStream> response) throws IOException {
+                try (InputStream body = response.body()) {
+                        if (response.statusCode() != 200) {
+                                throw new TokenEndpointException("Token endpoint " + url + " returned HTTP "
+                                                + response.statusCode() + ": " + abbreviate(body));
+                        }
+                        TokenResponse tokens = TokenResponseParser.parse(body);
+                        // Drain trailing bytes so the connection can be reused
+                        body.transferTo(OutputStream.nullOutputStream());
+                        return tokens;
                 }
+        }
+
+        private static void closeQuietly(InputStream body) {
+                try {
+                        body.close();
+                } catch (IOException e) {
+                        // Closing only unblocks the reader
+                }
+        }
+
+        /**
+         * The token endpoint answered with an error status; the body was read.
+         */
+        private static final class TokenEndpointException extends IOException {
+                private static final long serialVersionUID = 1L;
+
+                private TokenEndpointException(String message) {
+                        super(message);
+                }
+        }
+
+        private static String form(String value) {
+                return value != null ? URLEncoder.encode(value, StandardCharsets.UTF_8) : "";
+        }
 
-                String json = new String(conn.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-                JSONObject obj = new JSONObject(json);
-                return new TokenResponse(
-                                obj.optString("id_token", null),
-                                obj.optString("access_token", null),
-                                obj.optString("refresh_token", null));
+        private static String abbreviate(InputStream body) throws IOException {
+                byte[] head = body.readNBytes(201);
+                String text = new String(head, 0, Math.min(head.length, 200), StandardCharsets.UTF_8);
+                return head.length > 200 ? text + "..." : text;
         }
 }
@@ -0,0 +1,110 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.corzia.oidc.OidcConstants;
+import org.corzia.oidc.internal.config.OidcConfigManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared executors for blocking IdP I/O and for OIDC work that must not run
+ * on a container request thread or on an {@link java.net.http.HttpClient}
+ * callback thread, such as ID token validation after an asynchronous token
+ * exchange (which may block on a JWKS download).
+ * <p>
+ * With {@code security.io.virtual_threads=true} all of this work runs on
+ * virtual threads instead of bounded platform thread pools, so a burst of
+ * logins waiting on a slow IdP no longer queues behind a fixed number of
+ * threads. The mode is read once, on first use.
+ * </p>
+ */
+public final class OidcExecutors {
+
+    private static final Logger log = LoggerFactory.getLogger(OidcExecutors.class);
+
+    private static final class Holder {
+        private static final boolean VIRTUAL = Boolean.parseBoolean(OidcConfigManager
+                .getSecurityConfig(OidcConstants.CONFIG_SECURITY)
+                .getProperty(OidcConstants.PROP_IO_VIRTUAL_THREADS, "false").trim());
+
+        private static final ExecutorService WORKERS = newWorkers(VIRTUAL);
+
+        static {
+            if (VIRTUAL) {
+                log.info("Running blocking IdP I/O on virtual threads");
+            }
+        }
+    }
+
+    private OidcExecutors() {
+        // Utility class
+    }
+
+    /**
+     * @return true if blocking IdP I/O runs on virtual threads
+     */
+    public static boolean isVirtualThreads() {
+        return Holder.VIRTUAL;
+    }
+
+    /**
+     * @return executor for short tasks that may block on I/O
+     */
+    public static ExecutorService workers() {
+        return Holder.WORKERS;
+    }
+
+    /**
+     * Creates a worker executor for the given mode. Package-private so load
+     * tests can compare both modes in one JVM.
+     */
+    static ExecutorService newWorkers(boolean virtual) {
+        return virtual
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("oidc-worker-", 1).factory())
+                : Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2),
+                        platformThreads("oidc-worker-"));
+    }
+
+    /**
+     * Creates the executor for an {@link java.net.http.HttpClient}: one
+     * virtual thread per task in virtual-thread mode, otherwise a fixed pool
+     * of daemon threads.
+     *
+     * @param name       thread name prefix
+     * @param maxThreads pool size in platform-thread mode
+     */
+    public static ExecutorService newHttpExecutor(String name, int maxThreads) {
+        if (Holder.VIRTUAL) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name, 1).factory());
+        }
+        return Executors.newFixedThreadPool(maxThreads, platformThreads(name));
+    }
+
+    private static ThreadFactory platformThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
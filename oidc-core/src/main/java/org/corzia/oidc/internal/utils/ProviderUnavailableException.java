@@ -0,0 +1,49 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.utils;
+
+import java.io.IOException;
+
+/**
+ * Thrown without contacting the IdP when a provider's token endpoint is
+ * isolated by its {@link TokenEndpointGuard}, either because its circuit is
+ * open or because too many calls to it are already in flight.
+ */
+public class ProviderUnavailableException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String providerName;
+    private final long retryAfterMillis;
+
+    public ProviderUnavailableException(String providerName, String message, long retryAfterMillis) {
+        super(message);
+        this.providerName = providerName;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public String getProviderName() {
+        return providerName;
+    }
+
+    /**
+     * @return how long callers should wait before trying again, in
+     *         milliseconds
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
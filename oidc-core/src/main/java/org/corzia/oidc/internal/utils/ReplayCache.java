@@ -0,0 +1,99 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers one-time token ids (such as a {@code jti}) for a fixed time, to
+ * detect replays.
+ * <p>
+ * Every id is kept for the same retention, so insertion order is expiry
+ * order: expired ids are dropped from the head, and each call does constant
+ * work on average. The cache holds at most {@code maxEntries} ids; when it
+ * is full of unexpired ids, the oldest is evicted, so a replay of that id
+ * would no longer be detected.
+ * </p>
+ */
+public final class ReplayCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplayCache.class);
+
+    private final long retentionMillis;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Long> seen = new LinkedHashMap<>(); // id -> expiry, guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * @param retentionMillis how long an id is remembered
+     * @param maxEntries      most ids held at once
+     */
+    public ReplayCache(long retentionMillis, int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.retentionMillis = retentionMillis;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Records an id.
+     *
+     * @param id        the token id
+     * @param nowMillis current time
+     * @return true the first time the id is seen within the retention, false
+     *         for a replay
+     */
+    public boolean firstSeen(String id, long nowMillis) {
+        lock.lock();
+        try {
+            Iterator<Long> it = seen.values().iterator();
+            while (it.hasNext() && it.next() <= nowMillis) {
+                it.remove();
+            }
+            if (seen.containsKey(id)) {
+                return false;
+            }
+            if (seen.size() >= maxEntries) {
+                it = seen.values().iterator();
+                it.next();
+                it.remove();
+                log.warn("Replay cache full ({} ids); forgetting the oldest", maxEntries);
+            }
+            seen.put(id, nowMillis + retentionMillis);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of ids held
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return seen.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.utils;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.corzia.oidc.shiro.OidcRealm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bulkhead and circuit breaker for one provider's token endpoint.
+ * <p>
+ * The bulkhead caps the number of concurrent token calls per provider, so a
+ * slow IdP cannot tie up the threads that logins for other providers need.
+ * The circuit breaker opens after a run of consecutive failures (network
+ * errors, timeouts, HTTP 5xx and 429) and then fails calls fast until the
+ * open period has passed, after which a single probe call is let through
+ * (half-open): its outcome closes the circuit or opens it again. Only that
+ * probe can close an open circuit; calls admitted before the circuit opened
+ * no longer count when they finish. Rejections surface as
+ * {@link ProviderUnavailableException}.
+ * </p>
+ *
+ * <p>
+ * Guards are kept per provider name for the life of the process;
+ * reconfiguring a provider updates its limits without resetting its state.
+ * </p>
+ */
+public final class TokenEndpointGuard {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenEndpointGuard.class);
+
+    private static final int DEFAULT_MAX_CONCURRENT = 20;
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_OPEN_SECONDS = 30L;
+
+    private static final Map<String, TokenEndpointGuard> GUARDS = new ConcurrentHashMap<>();
+
+    /**
+     * Circuit breaker state.
+     */
+    public enum State {
+        /** Calls flow normally. */
+        CLOSED,
+        /** Calls fail fast until the open period has passed. */
+        OPEN,
+        /** One probe call is allowed to test whether the IdP recovered. */
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicBoolean probeInFlight = new AtomicBoolean();
+    /** Bumped each time the circuit opens; permits remember the one they were issued in. */
+    private final AtomicLong generation = new AtomicLong();
+    private volatile long openedAtMillis;
+    private volatile Semaphore bulkhead;
+    private volatile int maxConcurrent;
+    private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private volatile long openMillis = DEFAULT_OPEN_SECONDS * 1000L;
+
+    private TokenEndpointGuard(String name) {
+        this.name = name;
+        setMaxConcurrent(DEFAULT_MAX_CONCURRENT);
+    }
+
+    /**
+     * Applies a provider's limits, creating its guard on first use.
+     *
+     * @param name  provider name
+     * @param props provider configuration
+     */
+    public static void configure(String name, Properties props) {
+        TokenEndpointGuard guard = forName(name);
+        Properties p = props != null ? props : new Properties();
+        guard.setMaxConcurrent(Math.max(1, intProperty(p, OidcRealm.TOKEN_MAX_CONCURRENT, DEFAULT_MAX_CONCURRENT)));
+        guard.failureThreshold = Math.max(1,
+                intProperty(p, OidcRealm.BREAKER_FAILURE_THRESHOLD, DEFAULT_FAILURE_THRESHOLD));
+        guard.openMillis = Math.max(1, intProperty(p, OidcRealm.BREAKER_OPEN_SECONDS, (int) DEFAULT_OPEN_SECONDS))
+                * 1000L;
+    }
+
+    /**
+     * @param name provider name
+     * @return the guard for the provider, created with default limits if the
+     *         provider was never configured
+     */
+    public static TokenEndpointGuard forName(String name) {
+        return GUARDS.computeIfAbsent(name != null ? name : HttpTransport.DEFAULT, TokenEndpointGuard::new);
+    }
+
+    /**
+     * @return circuit state per provider name
+     */
+    public static Map<String, State> states() {
+        Map<String, State> states = new TreeMap<>();
+        GUARDS.forEach((name, guard) -> states.put(name, guard.getState()));
+        return states;
+    }
+
+    /**
+     * Admits a call to the token endpoint.
+     *
+     * @return permit that must be completed with {@link Permit#success()} or
+     *         {@link Permit#failure()} once the call finishes
+     * @throws ProviderUnavailableException if the circuit is open, a probe is
+     *                                      already running, or the bulkhead is
+     *                                      full
+     */
+    public Permit acquire() throws ProviderUnavailableException {
+        boolean probe = false;
+        // Read before the state, so a permit never claims a newer generation
+        long admittedIn = generation.get();
+        State current = state.get();
+        if (current == State.OPEN) {
+            long remaining = openedAtMillis + openMillis - System.currentTimeMillis();
+            if (remaining > 0) {
+                throw new ProviderUnavailableException(name,
+                        "Token endpoint of " + name + " is unavailable (circuit open)", remaining);
+            }
+            if (state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+                log.info("Circuit for {} token endpoint half-open, probing", name);
+            }
+            current = State.HALF_OPEN;
+        }
+        if (current == State.HALF_OPEN) {
+            if (!probeInFlight.compareAndSet(false, true)) {
+                throw new ProviderUnavailableException(name,
+                        "Token endpoint of " + name + " is unavailable (probing recovery)", openMillis);
+            }
+            probe = true;
+        }
+
+        Semaphore permits = bulkhead;
+        if (!permits.tryAcquire()) {
+            if (probe) {
+                probeInFlight.set(false);
+            }
+            throw new ProviderUnavailableException(name,
+                    "Too many concurrent calls to the token endpoint of " + name, 1000L);
+        }
+        return new Permit(permits, probe, admittedIn);
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    /**
+     * @return number of calls that could start right now
+     */
+    public int getAvailablePermits() {
+        return bulkhead.availablePermits();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Only the half-open probe closes the circuit. Outcomes of calls admitted
+     * before the circuit last opened are ignored, so a slow call that
+     * succeeds late cannot close it early or count against it later.
+     */
+    private void onSuccess(boolean probe, long admittedIn) {
+        if (probe) {
+            consecutiveFailures.set(0);
+            probeInFlight.set(false);
+            if (state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+                log.info("Circuit for {} token endpoint closed", name);
+            }
+        } else if (admittedIn == generation.get()) {
+            consecutiveFailures.set(0);
+        }
+    }
+
+    private void onFailure(boolean probe, long admittedIn) {
+        if (probe) {
+            consecutiveFailures.incrementAndGet();
+            open();
+            probeInFlight.set(false);
+        } else if (admittedIn == generation.get()
+                && consecutiveFailures.incrementAndGet() >= failureThreshold && state.get() == State.CLOSED) {
+            open();
+        }
+    }
+
+    private void open() {
+        openedAtMillis = System.currentTimeMillis();
+        if (state.getAndSet(State.OPEN) != State.OPEN) {
+            generation.incrementAndGet();
+            log.warn("Circuit for {} token endpoint opened after {} consecutive failures; failing fast for {} s",
+                    name, consecutiveFailures.get(), openMillis / 1000L);
+        }
+    }
+
+    private void setMaxConcurrent(int max) {
+        if (max != maxConcurrent) {
+            // Calls holding permits of the old semaphore release them there
+            bulkhead = new Semaphore(max);
+            maxConcurrent = max;
+        }
+    }
+
+    private static int intProperty(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring invalid value '{}' for {}", value, key);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * A call admitted by {@link #acquire()}. Completing it more than once has
+     * no effect.
+     */
+    public final class Permit {
+
+        private final Semaphore permits;
+        private final boolean probe;
+        private final long admittedIn;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Permit(Semaphore permits, boolean probe, long admittedIn) {
+            this.permits = permits;
+            this.probe = probe;
+            this.admittedIn = admittedIn;
+        }
+
+        /**
+         * Records that the IdP answered; client errors such as
+         * {@code invalid_grant} count as success, since the endpoint is up.
+         */
+        public void success() {
+            if (done.compareAndSet(false, true)) {
+                permits.release();
+                onSuccess(probe, admittedIn);
+            }
+        }
+
+        /**
+         * Records that the IdP could not be reached or failed.
+         */
+        public void failure() {
+            if (done.compareAndSet(false, true)) {
+                permits.release();
+                onFailure(probe, admittedIn);
+            }
+        }
+    }
+}
@@ -19,11 +19,20 @@ public class TokenResponse {
     private final String idToken;
     private final String accessToken;
     private final String refreshToken;
+    private final Long expiresIn;
+    private final String tokenType;
 
     public TokenResponse(String idToken, String accessToken, String refreshToken) {
+        this(idToken, accessToken, refreshToken, null, null);
+    }
+
+    public TokenResponse(String idToken, String accessToken, String refreshToken, Long expiresIn,
+            String tokenType) {
         this.idToken = idToken;
         this.accessToken = accessToken;
         this.refreshToken = refreshToken;
+        this.expiresIn = expiresIn;
+        this.tokenType = tokenType;
     }
 
     public String getIdToken() {
@@ -37,4 +46,16 @@ public class TokenResponse {
     public String getRefreshToken() {
         return refreshToken;
     }
+
+    /**
+     * @return lifetime of the access token in seconds, or null if the IdP did
+     *         not say
+     */
+    public Long getExpiresIn() {
+        return expiresIn;
+    }
+
+    public String getTokenType() {
+        return tokenType;
+    }
 }
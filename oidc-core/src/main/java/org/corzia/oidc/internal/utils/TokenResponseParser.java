@@ -0,0 +1,318 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming parser for token endpoint responses (RFC 6749, section 5.1).
+ * <p>
+ * Reads {@code id_token}, {@code access_token}, {@code refresh_token},
+ * {@code expires_in} and {@code token_type} straight from the response
+ * bytes and skips every other member without building a DOM, so a
+ * several-KB response costs little more than the token strings themselves.
+ * </p>
+ */
+final class TokenResponseParser {
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[8192];
+    private int pos;
+    private int limit;
+    private byte[] value = new byte[1024];
+    private int valueLength;
+
+    private TokenResponseParser(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Parses a token response. The stream is read up to the end of the
+     * top-level object but not closed.
+     *
+     * @param in response body
+     * @return the parsed tokens; members that are absent are null
+     * @throws IOException if the body cannot be read or is not a JSON object
+     */
+    static TokenResponse parse(InputStream in) throws IOException {
+        return new TokenResponseParser(in).parseObject();
+    }
+
+    private TokenResponse parseObject() throws IOException {
+        String idToken = null;
+        String accessToken = null;
+        String refreshToken = null;
+        String tokenType = null;
+        Long expiresIn = null;
+
+        expect('{');
+        int c = nextNonWhitespace();
+        if (c == '}') {
+            return new TokenResponse(null, null, null, null, null);
+        }
+        while (true) {
+            if (c != '"') {
+                throw malformed("expected member name");
+            }
+            String name = readString();
+            expect(':');
+            switch (name) {
+                case "id_token" -> idToken = readStringValue();
+                case "access_token" -> accessToken = readStringValue();
+                case "refresh_token" -> refreshToken = readStringValue();
+                case "token_type" -> tokenType = readStringValue();
+                case "expires_in" -> expiresIn = readLongValue();
+                default -> skipValue();
+            }
+            c = nextNonWhitespace();
+            if (c == '}') {
+                break;
+            }
+            if (c != ',') {
+                throw malformed("expected ',' or '}'");
+            }
+            c = nextNonWhitespace();
+        }
+        return new TokenResponse(idToken, accessToken, refreshToken, expiresIn, tokenType);
+    }
+
+    private String readStringValue() throws IOException {
+        int c = nextNonWhitespace();
+        if (c == '"') {
+            return readString();
+        }
+        unread(c);
+        skipValue();
+        return null;
+    }
+
+    /**
+     * Reads a number of seconds; some IdPs send {@code expires_in} as a string.
+     */
+    private Long readLongValue() throws IOException {
+        int c = nextNonWhitespace();
+        String text;
+        if (c == '"') {
+            text = readString();
+        } else {
+            unread(c);
+            valueLength = 0;
+            skipLiteral(true);
+            text = new String(value, 0, valueLength, StandardCharsets.US_ASCII);
+        }
+        try {
+            return (long) Double.parseDouble(text.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void skipValue() throws IOException {
+        int c = nextNonWhitespace();
+        switch (c) {
+            case '"' -> skipString();
+            case '{', '[' -> skipNested();
+            default -> {
+                unread(c);
+                skipLiteral(false);
+            }
+        }
+    }
+
+    private void skipNested() throws IOException {
+        int depth = 1;
+        while (depth > 0) {
+            int c = read();
+            switch (c) {
+                case '"' -> skipString();
+                case '{', '[' -> depth++;
+                case '}', ']' -> depth--;
+                case -1 -> throw malformed("unterminated object or array");
+                default -> {
+                    // Part of a nested value we are not interested in
+                }
+            }
+        }
+    }
+
+    /**
+     * Skips a number, {@code true}, {@code false} or {@code null}, optionally
+     * keeping its characters in the value buffer.
+     */
+    private void skipLiteral(boolean keep) throws IOException {
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                return;
+            }
+            if (c == ',' || c == '}' || c == ']' || isWhitespace(c)) {
+                unread(c);
+                return;
+            }
+            if (keep) {
+                append(c);
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                read();
+            } else if (c == -1) {
+                throw malformed("unterminated string");
+            }
+        }
+    }
+
+    /**
+     * Reads the rest of a string whose opening quote has been consumed.
+     */
+    private String readString() throws IOException {
+        valueLength = 0;
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return new String(value, 0, valueLength, StandardCharsets.UTF_8);
+            }
+            if (c == -1) {
+                throw malformed("unterminated string");
+            }
+            if (c != '\\') {
+                append(c);
+                continue;
+            }
+            int e = read();
+            switch (e) {
+                case '"', '\\', '/' -> append(e);
+                case 'b' -> append('\b');
+                case 'f' -> append('\f');
+                case 'n' -> append('\n');
+                case 'r' -> append('\r');
+                case 't' -> append('\t');
+                case 'u' -> appendCodePoint(readUnicodeEscape());
+                default -> throw malformed("invalid escape");
+            }
+        }
+    }
+
+    private int readUnicodeEscape() throws IOException {
+        char high = readHex4();
+        if (!Character.isHighSurrogate(high)) {
+            return high;
+        }
+        // A supplementary character is escaped as a surrogate pair
+        if (read() != '\\' || read() != 'u') {
+            throw malformed("unpaired surrogate");
+        }
+        char low = readHex4();
+        if (!Character.isLowSurrogate(low)) {
+            throw malformed("unpaired surrogate");
+        }
+        return Character.toCodePoint(high, low);
+    }
+
+    private char readHex4() throws IOException {
+        int result = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(read(), 16);
+            if (digit < 0) {
+                throw malformed("invalid unicode escape");
+            }
+            result = (result << 4) | digit;
+        }
+        return (char) result;
+    }
+
+    private void appendCodePoint(int cp) {
+        if (cp < 0x80) {
+            append(cp);
+        } else if (cp < 0x800) {
+            append(0xC0 | (cp >> 6));
+            append(0x80 | (cp & 0x3F));
+        } else if (cp < 0x10000) {
+            append(0xE0 | (cp >> 12));
+            append(0x80 | ((cp >> 6) & 0x3F));
+            append(0x80 | (cp & 0x3F));
+        } else {
+            append(0xF0 | (cp >> 18));
+            append(0x80 | ((cp >> 12) & 0x3F));
+            append(0x80 | ((cp >> 6) & 0x3F));
+            append(0x80 | (cp & 0x3F));
+        }
+    }
+
+    private void append(int b) {
+        if (valueLength == value.length) {
+            value = Arrays.copyOf(value, value.length * 2);
+        }
+        value[valueLength++] = (byte) b;
+    }
+
+    private void expect(char expected) throws IOException {
+        if (nextNonWhitespace() != expected) {
+            throw malformed("expected '" + expected + "'");
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (isWhitespace(c));
+        return c;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    /**
+     * @return the next byte as an unsigned value, or -1 at end of stream
+     */
+    private int read() throws IOException {
+        if (pos == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[pos++] & 0xFF;
+    }
+
+    /**
+     * Pushes back the byte just read; only valid directly after {@link #read()}.
+     */
+    private void unread(int c) throws IOException {
+        if (c == -1) {
+            throw malformed("unexpected end of input");
+        }
+        pos--;
+    }
+
+    private static IOException malformed(String reason) {
+        return new IOException("Malformed token response: " + reason);
+    }
+}
@@ -0,0 +1,120 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.servlet;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Set;
+
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.corzia.oidc.AbstractOidcClient;
+import org.corzia.oidc.OidcClient;
+import org.corzia.oidc.OidcClientFactory;
+import org.corzia.oidc.OidcConstants;
+import org.corzia.oidc.internal.user.OidcUserDirectory;
+import org.corzia.oidc.shiro.HybridWebSessionManager;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+
+/**
+ * OpenID Connect Back-Channel Logout endpoint.
+ * <p>
+ * The IdP posts a signed {@code logout_token} here when a user's IdP session
+ * ends or the user is revoked. The provider is named by the
+ * {@code provider} query parameter of the registered logout URI, e.g.
+ * {@code /portal/oidc/backchannel-logout?provider=entra}. The token is
+ * validated by {@link AbstractOidcClient#validateLogoutToken(String)}, and
+ * the matching sessions, across all tabs, are found through the
+ * {@link OidcUserDirectory} session indexes and stopped; no other session is
+ * read.
+ * </p>
+ * <p>
+ * Responds 200 when the token is valid (also when no session matched), 400
+ * with an {@code error} JSON body otherwise, as the specification requires.
+ * </p>
+ * <p>
+ * Logout is node-local. The session indexes live in memory on each node, and
+ * a session is only in them on nodes where it was started or has been used
+ * since (see {@link HybridWebSessionManager}). With several nodes behind a
+ * load balancer the IdP's request reaches one of them: sessions known only
+ * to other nodes are not found and stay valid until they time out or are
+ * logged out. A session that is found is stopped on every node when sessions
+ * are shared through a session store, since stopping deletes it there.
+ * </p>
+ */
+@WebServlet("/portal/oidc/backchannel-logout")
+public class BackChannelLogoutServlet extends HttpServlet {
+
+    private static final Logger log = LoggerFactory.getLogger(BackChannelLogoutServlet.class);
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setHeader("Cache-Control", "no-store");
+
+        String providerName = req.getParameter(OidcConstants.PARAM_PROVIDER);
+        String logoutToken = req.getParameter(OidcConstants.PARAM_LOGOUT_TOKEN);
+        if (providerName == null || logoutToken == null || logoutToken.isBlank()) {
+            sendError(resp, "invalid_request", "provider and logout_token are required");
+            return;
+        }
+
+        OidcClient client;
+        try {
+            client = OidcClientFactory.getInstance().getClient(providerName);
+        } catch (IllegalArgumentException e) {
+            sendError(resp, "invalid_request", "Unknown provider");
+            return;
+        }
+        if (!(client instanceof AbstractOidcClient oidcClient)) {
+            sendError(resp, "invalid_request", "Provider does not support back-channel logout");
+            return;
+        }
+
+        JWTClaimsSet claims;
+        try {
+            claims = oidcClient.validateLogoutToken(logoutToken);
+        } catch (Exception e) {
+            log.warn("Rejected back-channel logout token from {}: {}", providerName, e.getMessage());
+            sendError(resp, "invalid_request", "Invalid logout token");
+            return;
+        }
+
+        String subject = claims.getSubject();
+        String sid = (String) claims.getClaim("sid");
+        Set<Serializable> sessionIds = OidcUserDirectory.findSessionIds(client.getName(), subject, sid);
+        int stopped = sessionIds.isEmpty() ? 0 : HybridWebSessionManager.current().stopSessions(sessionIds);
+        log.info("Back-channel logout from {} (sub={}, sid={}): ended {} sessions", providerName, subject, sid,
+                stopped);
+
+        resp.setStatus(HttpServletResponse.SC_OK);
+    }
+
+    private static void sendError(HttpServletResponse resp, String error, String description) throws IOException {
+        resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        resp.setContentType(OidcConstants.TYPE_JSON);
+        JSONObject json = new JSONObject();
+        json.put(OidcConstants.JKEY_ERROR, error);
+        json.put(OidcConstants.JKEY_ERROR_DESCRIPTION, description);
+        resp.getWriter().write(json.toString());
+    }
+}
@@ -16,7 +16,17 @@
 package org.corzia.oidc.servlet;
 
 import java.io.IOException;
-
+import java.io.Serializable;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
@@ -30,16 +40,44 @@ import org.corzia.oidc.OidcClient;
 import org.corzia.oidc.OidcClientFactory;
 import org.corzia.oidc.OidcConstants;
 import org.corzia.oidc.OidcUserInfo;
+import org.corzia.oidc.internal.config.OidcConfigManager;
 import org.corzia.oidc.internal.user.OidcUserDirectory;
+import org.corzia.oidc.internal.user.TokenRenewalScheduler;
+import org.corzia.oidc.shiro.HybridWebSessionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-@WebServlet("/portal/oidc/callback")
+/**
+ * Completes the authorization code flow.
+ * <p>
+ * The token exchange and ID token validation run asynchronously, so the
+ * container thread is released during the IdP round trip. If they do not
+ * finish within {@code security.oidc.callback_timeout_seconds}, the user is
+ * sent to the error page. Containers that do not support async processing
+ * for this request fall back to the blocking flow.
+ * </p>
+ */
+@WebServlet(value = "/portal/oidc/callback", asyncSupported = true)
 public class OidcCallbackServlet extends HttpServlet {
 
     private static final Logger log = LoggerFactory.getLogger(OidcCallbackServlet.class);
     private static final long serialVersionUID = 1L;
+    private static final long DEFAULT_TIMEOUT_SECONDS = 30L;
     private final OidcClientFactory clientFactory = OidcClientFactory.getInstance();
+    private long timeoutMillis = DEFAULT_TIMEOUT_SECONDS * 1000L;
+
+    @Override
+    public void init() throws ServletException {
+        Properties security = OidcConfigManager.getSecurityConfig(OidcConstants.CONFIG_SECURITY);
+        String value = security.getProperty(OidcConstants.PROP_CALLBACK_TIMEOUT_SECONDS);
+        if (value != null && !value.isBlank()) {
+            try {
+                timeoutMillis = Long.parseLong(value.trim()) * 1000L;
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring invalid value '{}' for {}", value, OidcConstants.PROP_CALLBACK_TIMEOUT_SECONDS);
+            }
+        }
+    }
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp)
@@ -63,50 +101,143 @@ public class OidcCallbackServlet extends HttpServlet {
         String providerName = (String) session.getAttribute(OidcConstants.ATTR_OIDC_PROVIDER);
         String expectedNonce = (String) session.getAttribute(OidcConstants.ATTR_OIDC_NONCE);
 
+        // Captured here: the completion runs on a thread Shiro has not bound
+        Subject subject = SecurityUtils.getSubject();
+
+        OidcClient client;
         try {
-            OidcClient client = clientFactory.getClient(providerName);
+            client = clientFactory.getClient(providerName);
+        } catch (Exception e) {
+            redirectToError(req, resp, state, e);
+            return;
+        }
 
-            OidcUserInfo userInfo = client.exchangeCodeForUserInfo(req, code, expectedNonce);
+        if (!req.isAsyncSupported()) {
+            try {
+                OidcUserInfo userInfo = client.exchangeCodeForUserInfo(req, code, expectedNonce);
+                login(req, resp, session, state, subject, userInfo);
+            } catch (Exception e) {
+                redirectToError(req, resp, state, e);
+            }
+            return;
+        }
 
-            OidcUserDirectory.put(userInfo);
+        AsyncContext async = req.startAsync();
+        async.setTimeout(timeoutMillis);
+        // Whichever of completion, timeout or container error comes first
+        // writes the response
+        AtomicBoolean done = new AtomicBoolean();
+        CompletableFuture<OidcUserInfo> result = client.exchangeCodeForUserInfoAsync(req, code, expectedNonce);
+
+        async.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                abort(new TimeoutException("OIDC callback for " + providerName + " timed out after "
+                        + timeoutMillis + " ms"));
+            }
 
-            // Shiro login
-            Subject subject = SecurityUtils.getSubject();
-            subject.login(new OidcAuthenticationToken(userInfo));
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+                abort(event.getThrowable());
+            }
 
-            session.removeAttribute(OidcConstants.ATTR_OIDC_STATE);
-            session.removeAttribute(OidcConstants.ATTR_OIDC_NONCE);
-            session.removeAttribute(OidcConstants.ATTR_OIDC_PROVIDER);
+            @Override
+            public void onComplete(AsyncEvent event) {
+                // Nothing to clean up
+            }
 
-            String finalRedirect = (String) session.getAttribute(OidcConstants.ATTR_SAVED_REQUEST);
-            if (finalRedirect == null) {
-                finalRedirect = req.getContextPath() + "/secure.html";
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+                // Not re-started
             }
 
-            // Append tabId if we can recover it from the state
-            if (state != null && state.contains(":")) {
-                String tId = state.split(":")[0];
-                finalRedirect += (finalRedirect.contains("?") ? "&" : "?") + "tabId=" + tId;
+            private void abort(Throwable cause) throws IOException {
+                if (done.compareAndSet(false, true)) {
+                    result.cancel(false);
+                    try {
+                        redirectToError(req, resp, state, cause);
+                    } finally {
+                        async.complete();
+                    }
+                }
             }
+        });
 
-            resp.sendRedirect(finalRedirect);
-        } catch (Exception e) {
-            String errorId = java.util.UUID.randomUUID().toString();
-            log.error("OIDC callback failed. Error ID: " + errorId, e);
-
-            // Generic message for the user to prevent information leakage
-            String message = "Authentication failed. Please contact support.";
-            String errorUrl = req.getContextPath() + "/error.html?" + OidcConstants.PARAM_MESSAGE + "="
-                    + java.net.URLEncoder.encode(message, "UTF-8")
-                    + "&errorId=" + errorId;
-
-            // Append tabId if we can recover it from the state
-            if (state != null && state.contains(":")) {
-                String tId = state.split(":")[0];
-                errorUrl += "&tabId=" + tId;
+        result.whenComplete((userInfo, error) -> {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                if (error != null) {
+                    redirectToError(req, resp, state, unwrap(error));
+                } else {
+                    login(req, resp, session, state, subject, userInfo);
+                }
+            } catch (Exception e) {
+                try {
+                    redirectToError(req, resp, state, e);
+                } catch (IOException ioe) {
+                    log.warn("Could not send OIDC callback error redirect", ioe);
+                }
+            } finally {
+                async.complete();
             }
+        });
+    }
+
+    private void login(HttpServletRequest req, HttpServletResponse resp, HttpSession session, String state,
+            Subject subject, OidcUserInfo userInfo) throws Exception {
+
+        OidcUserDirectory.put(userInfo);
+
+        // Shiro login
+        subject.execute(() -> {
+            subject.login(new OidcAuthenticationToken(userInfo));
+            Serializable sessionId = subject.getSession().getId();
+            OidcUserDirectory.bindSession(userInfo.getUsername(), sessionId,
+                    HybridWebSessionManager.browserIdOf(sessionId));
+            TokenRenewalScheduler.getInstance().track(userInfo, sessionId);
+        });
+
+        session.removeAttribute(OidcConstants.ATTR_OIDC_STATE);
+        session.removeAttribute(OidcConstants.ATTR_OIDC_NONCE);
+        session.removeAttribute(OidcConstants.ATTR_OIDC_PROVIDER);
+
+        String finalRedirect = (String) session.getAttribute(OidcConstants.ATTR_SAVED_REQUEST);
+        if (finalRedirect == null) {
+            finalRedirect = req.getContextPath() + "/secure.html";
+        }
 
-            resp.sendRedirect(errorUrl);
+        // Append tabId if we can recover it from the state
+        if (state != null && state.contains(":")) {
+            String tId = state.split(":")[0];
+            finalRedirect += (finalRedirect.contains("?") ? "&" : "?") + "tabId=" + tId;
         }
+
+        resp.sendRedirect(finalRedirect);
+    }
+
+    private void redirectToError(HttpServletRequest req, HttpServletResponse resp, String state, Throwable e)
+            throws IOException {
+        String errorId = java.util.UUID.randomUUID().toString();
+        log.error("OIDC callback failed. Error ID: " + errorId, e);
+
+        // Generic message for the user to prevent information leakage
+        String message = "Authentication failed. Please contact support.";
+        String errorUrl = req.getContextPath() + "/error.html?" + OidcConstants.PARAM_MESSAGE + "="
+                + java.net.URLEncoder.encode(message, "UTF-8")
+                + "&errorId=" + errorId;
+
+        // Append tabId if we can recover it from the state
+        if (state != null && state.contains(":")) {
+            String tId = state.split(":")[0];
+            errorUrl += "&tabId=" + tId;
+        }
+
+        resp.sendRedirect(errorUrl);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
     }
 }
@@ -19,19 +19,27 @@ import org.corzia.oidc.OidcConstants;
 import org.corzia.oidc.OidcUserInfo;
 import org.corzia.oidc.UserInfo;
 
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.subject.Subject;
+import org.corzia.oidc.internal.config.OidcConfigManager;
 import org.corzia.oidc.internal.user.OidcUserDirectory;
-import org.corzia.oidc.internal.utils.HttpUtils;
-import org.corzia.oidc.internal.utils.TokenResponse;
-import org.corzia.oidc.OidcClient;
-import org.corzia.oidc.OidcClientFactory;
+import org.corzia.oidc.internal.user.TokenRefreshCoordinator;
+import org.corzia.oidc.internal.utils.OidcExecutors;
+import org.corzia.oidc.internal.utils.ProviderUnavailableException;
+import org.json.JSONObject;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,15 +49,35 @@ import org.slf4j.LoggerFactory;
  * token.
  * It reads the current authenticated user's OidcUserInfo, extracts the refresh
  * token,
- * and calls the provider's token endpoint via
- * {@link HttpUtils#refreshAccessToken}.
+ * and renews it through {@link TokenRefreshCoordinator}, so concurrent
+ * refreshes from several tabs of the same user share one refresh grant.
  *
- * For simplicity this implementation supports ENTRA and GOOGLE providers.
- * If the refresh token is missing or the provider is unsupported, a 400
- * response is returned.
+ * The token call runs on the shared OIDC worker pool (virtual threads when
+ * {@code security.io.virtual_threads} is enabled) so that the container
+ * thread is released while the IdP answers. If it does not finish within
+ * {@code security.oidc.refresh_timeout_seconds}, or the container reports an
+ * error, a JSON error is returned instead; the response is written exactly
+ * once. Refresh failures are reported as JSON errors as well.
+ *
+ * If the refresh token is missing, a 400 response is returned.
  */
 public class RefreshTokenServlet extends jakarta.servlet.http.HttpServlet {
     private static final Logger log = LoggerFactory.getLogger(RefreshTokenServlet.class);
+    private static final long DEFAULT_TIMEOUT_SECONDS = 30L;
+    private long timeoutMillis = DEFAULT_TIMEOUT_SECONDS * 1000L;
+
+    @Override
+    public void init() throws ServletException {
+        Properties security = OidcConfigManager.getSecurityConfig(OidcConstants.CONFIG_SECURITY);
+        String value = security.getProperty(OidcConstants.PROP_REFRESH_TIMEOUT_SECONDS);
+        if (value != null && !value.isBlank()) {
+            try {
+                timeoutMillis = Long.parseLong(value.trim()) * 1000L;
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring invalid value '{}' for {}", value, OidcConstants.PROP_REFRESH_TIMEOUT_SECONDS);
+            }
+        }
+    }
 
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response)
@@ -59,8 +87,13 @@ public class RefreshTokenServlet extends jakarta.servlet.http.HttpServlet {
             response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "User not authenticated");
             return;
         }
-        String username = (String) subject.getPrincipal();
+        // OIDC logins use the OidcUserInfo itself as principal
+        Object principal = subject.getPrincipal();
+        String username = principal instanceof UserInfo info ? info.getUsername() : String.valueOf(principal);
         UserInfo userInfo = OidcUserDirectory.get(username);
+        if (userInfo == null && principal instanceof UserInfo info) {
+            userInfo = info;
+        }
         if (userInfo == null) {
             response.sendError(HttpServletResponse.SC_BAD_REQUEST, "User info not found");
             return;
@@ -70,46 +103,134 @@ public class RefreshTokenServlet extends jakarta.servlet.http.HttpServlet {
             return;
         }
 
-        String refreshToken = oidcUserInfo.getRefreshToken();
-        if (refreshToken == null) {
+        if (oidcUserInfo.getRefreshToken() == null) {
             response.sendError(HttpServletResponse.SC_BAD_REQUEST, "No refresh token available");
             return;
         }
-        String providerName = oidcUserInfo.getProviderName();
+
+        if (!request.isAsyncSupported()) {
+            refresh(response, username, oidcUserInfo);
+            return;
+        }
+
+        // Free the container thread while the IdP answers
+        AsyncContext async = request.startAsync();
+        async.setTimeout(timeoutMillis);
+        // Whichever of completion, timeout or container error comes first
+        // writes the response
+        AtomicBoolean done = new AtomicBoolean();
+        CompletableFuture<OidcUserInfo> result = CompletableFuture.supplyAsync(() -> {
+            try {
+                return TokenRefreshCoordinator.refresh(oidcUserInfo);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, OidcExecutors.workers());
+
+        async.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                abort(HttpServletResponse.SC_GATEWAY_TIMEOUT, "Refresh timed out. Please try again.");
+            }
+
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+                log.warn("Refresh request for user {} failed", username, event.getThrowable());
+                abort(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Refresh failed. Please sign in again.");
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+                // Nothing to clean up
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+                // Not re-started
+            }
+
+            private void abort(int status, String message) throws IOException {
+                if (done.compareAndSet(false, true)) {
+                    // Not interrupted: other tabs may be waiting on the same refresh
+                    result.cancel(false);
+                    try {
+                        writeError(response, status, message);
+                    } finally {
+                        async.complete();
+                    }
+                }
+            }
+        });
+
+        result.whenComplete((updated, error) -> {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                if (error != null) {
+                    fail(response, username, error instanceof CompletionException ? error.getCause() : error);
+                } else {
+                    writeRefreshed(response, updated);
+                }
+            } catch (IOException e) {
+                log.warn("Could not write refresh response for user {}", username, e);
+            } finally {
+                async.complete();
+            }
+        });
+    }
+
+    private void refresh(HttpServletResponse response, String username, OidcUserInfo oidcUserInfo)
+            throws IOException {
+        OidcUserInfo updated;
         try {
-            OidcClient client = OidcClientFactory.getInstance().getClient(providerName);
-            TokenResponse newTokens = HttpUtils.refreshAccessToken(
-                    client.tokenEndpoint(),
-                    client.clientId(),
-                    client.clientSecret(),
-                    refreshToken);
-
-            // Update stored user info with new tokens (simplified)
-            OidcUserInfo updated = new OidcUserInfo(
-                    oidcUserInfo.getProviderName(),
-                    oidcUserInfo.getSubject(),
-                    oidcUserInfo.getUsername(),
-                    oidcUserInfo.getEmail(),
-                    oidcUserInfo.getFullName(),
-                    oidcUserInfo.getGivenName(),
-                    oidcUserInfo.getFamilyName(),
-                    oidcUserInfo.getPicture(),
-                    oidcUserInfo.getTenantId(),
-                    oidcUserInfo.getLocale(),
-                    oidcUserInfo.isEmailVerified(),
-                    oidcUserInfo.getGroups(),
-                    newTokens.getIdToken(),
-                    newTokens.getAccessToken(),
-                    newTokens.getRefreshToken(),
-                    oidcUserInfo.getClaims());
-            OidcUserDirectory.put(username, updated);
-            response.setContentType(OidcConstants.TYPE_JSON);
-            PrintWriter out = response.getWriter();
-            out.print("{\"status\":\"refreshed\",\"accessToken\":\"" + newTokens.getAccessToken() + "\"}");
-            out.flush();
+            updated = TokenRefreshCoordinator.refresh(oidcUserInfo);
         } catch (Exception e) {
-            log.error("Refresh failed for user {}", username, e);
-            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Refresh failed. Please sign in again.");
+            fail(response, username, e);
+            return;
+        }
+        writeRefreshed(response, updated);
+    }
+
+    private void writeRefreshed(HttpServletResponse response, OidcUserInfo updated) throws IOException {
+        response.setContentType(OidcConstants.TYPE_JSON);
+        PrintWriter out = response.getWriter();
+        out.print("{\"status\":\"refreshed\",\"accessToken\":\"" + updated.getAccessToken() + "\"}");
+        out.flush();
+    }
+
+    private void fail(HttpServletResponse response, String username, Throwable error) throws IOException {
+        if (error instanceof ProviderUnavailableException e) {
+            log.warn("Refresh for user {} rejected: {}", username, e.getMessage());
+            writeError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "Identity provider temporarily unavailable. Please try again shortly.",
+                    Math.max(1L, e.getRetryAfterMillis() / 1000L));
+        } else {
+            log.error("Refresh failed for user {}", username, error);
+            writeError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Refresh failed. Please sign in again.");
+        }
+    }
+
+    private void writeError(HttpServletResponse response, int status, String message) throws IOException {
+        writeError(response, status, message, 0L);
+    }
+
+    /**
+     * @param retryAfterSeconds sent as {@code Retry-After} if positive
+     */
+    private void writeError(HttpServletResponse response, int status, String message, long retryAfterSeconds)
+            throws IOException {
+        if (response.isCommitted()) {
+            return;
+        }
+        response.reset();
+        response.setStatus(status);
+        if (retryAfterSeconds > 0) {
+            response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
         }
+        response.setContentType(OidcConstants.TYPE_JSON);
+        PrintWriter out = response.getWriter();
+        out.print("{\"status\":\"error\",\"message\":" + JSONObject.quote(message) + "}");
+        out.flush();
     }
 }
@@ -0,0 +1,412 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.shiro;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.apache.shiro.session.Session;
+import org.apache.shiro.session.UnknownSessionException;
+import org.apache.shiro.session.mgt.eis.AbstractSessionDAO;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
+import org.corzia.oidc.OidcConstants;
+import org.corzia.oidc.internal.config.OidcConfigManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory {@link org.apache.shiro.session.mgt.eis.SessionDAO} with a hard
+ * capacity.
+ * <p>
+ * Every browser tab gets a session, including anonymous visitors, so an
+ * unbounded map grows with traffic rather than with users. Sessions are held
+ * in {@value #SHARDS} lock-striped shards, each a map kept in order of last
+ * use, and are evicted when:
+ * </p>
+ * <ul>
+ * <li>they have not been read or written for longer than the TTL
+ * ({@code security.session.ttl_seconds}); these are always the oldest entries
+ * of a shard, so they are dropped without scanning</li>
+ * <li>a shard is over its share of {@code security.session.max_sessions}; the
+ * least recently used anonymous session among the oldest few is evicted
+ * first, and an authenticated one only if there is none</li>
+ * </ul>
+ * <p>
+ * Hits, misses and evictions are counted. Evicted sessions are passed to the
+ * eviction listener, if one is set, outside the shard lock.
+ * </p>
+ */
+public class BoundedSessionDAO extends AbstractSessionDAO {
+
+    private static final Logger log = LoggerFactory.getLogger(BoundedSessionDAO.class);
+
+    private static final int SHARDS = 16;
+    /** How many of the oldest entries are searched for an anonymous session. */
+    private static final int ANONYMOUS_SCAN = 8;
+
+    public static final int DEFAULT_MAX_SESSIONS = 100_000;
+    public static final Duration DEFAULT_TTL = Duration.ofHours(2);
+
+    private final Shard[] shards = new Shard[SHARDS];
+    private final int shardCapacity;
+    private final long ttlMillis;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    private volatile Consumer<Session> evictionListener;
+
+    private static final class Entry {
+        private final Session session;
+        private long lastUsedMillis;
+
+        private Entry(Session session, long lastUsedMillis) {
+            this.session = session;
+            this.lastUsedMillis = lastUsedMillis;
+        }
+    }
+
+    private static final class Shard {
+        private final ReentrantLock lock = new ReentrantLock();
+        /**
+         * Insertion-ordered, so a plain {@code get} does not reorder; an entry
+         * is moved to the tail only when it is used, see {@link #touch}.
+         */
+        private final LinkedHashMap<Serializable, Entry> entries = new LinkedHashMap<>(64);
+
+        private void touch(Serializable sessionId, Entry entry, long now) {
+            entry.lastUsedMillis = now;
+            entries.remove(sessionId);
+            entries.put(sessionId, entry);
+        }
+    }
+
+    /**
+     * Creates a DAO sized from {@code security.session.max_sessions} and
+     * {@code security.session.ttl_seconds}.
+     */
+    public BoundedSessionDAO() {
+        this(configuredMaxSessions(), configuredTtl());
+    }
+
+    /**
+     * @param maxSessions maximum number of sessions held
+     * @param ttl         how long a session may go unused before it is dropped
+     */
+    public BoundedSessionDAO(int maxSessions, Duration ttl) {
+        if (maxSessions <= 0) {
+            throw new IllegalArgumentException("maxSessions must be positive");
+        }
+        this.shardCapacity = Math.max(1, Math.ceilDiv(maxSessions, SHARDS));
+        this.ttlMillis = ttl.toMillis();
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    /**
+     * @param evictionListener called with each session dropped for capacity or
+     *                         TTL, may be null
+     */
+    public void setEvictionListener(Consumer<Session> evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    @Override
+    protected Serializable doCreate(Session session) {
+        Serializable sessionId = generateSessionId(session);
+        assignSessionId(session, sessionId);
+        store(session);
+        return sessionId;
+    }
+
+    @Override
+    protected Session doReadSession(Serializable sessionId) {
+        Shard shard = shard(sessionId);
+        long now = System.currentTimeMillis();
+        Session session = null;
+        Session expired = null;
+        shard.lock.lock();
+        try {
+            Entry entry = shard.entries.get(sessionId);
+            if (entry != null) {
+                if (now - entry.lastUsedMillis <= ttlMillis) {
+                    shard.touch(sessionId, entry, now);
+                    session = entry.session;
+                } else {
+                    // Drop it here: moving it to the tail would hide it from the head-first TTL sweep
+                    shard.entries.remove(sessionId);
+                    expirations.increment();
+                    expired = entry.session;
+                }
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+        if (session != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        if (expired != null) {
+            notifyEvicted(List.of(expired));
+        }
+        return session;
+    }
+
+    /**
+     * Looks up a session without touching it: no hit or miss is counted and
+     * its eviction order and TTL are left as they are.
+     *
+     * @return the held session, or null if there is none or it outlived the
+     *         TTL
+     */
+    public Session peek(Serializable sessionId) {
+        Shard shard = shard(sessionId);
+        long now = System.currentTimeMillis();
+        shard.lock.lock();
+        try {
+            Entry entry = shard.entries.get(sessionId);
+            return entry != null && now - entry.lastUsedMillis <= ttlMillis ? entry.session : null;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    @Override
+    public void update(Session session) throws UnknownSessionException {
+        store(session);
+    }
+
+    @Override
+    public void delete(Session session) {
+        if (session != null && session.getId() != null) {
+            remove(session.getId());
+        }
+    }
+
+    /**
+     * Drops a session from this DAO only, without notifying the eviction
+     * listener.
+     *
+     * @return true if the session was held
+     */
+    protected boolean remove(Serializable sessionId) {
+        Shard shard = shard(sessionId);
+        shard.lock.lock();
+        try {
+            return shard.entries.remove(sessionId) != null;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Session> getActiveSessions() {
+        List<Session> sessions = new ArrayList<>();
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                for (Entry entry : shard.entries.values()) {
+                    sessions.add(entry.session);
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * @return number of sessions held
+     */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                size += shard.entries.size();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return sessions evicted because their shard was full
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return sessions dropped because they outlived the TTL
+     */
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    private void store(Session session) {
+        Serializable sessionId = session.getId();
+        if (sessionId == null) {
+            throw new IllegalArgumentException("Session id must not be null");
+        }
+        Shard shard = shard(sessionId);
+        long now = System.currentTimeMillis();
+        List<Session> evicted = null;
+        shard.lock.lock();
+        try {
+            Entry entry = shard.entries.get(sessionId);
+            if (entry != null && entry.session == session) {
+                shard.touch(sessionId, entry, now);
+            } else {
+                shard.entries.remove(sessionId);
+                shard.entries.put(sessionId, new Entry(session, now));
+            }
+            evicted = evict(shard, sessionId, now);
+        } finally {
+            shard.lock.unlock();
+        }
+        if (evicted != null) {
+            notifyEvicted(evicted);
+        }
+    }
+
+    /**
+     * Drops expired entries from the head of the shard, then makes room if it
+     * is still over capacity. The session just stored is never the capacity
+     * victim, even when the shard is small enough for it to be among the
+     * oldest. Called with the shard lock held.
+     */
+    private List<Session> evict(Shard shard, Serializable stored, long now) {
+        List<Session> evicted = null;
+        Iterator<Entry> it = shard.entries.values().iterator();
+        while (it.hasNext()) {
+            Entry eldest = it.next();
+            if (now - eldest.lastUsedMillis <= ttlMillis) {
+                break;
+            }
+            it.remove();
+            expirations.increment();
+            evicted = add(evicted, eldest.session);
+        }
+
+        while (shard.entries.size() > shardCapacity) {
+            Entry victim = null;
+            Entry eldest = null;
+            int scanned = 0;
+            for (it = shard.entries.values().iterator(); it.hasNext() && scanned < ANONYMOUS_SCAN;) {
+                Entry entry = it.next();
+                if (stored.equals(entry.session.getId())) {
+                    continue;
+                }
+                scanned++;
+                if (eldest == null) {
+                    eldest = entry;
+                }
+                if (isAnonymous(entry.session)) {
+                    victim = entry;
+                    it.remove();
+                    break;
+                }
+            }
+            if (victim == null) {
+                // Over capacity means there is at least one other entry
+                victim = eldest;
+                shard.entries.remove(victim.session.getId());
+            }
+            evictions.increment();
+            evicted = add(evicted, victim.session);
+        }
+        return evicted;
+    }
+
+    private void notifyEvicted(List<Session> evicted) {
+        log.debug("Evicted {} sessions", evicted.size());
+        Consumer<Session> listener = evictionListener;
+        if (listener == null) {
+            return;
+        }
+        for (Session session : evicted) {
+            try {
+                listener.accept(session);
+            } catch (RuntimeException e) {
+                log.warn("Session eviction listener failed", e);
+            }
+        }
+    }
+
+    private static boolean isAnonymous(Session session) {
+        return session.getAttribute(DefaultSubjectContext.PRINCIPALS_SESSION_KEY) == null;
+    }
+
+    private static List<Session> add(List<Session> list, Session session) {
+        if (list == null) {
+            list = new ArrayList<>(2);
+        }
+        list.add(session);
+        return list;
+    }
+
+    private Shard shard(Serializable sessionId) {
+        int h = sessionId.hashCode();
+        return shards[(h ^ (h >>> 16)) & (SHARDS - 1)];
+    }
+
+    private static int configuredMaxSessions() {
+        Properties security = OidcConfigManager.getSecurityConfig(OidcConstants.CONFIG_SECURITY);
+        String value = security.getProperty(OidcConstants.PROP_SESSION_MAX_SESSIONS);
+        try {
+            return value != null && !value.isBlank() ? Integer.parseInt(value.trim()) : DEFAULT_MAX_SESSIONS;
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring invalid value '{}' for {}", value, OidcConstants.PROP_SESSION_MAX_SESSIONS);
+            return DEFAULT_MAX_SESSIONS;
+        }
+    }
+
+    private static Duration configuredTtl() {
+        Properties security = OidcConfigManager.getSecurityConfig(OidcConstants.CONFIG_SECURITY);
+        String value = security.getProperty(OidcConstants.PROP_SESSION_TTL_SECONDS);
+        try {
+            return value != null && !value.isBlank() ? Duration.ofSeconds(Long.parseLong(value.trim()))
+                    : DEFAULT_TTL;
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring invalid value '{}' for {}", value, OidcConstants.PROP_SESSION_TTL_SECONDS);
+            return DEFAULT_TTL;
+        }
+    }
+}
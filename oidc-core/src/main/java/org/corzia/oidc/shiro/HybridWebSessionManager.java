@@ -16,26 +16,74 @@
 package org.corzia.oidc.shiro;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import jakarta.servlet.ServletRequest;
 import jakarta.servlet.ServletResponse;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.mgt.SecurityManager;
+import org.apache.shiro.session.InvalidSessionException;
 import org.apache.shiro.session.Session;
+import org.apache.shiro.session.UnknownSessionException;
+import org.apache.shiro.session.mgt.DefaultSessionKey;
 import org.apache.shiro.session.mgt.SessionContext;
+import org.apache.shiro.session.mgt.SessionKey;
 import org.apache.shiro.session.mgt.SimpleSession;
+import org.apache.shiro.session.mgt.ValidatingSession;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
+import org.apache.shiro.web.mgt.DefaultWebSecurityManager;
 import org.apache.shiro.web.session.mgt.DefaultWebSessionManager;
 import org.apache.shiro.web.session.mgt.WebSessionContext;
 import org.corzia.oidc.OidcConstants;
+import org.corzia.oidc.OidcUserInfo;
+import org.corzia.oidc.internal.session.HierarchicalTimingWheel;
+import org.corzia.oidc.internal.user.OidcUserDirectory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Session manager keyed by browser and tab.
+ * <p>
+ * Every browser tab gets its own session, so there can be far more sessions
+ * than users. Instead of Shiro's periodic validation, which reads and checks
+ * every active session on each run, sessions are filed in a
+ * {@link HierarchicalTimingWheel} by idle deadline and each validation run
+ * only looks at the sessions that came due. Touching a session does not move
+ * it in the wheel: when it comes due, a session that was used in the meantime
+ * is filed again at its new deadline.
+ * </p>
+ * <p>
+ * The manager also indexes sessions by browser id, so all tabs of a browser
+ * can be listed or ended without reading any other session, and binds
+ * authenticated sessions to their user in the {@link OidcUserDirectory}, which
+ * back-channel logout searches. Both are kept per node: a session is known
+ * to a node once it was started there or read there through the session DAO,
+ * which with a shared session store happens on its first request to that
+ * node.
+ * </p>
+ */
 public class HybridWebSessionManager extends DefaultWebSessionManager {
 
     private static final Logger log = LoggerFactory.getLogger(HybridWebSessionManager.class);
 
+    private static final long EXPIRY_TICK_MILLIS = 1000L;
+    private static final long EXPIRY_INTERVAL_MILLIS = 5 * 1000L;
+
+    private final HierarchicalTimingWheel<Serializable> expiryWheel = new HierarchicalTimingWheel<>(
+            EXPIRY_TICK_MILLIS, System.currentTimeMillis());
+    private volatile boolean adopted;
+    private final Map<String, Set<Serializable>> browserSessions = new ConcurrentHashMap<>();
+
     // HybridWebSessionManager internal constants (optional to keep here or move to
     // OidcConstants)
     // User requested to make constants of API strings, so let's use OidcConstants
@@ -45,6 +93,8 @@ public class HybridWebSessionManager extends DefaultWebSessionManager {
         super();
         setSessionIdCookieEnabled(false);
         setSessionIdUrlRewritingEnabled(false);
+        // Runs only touch due sessions, so they can be frequent
+        setSessionValidationInterval(EXPIRY_INTERVAL_MILLIS);
     }
 
     @Override
@@ -81,7 +131,7 @@ public class HybridWebSessionManager extends DefaultWebSessionManager {
 
         log.debug("doCreateSession: Creating session with ID {}", compositeId);
 
-        SimpleSession session = new SimpleSession();
+        SimpleSession session = new TrackedSession();
         session.setId(compositeId);
         session.setHost(wsc.getHost());
         session.setAttribute(OidcConstants.ATTR_TAB_ID, tabId);
@@ -91,6 +141,258 @@ public class HybridWebSessionManager extends DefaultWebSessionManager {
         return session;
     }
 
+    @Override
+    protected void onStart(Session session, SessionContext context) {
+        super.onStart(session, context);
+        scheduleExpiry(session);
+        indexBrowser(session.getId());
+    }
+
+    @Override
+    protected Session retrieveSessionFromDataSource(Serializable sessionId) throws UnknownSessionException {
+        Session session = super.retrieveSessionFromDataSource(sessionId);
+        if (session != null) {
+            adopt(session);
+        }
+        return session;
+    }
+
+    @Override
+    public void setTimeout(SessionKey key, long maxIdleTimeInMillis) throws InvalidSessionException {
+        super.setTimeout(key, maxIdleTimeInMillis);
+        // A shorter timeout must not wait for the old deadline
+        Session session = retrieveSession(key);
+        if (session != null) {
+            scheduleExpiry(session);
+        }
+    }
+
+    @Override
+    protected void delete(Session session) {
+        super.delete(session);
+        expiryWheel.cancel(session.getId());
+        unindexBrowser(session.getId());
+    }
+
+    /**
+     * Validates only the sessions whose idle deadline has passed. On the
+     * first run, sessions already in the DAO (not started by this manager)
+     * are filed in the wheel once.
+     */
+    @Override
+    public void validateSessions() {
+        if (!adopted) {
+            adopted = true;
+            Collection<Session> active = getActiveSessions();
+            for (Session session : active) {
+                adopt(session);
+            }
+            log.debug("Filed {} existing sessions for expiry", active.size());
+        }
+
+        long now = System.currentTimeMillis();
+        int expired = 0;
+        for (Serializable id : expiryWheel.advance(now)) {
+            Session session;
+            try {
+                session = getSessionDAO().readSession(id);
+            } catch (UnknownSessionException e) {
+                session = null;
+            }
+            if (session == null) {
+                // Gone without passing through delete(), e.g. dropped by the store
+                // or deleted on another node
+                unindexBrowser(id);
+                OidcUserDirectory.unbindSession(id);
+                continue;
+            }
+            long deadline = deadline(session);
+            if (deadline > now) {
+                // Used since it was filed
+                scheduleExpiry(session, deadline);
+                continue;
+            }
+            try {
+                validate(session, new DefaultSessionKey(id));
+            } catch (InvalidSessionException e) {
+                expired++;
+                continue;
+            }
+            // Still valid, e.g. touched on another node or given a longer
+            // timeout: file it again so it can still expire here
+            deadline = deadline(session);
+            if (deadline != Long.MAX_VALUE) {
+                scheduleExpiry(session, Math.max(deadline, now + EXPIRY_INTERVAL_MILLIS));
+            }
+        }
+        if (expired > 0) {
+            log.debug("Expired {} sessions, {} remaining", expired, expiryWheel.size());
+        }
+    }
+
+    /**
+     * Forgets a session the DAO dropped on its own, for capacity or TTL, so
+     * that it leaves the expiry wheel and the browser index. To be called
+     * from the DAO's eviction listener when the DAO is the only copy of the
+     * session.
+     *
+     * @param session the evicted session
+     */
+    public void sessionEvicted(Session session) {
+        expiryWheel.cancel(session.getId());
+        unindexBrowser(session.getId());
+    }
+
+    /**
+     * Makes a session known to this node if it is not yet: files it for
+     * expiry, indexes it by browser and, once it is authenticated through
+     * OIDC, binds it to its user in the {@link OidcUserDirectory}. The user is
+     * taken from the session's principal if the directory does not hold it.
+     * Only map lookups when the session is already known.
+     */
+    private void adopt(Session session) {
+        Serializable sessionId = session.getId();
+        if (!expiryWheel.contains(sessionId)) {
+            scheduleExpiry(session);
+        }
+        indexBrowser(sessionId);
+        if (OidcUserDirectory.getUsernameForSession(sessionId) == null
+                && session.getAttribute(DefaultSubjectContext.PRINCIPALS_SESSION_KEY) instanceof PrincipalCollection principals
+                && principals.getPrimaryPrincipal() instanceof OidcUserInfo user && user.getUsername() != null) {
+            if (OidcUserDirectory.get(user.getUsername()) == null) {
+                OidcUserDirectory.put(user);
+            }
+            OidcUserDirectory.bindSession(user.getUsername(), sessionId, browserIdOf(sessionId));
+        }
+    }
+
+    private void scheduleExpiry(Session session) {
+        long deadline = deadline(session);
+        if (deadline != Long.MAX_VALUE) {
+            scheduleExpiry(session, deadline);
+        }
+    }
+
+    private void scheduleExpiry(Session session, long deadline) {
+        expiryWheel.schedule(session.getId(), deadline);
+    }
+
+    /**
+     * @return time at which the session times out if not used again, or
+     *         {@link Long#MAX_VALUE} if it never does
+     */
+    private static long deadline(Session session) {
+        long timeout = session.getTimeout();
+        if (timeout < 0 || session.getLastAccessTime() == null) {
+            return Long.MAX_VALUE;
+        }
+        return session.getLastAccessTime().getTime() + timeout;
+    }
+
+    /**
+     * Stops the given sessions, as a logout would, without reading any other
+     * session.
+     *
+     * @param sessionIds ids of the sessions to stop
+     * @return number of sessions stopped; unknown or already invalid sessions
+     *         are skipped
+     */
+    public int stopSessions(Collection<? extends Serializable> sessionIds) {
+        int stopped = 0;
+        for (Serializable sessionId : List.copyOf(sessionIds)) {
+            try {
+                stop(new DefaultSessionKey(sessionId));
+                stopped++;
+            } catch (InvalidSessionException e) {
+                log.debug("Session {} already ended", sessionId);
+            }
+        }
+        return stopped;
+    }
+
+    /**
+     * Returns the live sessions of all tabs of a browser. Sessions that no
+     * longer exist are dropped from the index.
+     *
+     * @param browserId the browser id
+     * @return the sessions, read without touching them
+     */
+    public List<Session> getBrowserSessions(String browserId) {
+        Set<Serializable> ids = browserId != null ? browserSessions.get(browserId) : null;
+        if (ids == null) {
+            return List.of();
+        }
+        List<Session> sessions = new ArrayList<>(ids.size());
+        for (Serializable sessionId : List.copyOf(ids)) {
+            Session session;
+            try {
+                session = getSessionDAO().readSession(sessionId);
+            } catch (UnknownSessionException e) {
+                session = null;
+            }
+            if (session == null || (session instanceof ValidatingSession vs && !vs.isValid())) {
+                unindexBrowser(sessionId);
+            } else {
+                sessions.add(session);
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * Stops the sessions of all tabs of a browser.
+     *
+     * @param browserId the browser id
+     * @return number of sessions stopped
+     */
+    public int stopBrowserSessions(String browserId) {
+        Set<Serializable> ids = browserId != null ? browserSessions.get(browserId) : null;
+        return ids != null ? stopSessions(ids) : 0;
+    }
+
+    /**
+     * @return the session manager of the current security manager
+     * @throws IllegalStateException if Shiro is not set up with this manager
+     */
+    public static HybridWebSessionManager current() {
+        SecurityManager securityManager = SecurityUtils.getSecurityManager();
+        if (securityManager instanceof DefaultWebSecurityManager webSecurityManager
+                && webSecurityManager.getSessionManager() instanceof HybridWebSessionManager manager) {
+            return manager;
+        }
+        throw new IllegalStateException("Shiro is not configured with the HybridWebSessionManager");
+    }
+
+    private void indexBrowser(Serializable sessionId) {
+        String browserId = browserIdOf(sessionId);
+        if (browserId != null) {
+            browserSessions.computeIfAbsent(browserId, b -> ConcurrentHashMap.newKeySet()).add(sessionId);
+        }
+    }
+
+    private void unindexBrowser(Serializable sessionId) {
+        String browserId = browserIdOf(sessionId);
+        if (browserId != null) {
+            browserSessions.computeIfPresent(browserId, (b, ids) -> {
+                ids.remove(sessionId);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+
+    /**
+     * @return the browser id part of a {@code browserId_tabId} session id, or
+     *         null if the id is not in that form
+     */
+    public static String browserIdOf(Serializable sessionId) {
+        if (sessionId == null) {
+            return null;
+        }
+        String id = sessionId.toString();
+        int separator = id.indexOf('_');
+        return separator > 0 ? id.substring(0, separator) : null;
+    }
+
     protected String resolveTabId(HttpServletRequest request) {
         String tabId = request.getHeader(OidcConstants.HEADER_TAB_ID);
         if (tabId == null || tabId.isBlank()) {
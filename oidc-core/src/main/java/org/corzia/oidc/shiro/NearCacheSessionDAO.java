@@ -0,0 +1,316 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.shiro;
+
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.shiro.session.Session;
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.corzia.oidc.OidcConstants;
+import org.corzia.oidc.internal.config.OidcConfigManager;
+import org.corzia.oidc.internal.session.SessionCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SessionDAO for several nodes sharing a {@link SessionStore}, with this
+ * node's sessions kept in a local near-cache.
+ * <p>
+ * The near-cache is the {@link BoundedSessionDAO} this class extends. Reads
+ * are served from it without a remote call; only a miss reads the shared
+ * store. Every create, update and delete is written through to the store,
+ * which notifies the other nodes so they drop their copy. A cached session is
+ * therefore current until another node changes it.
+ * </p>
+ * <p>
+ * Sessions are stored in the {@link SessionCodec} encoding.
+ * </p>
+ * <p>
+ * A notification that arrives while a miss is being loaded may refer to the
+ * older data; such a load is returned to the caller but not cached.
+ * </p>
+ * <p>
+ * Shiro updates a session on every request to record its last access time.
+ * For a {@link TrackedSession} whose only change is that touch, the store
+ * write is deferred: touched sessions are written behind, at most once per
+ * {@code security.session.touch_write_seconds}. Any other change writes the
+ * session, including its latest touch, immediately. Other nodes may
+ * therefore see a last access time that is up to that interval old.
+ * </p>
+ * <p>
+ * A deferred write only records a touch, so it is dropped when the session
+ * was stopped, deleted or changed on another node since it was queued, and
+ * it is written with {@link SessionStore#writeIfPresent} so that it cannot
+ * bring back a session deleted elsewhere while the write was in flight.
+ * Deferred writes and deletes of the same session on this node do not
+ * overlap.
+ * </p>
+ */
+public class NearCacheSessionDAO extends BoundedSessionDAO {
+
+    private static final Logger log = LoggerFactory.getLogger(NearCacheSessionDAO.class);
+
+    private final SessionStore store;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final SessionStore.InvalidationListener listener = this::invalidated;
+    private final Map<Serializable, Session> touched = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService writeBehind;
+    /** Keeps a deferred write and a delete of the same session apart. */
+    private final ReentrantLock[] writeLocks = new ReentrantLock[WRITE_LOCKS];
+
+    private static final int WRITE_LOCKS = 16;
+
+    public static final Duration DEFAULT_TOUCH_WRITE_INTERVAL = Duration.ofSeconds(30);
+
+    /**
+     * Creates a DAO whose near-cache is sized from the session configuration.
+     *
+     * @param store the shared store, already configured
+     */
+    public NearCacheSessionDAO(SessionStore store) {
+        super();
+        this.store = store;
+        initWriteLocks();
+        this.writeBehind = startWriteBehind(configuredTouchWriteInterval());
+        store.subscribe(listener);
+    }
+
+    /**
+     * @param store              the shared store, already configured
+     * @param maxSessions        maximum number of sessions in the near-cache
+     * @param ttl                how long a cached session may go unused
+     * @param touchWriteInterval how often touch-only updates are written
+     */
+    public NearCacheSessionDAO(SessionStore store, int maxSessions, Duration ttl, Duration touchWriteInterval) {
+        super(maxSessions, ttl);
+        this.store = store;
+        initWriteLocks();
+        this.writeBehind = startWriteBehind(touchWriteInterval);
+        store.subscribe(listener);
+    }
+
+    @Override
+    protected Serializable doCreate(Session session) {
+        Serializable sessionId = super.doCreate(session);
+        write(session);
+        return sessionId;
+    }
+
+    @Override
+    protected Session doReadSession(Serializable sessionId) {
+        Session session = super.doReadSession(sessionId);
+        if (session != null) {
+            return session;
+        }
+        long seen = invalidations.get();
+        byte[] data = store.read(sessionId.toString());
+        if (data == null) {
+            return null;
+        }
+        try {
+            session = decode(data);
+        } catch (IllegalArgumentException | UncheckedIOException e) {
+            log.warn("Rejected stored session {}: {}", sessionId, e.getMessage());
+            return null;
+        }
+        if (invalidations.get() == seen) {
+            super.update(session);
+        }
+        return session;
+    }
+
+    /**
+     * Looks up a session without touching it. A session not in the
+     * near-cache is read from the store but not cached.
+     */
+    @Override
+    public Session peek(Serializable sessionId) {
+        Session session = super.peek(sessionId);
+        if (session != null) {
+            return session;
+        }
+        byte[] data = store.read(sessionId.toString());
+        if (data == null) {
+            return null;
+        }
+        try {
+            return decode(data);
+        } catch (IllegalArgumentException | UncheckedIOException e) {
+            log.warn("Rejected stored session {}: {}", sessionId, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void update(Session session) {
+        super.update(session);
+        if (session instanceof TrackedSession tracked && !tracked.isDirty()) {
+            touched.put(session.getId(), session);
+            return;
+        }
+        write(session);
+    }
+
+    @Override
+    public void delete(Session session) {
+        if (session == null || session.getId() == null) {
+            super.delete(session);
+            return;
+        }
+        ReentrantLock lock = writeLock(session.getId());
+        lock.lock();
+        try {
+            super.delete(session);
+            touched.remove(session.getId());
+            store.delete(session.getId().toString(), nodeId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of touched sessions waiting to be written
+     */
+    public int getPendingWriteCount() {
+        return touched.size();
+    }
+
+    private void write(Session session) {
+        touched.remove(session.getId());
+        if (session instanceof TrackedSession tracked) {
+            tracked.clearDirty();
+        }
+        store.write(session.getId().toString(), encode(session), nodeId);
+    }
+
+    /**
+     * Writes the sessions touched since the last flush.
+     */
+    private void flushTouched() {
+        for (Session session : touched.values()) {
+            if (!touched.remove(session.getId(), session)) {
+                continue;
+            }
+            ReentrantLock lock = writeLock(session.getId());
+            lock.lock();
+            try {
+                if (!isCurrent(session)) {
+                    log.trace("Dropped deferred write of session {}", session.getId());
+                    continue;
+                }
+                if (!store.writeIfPresent(session.getId().toString(), encode(session), nodeId)) {
+                    // Deleted on another node before its invalidation reached us
+                    remove(session.getId());
+                }
+            } catch (RuntimeException e) {
+                // Keep it for the next flush unless it was written or deleted meanwhile
+                touched.putIfAbsent(session.getId(), session);
+                log.warn("Deferred write of session {} failed: {}", session.getId(), e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return true if the session is still the one cached here and is neither
+     *         stopped nor expired
+     */
+    private boolean isCurrent(Session session) {
+        if (super.peek(session.getId()) != session) {
+            return false;
+        }
+        return !(session instanceof SimpleSession simple)
+                || (simple.getStopTimestamp() == null && !simple.isExpired());
+    }
+
+    private void initWriteLocks() {
+        for (int i = 0; i < WRITE_LOCKS; i++) {
+            writeLocks[i] = new ReentrantLock();
+        }
+    }
+
+    private ReentrantLock writeLock(Serializable sessionId) {
+        int h = sessionId.hashCode();
+        return writeLocks[(h ^ (h >>> 16)) & (WRITE_LOCKS - 1)];
+    }
+
+    private ScheduledExecutorService startWriteBehind(Duration interval) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "oidc-session-write-behind");
+            t.setDaemon(true);
+            return t;
+        });
+        long millis = Math.max(1000L, interval.toMillis());
+        executor.scheduleWithFixedDelay(this::flushTouched, millis, millis, TimeUnit.MILLISECONDS);
+        return executor;
+    }
+
+    /**
+     * Writes pending touches, stops listening for invalidations and closes the
+     * store.
+     */
+    public void close() {
+        writeBehind.shutdownNow();
+        flushTouched();
+        store.unsubscribe(listener);
+        store.close();
+    }
+
+    private void invalidated(String sessionId, String origin) {
+        if (nodeId.equals(origin)) {
+            return;
+        }
+        invalidations.incrementAndGet();
+        // A pending touch would overwrite the other node's change
+        touched.remove(sessionId);
+        if (remove(sessionId)) {
+            log.trace("Dropped near-cached session {} changed on another node", sessionId);
+        }
+    }
+
+    private static Duration configuredTouchWriteInterval() {
+        Properties security = OidcConfigManager.getSecurityConfig(OidcConstants.CONFIG_SECURITY);
+        String value = security.getProperty(OidcConstants.PROP_SESSION_TOUCH_WRITE_SECONDS);
+        try {
+            return value != null && !value.isBlank() ? Duration.ofSeconds(Long.parseLong(value.trim()))
+                    : DEFAULT_TOUCH_WRITE_INTERVAL;
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring invalid value '{}' for {}", value, OidcConstants.PROP_SESSION_TOUCH_WRITE_SECONDS);
+            return DEFAULT_TOUCH_WRITE_INTERVAL;
+        }
+    }
+
+    protected byte[] encode(Session session) {
+        return SessionCodec.encode(session);
+    }
+
+    protected Session decode(byte[] data) {
+        return SessionCodec.decode(data);
+    }
+}
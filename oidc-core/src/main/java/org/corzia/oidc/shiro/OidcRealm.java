@@ -145,6 +145,12 @@ public class OidcRealm extends AuthorizingRealm {
     public static final String ISSUER = "ISSUER";
     public static final String AUTHORITY = "AUTHORITY";
     public static final String IMAGE_URL = "IMAGE_URL";
+    public static final String HTTP_CONNECT_TIMEOUT_MS = "HTTP_CONNECT_TIMEOUT_MS";
+    public static final String HTTP_READ_TIMEOUT_MS = "HTTP_READ_TIMEOUT_MS";
+    public static final String HTTP_MAX_THREADS = "HTTP_MAX_THREADS";
+    public static final String TOKEN_MAX_CONCURRENT = "TOKEN_MAX_CONCURRENT";
+    public static final String BREAKER_FAILURE_THRESHOLD = "BREAKER_FAILURE_THRESHOLD";
+    public static final String BREAKER_OPEN_SECONDS = "BREAKER_OPEN_SECONDS";
 
     private static final OidcClientFactory CLIENT_FACTORY = OidcClientFactory.getInstance();
 
@@ -0,0 +1,130 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.shiro;
+
+import java.util.Properties;
+import java.util.ServiceLoader;
+
+/**
+ * SPI for a session store shared by several nodes, used behind a
+ * {@link NearCacheSessionDAO}.
+ * <p>
+ * A store keeps encoded sessions by id and tells every subscribed node when
+ * a session changes, so nodes can drop their local copy. Implementations are
+ * discovered with {@link ServiceLoader} and selected by
+ * {@link #getName()} through {@code security.session.store}.
+ * </p>
+ * <p>
+ * Methods may block on the network; an unreachable store is reported with
+ * an unchecked exception.
+ * </p>
+ */
+public interface SessionStore extends AutoCloseable {
+
+    /**
+     * Receives change notifications from the store.
+     */
+    @FunctionalInterface
+    interface InvalidationListener {
+
+        /**
+         * Called after a session was written or deleted.
+         *
+         * @param sessionId id of the changed session
+         * @param origin    node that made the change, as passed to
+         *                  {@link SessionStore#write} or
+         *                  {@link SessionStore#delete}
+         */
+        void invalidated(String sessionId, String origin);
+    }
+
+    /**
+     * @return the name used to select this store in
+     *         {@code security.session.store}
+     */
+    String getName();
+
+    /**
+     * Configures the store with the global security properties.
+     *
+     * @param props the {@code security.*} configuration
+     */
+    void configure(Properties props);
+
+    /**
+     * @return the encoded session, or null if the store does not hold it
+     */
+    byte[] read(String sessionId);
+
+    /**
+     * Stores the encoded session and notifies all listeners.
+     *
+     * @param origin id of the writing node
+     */
+    void write(String sessionId, byte[] data, String origin);
+
+    /**
+     * Stores the encoded session only if the store still holds it, and
+     * notifies all listeners when it was written. Used for deferred writes,
+     * which must not bring back a session another node deleted meanwhile.
+     * <p>
+     * The default implementation reads before it writes and is not atomic;
+     * implementations should override it.
+     * </p>
+     *
+     * @param origin id of the writing node
+     * @return true if the session was written
+     */
+    default boolean writeIfPresent(String sessionId, byte[] data, String origin) {
+        if (read(sessionId) == null) {
+            return false;
+        }
+        write(sessionId, data, origin);
+        return true;
+    }
+
+    /**
+     * Removes the session and notifies all listeners.
+     *
+     * @param origin id of the deleting node
+     */
+    void delete(String sessionId, String origin);
+
+    void subscribe(InvalidationListener listener);
+
+    void unsubscribe(InvalidationListener listener);
+
+    @Override
+    default void close() {
+    }
+
+    /**
+     * Finds a store implementation by name.
+     *
+     * @param name the store name, matched case-insensitively
+     * @return a new, unconfigured store
+     * @throws IllegalArgumentException if no implementation has that name
+     */
+    static SessionStore load(String name) {
+        ServiceLoader<SessionStore> loader = ServiceLoader.load(SessionStore.class, SessionStore.class.getClassLoader());
+        for (SessionStore store : loader) {
+            if (store.getName().equalsIgnoreCase(name)) {
+                return store;
+            }
+        }
+        throw new IllegalArgumentException("No session store registered for: " + name);
+    }
+}
@@ -29,6 +29,21 @@ public class ShiroListener extends EnvironmentLoaderListener {
 
         private static final Logger log = LoggerFactory.getLogger(ShiroListener.class);
 
+        private NearCacheSessionDAO sharedSessionDAO;
+
+        @Override
+        public void contextDestroyed(jakarta.servlet.ServletContextEvent sce) {
+                super.contextDestroyed(sce);
+                org.corzia.oidc.internal.user.OidcUserDirectory.setEvictionListener(null);
+                // Stop the renewal thread so it does not outlive this webapp's classloader
+                org.corzia.oidc.internal.user.TokenRenewalScheduler.getInstance().stop();
+                // Write pending session touches and release the shared store
+                if (sharedSessionDAO != null) {
+                        sharedSessionDAO.close();
+                        sharedSessionDAO = null;
+                }
+        }
+
         @Override
         protected WebEnvironment createEnvironment(ServletContext sc) {
                 log.info("Initializing Shiro WebEnvironment programmatically");
@@ -62,11 +77,52 @@ public class ShiroListener extends EnvironmentLoaderListener {
                 // 3. Create SessionManager (Hybrid)
                 HybridWebSessionManager sessionManager = new HybridWebSessionManager();
 
-                // Configure SessionDAO
-                org.apache.shiro.session.mgt.eis.EnterpriseCacheSessionDAO sessionDAO = new org.apache.shiro.session.mgt.eis.EnterpriseCacheSessionDAO();
+                // Configure SessionDAO (bounded, one session per browser tab), near-caching a
+                // shared store when one is configured
+                java.util.Properties security = org.corzia.oidc.internal.config.OidcConfigManager
+                                .getSecurityConfig(org.corzia.oidc.OidcConstants.CONFIG_SECURITY);
+                String storeName = security.getProperty(org.corzia.oidc.OidcConstants.PROP_SESSION_STORE);
+                BoundedSessionDAO sessionDAO;
+                if (storeName != null && !storeName.isBlank()) {
+                        SessionStore store = SessionStore.load(storeName.trim());
+                        store.configure(security);
+                        sharedSessionDAO = new NearCacheSessionDAO(store);
+                        sessionDAO = sharedSessionDAO;
+                        log.info("Sessions are shared through the '{}' session store", store.getName());
+                } else {
+                        sessionDAO = new BoundedSessionDAO();
+                        // An evicted local session is gone for good
+                        sessionDAO.setEvictionListener(session -> {
+                                sessionManager.sessionEvicted(session);
+                                org.corzia.oidc.internal.user.OidcUserDirectory.unbindSession(session.getId());
+                        });
+                }
                 sessionDAO.setSessionIdGenerator(new PreserveIdSessionIdGenerator());
                 sessionManager.setSessionDAO(sessionDAO);
 
+                // Keep access tokens of active sessions fresh in the background
+                org.corzia.oidc.internal.user.TokenRenewalScheduler renewal = org.corzia.oidc.internal.user.TokenRenewalScheduler
+                                .getInstance();
+                renewal.start(sessionDAO);
+                sessionManager.setSessionListeners(java.util.List.of(renewal,
+                                new org.apache.shiro.session.SessionListenerAdapter() {
+                                        // Users leave the directory with their sessions
+                                        @Override
+                                        public void onStop(org.apache.shiro.session.Session session) {
+                                                org.corzia.oidc.internal.user.OidcUserDirectory
+                                                                .unbindSession(session.getId());
+                                        }
+
+                                        @Override
+                                        public void onExpiration(org.apache.shiro.session.Session session) {
+                                                org.corzia.oidc.internal.user.OidcUserDirectory
+                                                                .unbindSession(session.getId());
+                                        }
+                                }));
+
+                // Users evicted from a full directory are logged out
+                org.corzia.oidc.internal.user.OidcUserDirectory.setEvictionListener(sessionManager::stopSessions);
+
                 // 4. Create SecurityManager
                 DefaultWebSecurityManager securityManager = new DefaultWebSecurityManager();
                 securityManager.setRealms(java.util.Arrays.asList(oidcRealm, simpleRealm, apiRealm));
@@ -104,6 +160,8 @@ public class ShiroListener extends EnvironmentLoaderListener {
                 filterChainManager.createChain("/api/login", "tabIdMaster, headers, csrf, rateLimitAuth, contentType");
                 filterChainManager.createChain("/portal/oidc/login", "tabIdMaster, headers, csrf, rateLimitAuth");
                 filterChainManager.createChain("/portal/oidc/callback", "tabIdMaster, headers, csrf, rateLimitAuth");
+                // Posted by the IdP: no tab, no browser session, authenticated by the signed logout token
+                filterChainManager.createChain("/portal/oidc/backchannel-logout", "headers, rateLimitApi, noSessionCreation");
                 filterChainManager.createChain("/api/rs/**", "tabIdMaster, headers, rateLimitApi, contentType, bearer");
                 filterChainManager.createChain("/api/**",
                                 "tabIdMaster, headers, rateLimitApi, contentType, csrf, authc");
@@ -0,0 +1,118 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.shiro;
+
+import java.util.Date;
+import java.util.Map;
+
+import org.apache.shiro.session.mgt.SimpleSession;
+
+/**
+ * {@link SimpleSession} that remembers whether anything other than its last
+ * access time changed since it was last written.
+ * <p>
+ * Shiro writes the session to the DAO on every request just to record the
+ * touch. A DAO backed by a shared or persistent store can use
+ * {@link #isDirty()} to write real changes at once and coalesce touch-only
+ * updates (see {@link NearCacheSessionDAO}). Changes made inside a mutable
+ * attribute value are not seen, as with Shiro itself.
+ * </p>
+ */
+public class TrackedSession extends SimpleSession {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient volatile boolean dirty;
+
+    public TrackedSession() {
+        super();
+    }
+
+    /**
+     * @return true if attributes, timeout, host or state changed since the
+     *         last {@link #clearDirty()}
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Marks the session as written. Called by the DAO before it encodes the
+     * session, so a change made while writing is kept for the next write.
+     */
+    public void clearDirty() {
+        dirty = false;
+    }
+
+    @Override
+    public void setAttribute(Object key, Object value) {
+        super.setAttribute(key, value);
+        dirty = true;
+    }
+
+    @Override
+    public Object removeAttribute(Object key) {
+        Object removed = super.removeAttribute(key);
+        if (removed != null) {
+            dirty = true;
+        }
+        return removed;
+    }
+
+    @Override
+    public void setAttributes(Map<Object, Object> attributes) {
+        super.setAttributes(attributes);
+        dirty = true;
+    }
+
+    @Override
+    public void setTimeout(long timeout) {
+        if (timeout != getTimeout()) {
+            super.setTimeout(timeout);
+            dirty = true;
+        }
+    }
+
+    @Override
+    public void setHost(String host) {
+        super.setHost(host);
+        dirty = true;
+    }
+
+    @Override
+    public void setStopTimestamp(Date stopTimestamp) {
+        super.setStopTimestamp(stopTimestamp);
+        dirty = true;
+    }
+
+    @Override
+    public void setExpired(boolean expired) {
+        super.setExpired(expired);
+        dirty = true;
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        dirty = true;
+    }
+
+    @Override
+    protected void expire() {
+        super.expire();
+        dirty = true;
+    }
+}
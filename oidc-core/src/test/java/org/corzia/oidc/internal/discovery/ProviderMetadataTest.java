@@ -0,0 +1,64 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.discovery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+class ProviderMetadataTest {
+
+    private static final String DOC = """
+            {"issuer": "https://idp.example.com/tenant/v2.0",
+             "authorization_endpoint": "https://idp.example.com/tenant/authorize",
+             "token_endpoint": "https://idp.example.com/tenant/token",
+             "jwks_uri": "https://idp.example.com/tenant/keys"}
+            """;
+
+    @Test
+    void acceptsTheExpectedIssuer() throws IOException {
+        ProviderMetadata metadata = ProviderMetadata.parse(DOC, "https://idp.example.com/tenant/v2.0");
+        assertEquals("https://idp.example.com/tenant/v2.0", metadata.issuer());
+        assertEquals("https://idp.example.com/tenant/keys", metadata.jwksUri());
+    }
+
+    @Test
+    void ignoresATerminatingSlash() throws IOException {
+        ProviderMetadata.parse(DOC, "https://idp.example.com/tenant/v2.0/");
+        ProviderMetadata.parse(DOC.replace("v2.0\"", "v2.0/\""), "https://idp.example.com/tenant/v2.0");
+    }
+
+    @Test
+    void rejectsAnotherIssuer() {
+        assertThrows(IOException.class,
+                () -> ProviderMetadata.parse(DOC, "https://idp.example.com/other/v2.0"));
+        assertThrows(IOException.class,
+                () -> ProviderMetadata.parse(DOC, "https://idp.example.com/tenant"));
+    }
+
+    @Test
+    void issuerIsDerivedFromTheAuthority() {
+        assertEquals("https://idp.example.com/tenant/v2.0",
+                ProviderMetadataCache.issuerOf("https://idp.example.com/tenant/v2.0/"));
+        assertEquals("https://idp.example.com/tenant/v2.0",
+                ProviderMetadataCache.issuerOf("https://idp.example.com/tenant/v2.0/.well-known/openid-configuration"));
+        assertEquals("https://idp.example.com/tenant/v2.0/.well-known/openid-configuration",
+                ProviderMetadataCache.discoveryUri("https://idp.example.com/tenant/v2.0/"));
+    }
+}
@@ -0,0 +1,139 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.session;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class HierarchicalTimingWheelTest {
+
+    private static final long TICK = 1000L;
+    private static final long START = 1_000_000L * TICK;
+
+    @Test
+    void keyComesDueAtItsDeadline() {
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, START);
+        wheel.schedule("a", START + 5 * TICK);
+
+        assertEquals(List.of(), wheel.advance(START + 4 * TICK));
+        assertTrue(wheel.contains("a"));
+        assertEquals(List.of("a"), wheel.advance(START + 5 * TICK));
+        assertFalse(wheel.contains("a"));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void deadlineIsRoundedUpToATick() {
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, START);
+        wheel.schedule("a", START + 2 * TICK + 1);
+
+        assertEquals(List.of(), wheel.advance(START + 2 * TICK));
+        assertEquals(List.of("a"), wheel.advance(START + 3 * TICK));
+    }
+
+    @Test
+    void pastDeadlineComesDueOnNextTick() {
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, START);
+        wheel.schedule("a", START - 10 * TICK);
+
+        assertEquals(List.of("a"), wheel.advance(START + TICK));
+    }
+
+    @Test
+    void cascadesFromEveryLevel() {
+        HierarchicalTimingWheel<Long> wheel = new HierarchicalTimingWheel<>(TICK, START);
+        // One deadline per level and across level boundaries
+        long[] offsets = { 1, 63, 64, 65, 4095, 4096, 4097, 262_143, 262_144, 262_145, 16_777_215 };
+        for (long offset : offsets) {
+            wheel.schedule(offset, START + offset * TICK);
+        }
+
+        for (long offset : offsets) {
+            assertEquals(List.of(), wheel.advance(START + (offset - 1) * TICK), "early at " + offset);
+            assertEquals(List.of(offset), wheel.advance(START + offset * TICK), "due at " + offset);
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void deadlinesBeyondTheTopLevelAreParkedAndFiledAgain() {
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, START);
+        long far = START + (16_777_216L + 100) * TICK;
+        wheel.schedule("far", far);
+
+        assertEquals(List.of(), wheel.advance(far - TICK));
+        assertEquals(List.of("far"), wheel.advance(far));
+    }
+
+    @Test
+    void rescheduleReplacesTheEarlierDeadline() {
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, START);
+        wheel.schedule("a", START + 10 * TICK);
+        wheel.schedule("a", START + 5000 * TICK);
+
+        assertEquals(List.of(), wheel.advance(START + 4999 * TICK));
+        assertEquals(List.of("a"), wheel.advance(START + 5000 * TICK));
+
+        wheel.schedule("b", START + 9000 * TICK);
+        wheel.schedule("b", START + 5010 * TICK);
+        assertEquals(List.of("b"), wheel.advance(START + 5010 * TICK));
+        assertEquals(List.of(), wheel.advance(START + 9000 * TICK));
+    }
+
+    @Test
+    void cancelledKeyNeverComesDue() {
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, START);
+        wheel.schedule("a", START + 100 * TICK);
+        wheel.cancel("a");
+
+        assertFalse(wheel.contains("a"));
+        assertEquals(List.of(), wheel.advance(START + 200 * TICK));
+    }
+
+    @Test
+    void randomDeadlinesComeDueInOrderAndOnTime() {
+        HierarchicalTimingWheel<Integer> wheel = new HierarchicalTimingWheel<>(TICK, START);
+        Random random = new Random(42);
+        long[] deadlines = new long[10_000];
+        for (int i = 0; i < deadlines.length; i++) {
+            deadlines[i] = START + (1 + random.nextInt(300_000)) * TICK;
+            wheel.schedule(i, deadlines[i]);
+        }
+
+        List<Integer> seen = new ArrayList<>();
+        long now = START;
+        while (wheel.size() > 0) {
+            now += (1 + random.nextInt(5000)) * TICK;
+            for (int key : wheel.advance(now)) {
+                assertTrue(deadlines[key] <= now, "late key came due early");
+                seen.add(key);
+            }
+            for (int i = 0; i < deadlines.length; i++) {
+                if (deadlines[i] <= now) {
+                    assertFalse(wheel.contains(i), "key " + i + " not due by " + now);
+                }
+            }
+        }
+        assertEquals(deadlines.length, seen.size());
+    }
+}
@@ -0,0 +1,266 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.session;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.corzia.oidc.OidcConstants;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Crash consistency of the mapped session store: files are damaged the way
+ * a crash would leave them, then the store is opened again.
+ */
+class MappedFileSessionStoreTest {
+
+    private static final int FILE_HEADER = 8;
+    private static final int RECORD_HEADER = 19;
+    private static final String NODE = "test";
+
+    @TempDir
+    Path dir;
+
+    private final List<MappedFileSessionStore> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeAll() {
+        opened.forEach(MappedFileSessionStore::close);
+    }
+
+    @Test
+    void reopenRestoresSessions() {
+        MappedFileSessionStore store = open();
+        store.write("a", data(100, 1), NODE);
+        store.write("b", data(100, 2), NODE);
+        store.delete("a", NODE);
+        store.close();
+
+        MappedFileSessionStore reopened = open();
+        assertNull(reopened.read("a"));
+        assertArrayEquals(data(100, 2), reopened.read("b"));
+        assertEquals(1, reopened.size());
+    }
+
+    @Test
+    void tornTailIsDropped() throws IOException {
+        MappedFileSessionStore store = open();
+        store.write("a", data(100, 1), NODE);
+        store.write("b", data(100, 2), NODE);
+        store.close();
+
+        // A record whose length made it to disk but whose body did not
+        int end = FILE_HEADER + 2 * record("a", 100);
+        patch(segment(1), end, ByteBuffer.allocate(12).putInt(RECORD_HEADER - 4 + 1 + 100).putInt(0xdeadbeef)
+                .put((byte) 1).flip());
+
+        MappedFileSessionStore reopened = open();
+        assertArrayEquals(data(100, 1), reopened.read("a"));
+        assertArrayEquals(data(100, 2), reopened.read("b"));
+        assertEquals(2, reopened.size());
+
+        // The torn bytes are overwritten by the next record
+        reopened.write("c", data(100, 3), NODE);
+        reopened.close();
+        assertArrayEquals(data(100, 3), open().read("c"));
+    }
+
+    @Test
+    void badChecksumMidSegmentEndsTheSegment() throws IOException {
+        MappedFileSessionStore store = open();
+        store.write("a", data(100, 1), NODE);
+        store.write("b", data(100, 2), NODE);
+        store.write("c", data(100, 3), NODE);
+        // Crash before any checkpoint covers the records
+        Files.deleteIfExists(dir.resolve("sessions.checkpoint"));
+
+        int bData = FILE_HEADER + record("a", 100) + RECORD_HEADER + 1;
+        patch(segment(1), bData + 10, ByteBuffer.wrap(new byte[] { 42 }));
+
+        MappedFileSessionStore reopened = open();
+        assertArrayEquals(data(100, 1), reopened.read("a"));
+        assertNull(reopened.read("b"));
+        assertNull(reopened.read("c"));
+    }
+
+    @Test
+    void onlyTheTailAfterTheCheckpointIsChecksummed() throws IOException {
+        MappedFileSessionStore store = open();
+        store.write("a", data(100, 1), NODE);
+        store.close();
+
+        MappedFileSessionStore second = open();
+        second.write("b", data(100, 2), NODE);
+        second.write("c", data(100, 3), NODE);
+        // Crash: the checkpoint still ends after "a"
+        int aData = FILE_HEADER + RECORD_HEADER + 1;
+        int bData = FILE_HEADER + record("a", 100) + RECORD_HEADER + 1;
+        patch(segment(1), aData + 10, ByteBuffer.wrap(new byte[] { 42 }));
+        patch(segment(1), bData + 10, ByteBuffer.wrap(new byte[] { 42 }));
+
+        MappedFileSessionStore reopened = open();
+        // Trusted from the checkpoint, so not checked
+        assertEquals(42, reopened.read("a")[10]);
+        assertNull(reopened.read("b"));
+        assertNull(reopened.read("c"));
+    }
+
+    @Test
+    void sequenceOfSkippedSegmentIsNotReused() throws IOException {
+        byte[] unknown = new byte[64];
+        Files.write(segment(1), unknown);
+
+        MappedFileSessionStore store = open();
+        store.write("a", data(100, 1), NODE);
+        store.close();
+
+        assertArrayEquals(unknown, Files.readAllBytes(segment(1)));
+        assertTrue(Files.exists(segment(2)));
+        assertArrayEquals(data(100, 1), open().read("a"));
+    }
+
+    @Test
+    void compactionKeepsLatestRecords() throws IOException {
+        MappedFileSessionStore store = fillAndOverwrite(open());
+        long before = Files.size(segment(1));
+
+        store.maintain();
+
+        assertTrue(Files.size(segment(1)) < before);
+        assertFalse(Files.exists(dir.resolve("sessions-00000001.seg.compacting")));
+        assertLatest(store);
+        store.close();
+        assertLatest(open());
+    }
+
+    @Test
+    void crashDuringCompactionLeavesTheSegmentIntact() throws IOException {
+        MappedFileSessionStore store = fillAndOverwrite(open());
+        store.close();
+        // Half-written copy of segment 1
+        Path copy = dir.resolve("sessions-00000001.seg.compacting");
+        Files.write(copy, Arrays.copyOf(Files.readAllBytes(segment(1)), 300_000));
+
+        MappedFileSessionStore reopened = open();
+        assertFalse(Files.exists(copy));
+        assertLatest(reopened);
+    }
+
+    @Test
+    void crashAfterCompactionBeforeCheckpointIsRecovered() {
+        MappedFileSessionStore store = fillAndOverwrite(open());
+        store.close();
+
+        MappedFileSessionStore second = open();
+        second.maintain();
+        // Crash: segment 1 was replaced, the checkpoint still describes the old file
+
+        assertLatest(open());
+    }
+
+    @Test
+    void expiredSegmentIsDroppedWhole() throws InterruptedException {
+        MappedFileSessionStore store = open(1);
+        for (int i = 0; i < 6; i++) {
+            store.write("s" + i, data(200_000, i), NODE);
+        }
+        assertEquals(2, store.getSegmentCount());
+
+        Thread.sleep(1100);
+        store.maintain();
+
+        assertEquals(1, store.getSegmentCount());
+        assertFalse(Files.exists(segment(1)));
+        // Only the records of the dropped segment leave the index
+        assertEquals(1, store.size());
+        assertNull(store.read("s5"));
+    }
+
+    /**
+     * Fills segments 1 and 2 with s0..s9 and overwrites s0..s3, leaving
+     * segment 1 one fifth live.
+     */
+    private static MappedFileSessionStore fillAndOverwrite(MappedFileSessionStore store) {
+        for (int i = 0; i < 10; i++) {
+            store.write("s" + i, data(200_000, i), NODE);
+        }
+        for (int i = 0; i < 4; i++) {
+            store.write("s" + i, data(10, 100 + i), NODE);
+        }
+        assertEquals(2, store.getSegmentCount());
+        return store;
+    }
+
+    private static void assertLatest(MappedFileSessionStore store) {
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(i < 4 ? data(10, 100 + i) : data(200_000, i), store.read("s" + i), "s" + i);
+        }
+        assertEquals(10, store.size());
+    }
+
+    private MappedFileSessionStore open() {
+        return open(0);
+    }
+
+    private MappedFileSessionStore open(long ttlSeconds) {
+        Properties props = new Properties();
+        props.setProperty(OidcConstants.PROP_SESSION_TTL_SECONDS, String.valueOf(ttlSeconds));
+        props.setProperty(OidcConstants.PROP_SESSION_STORE_DIR, dir.toString());
+        props.setProperty(OidcConstants.PROP_SESSION_SEGMENT_MB, "1");
+        MappedFileSessionStore store = new MappedFileSessionStore();
+        store.configure(props);
+        opened.add(store);
+        return store;
+    }
+
+    private Path segment(int sequence) {
+        return dir.resolve(String.format("sessions-%08d.seg", sequence));
+    }
+
+    private static int record(String id, int dataLength) {
+        return RECORD_HEADER + id.length() + dataLength;
+    }
+
+    private static void patch(Path file, int offset, ByteBuffer bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(bytes, offset);
+        }
+    }
+
+    private static byte[] data(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed * 31 + i);
+        }
+        return data;
+    }
+}
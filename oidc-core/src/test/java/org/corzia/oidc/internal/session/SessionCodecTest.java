@@ -0,0 +1,237 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.session;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.shiro.session.Session;
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
+import org.corzia.oidc.OidcConstants;
+import org.corzia.oidc.OidcUserInfo;
+import org.corzia.oidc.UserInfo;
+import org.corzia.oidc.shiro.TrackedSession;
+import org.junit.jupiter.api.Test;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+
+class SessionCodecTest {
+
+    @Test
+    void roundTripsSessionFields() {
+        SimpleSession session = new SimpleSession("10.0.0.1");
+        session.setId("browser_tab");
+        session.setStartTimestamp(new Date(1_700_000_000_000L));
+        session.setLastAccessTime(new Date(1_700_000_123_456L));
+        session.setTimeout(1_800_000L);
+
+        SimpleSession decoded = (SimpleSession) SessionCodec.decode(SessionCodec.encode(session));
+
+        assertEquals(SimpleSession.class, decoded.getClass());
+        assertEquals("browser_tab", decoded.getId());
+        assertEquals("10.0.0.1", decoded.getHost());
+        assertEquals(session.getStartTimestamp(), decoded.getStartTimestamp());
+        assertEquals(session.getLastAccessTime(), decoded.getLastAccessTime());
+        assertEquals(1_800_000L, decoded.getTimeout());
+        assertNull(decoded.getStopTimestamp());
+        assertFalse(decoded.isExpired());
+    }
+
+    @Test
+    void keepsStoppedAndExpiredState() {
+        SimpleSession session = session();
+        session.setStopTimestamp(new Date(session.getStartTimestamp().getTime() + 5000));
+        session.setExpired(true);
+        session.setTimeout(-1);
+
+        SimpleSession decoded = (SimpleSession) SessionCodec.decode(SessionCodec.encode(session));
+
+        assertEquals(session.getStopTimestamp(), decoded.getStopTimestamp());
+        assertTrue(decoded.isExpired());
+        assertEquals(-1, decoded.getTimeout());
+    }
+
+    @Test
+    void decodedTrackedSessionIsClean() {
+        TrackedSession session = new TrackedSession();
+        session.setId("browser_tab");
+        session.setAttribute(OidcConstants.ATTR_TAB_ID, "tab");
+
+        Session decoded = SessionCodec.decode(SessionCodec.encode(session));
+
+        TrackedSession tracked = assertInstanceOf(TrackedSession.class, decoded);
+        assertFalse(tracked.isDirty());
+        assertEquals("tab", tracked.getAttribute(OidcConstants.ATTR_TAB_ID));
+    }
+
+    @Test
+    void roundTripsAttributeValues() {
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("list", List.of("a", 1, 2L, 2.5, true));
+        nested.put("none", null);
+        SimpleSession session = session();
+        session.setAttribute("string", "åäö 😀");
+        session.setAttribute("int", -42);
+        session.setAttribute("long", Long.MIN_VALUE);
+        session.setAttribute("double", Math.PI);
+        session.setAttribute("false", false);
+        session.setAttribute("date", new Date(-1000L));
+        session.setAttribute("map", nested);
+        session.setAttribute("serialized", new BigDecimal("12345.6789"));
+
+        Session decoded = SessionCodec.decode(SessionCodec.encode(session));
+
+        for (Object key : session.getAttributeKeys()) {
+            assertEquals(session.getAttribute(key), decoded.getAttribute(key), "attribute " + key);
+        }
+    }
+
+    @Test
+    void roundTripsOidcPrincipal() {
+        Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("sub", "subject-1");
+        claims.put("groups", List.of("g1", "g2"));
+        claims.put("exp", 1_700_003_600L);
+        Set<String> groups = new LinkedHashSet<>(List.of("g1", "g2"));
+        OidcUserInfo user = new OidcUserInfo("google", "subject-1", "user@example.com", "user@example.com",
+                "Ada Lovelace", "Ada", "Lovelace", "https://example.com/a.png", "tenant", "sv-SE", true,
+                groups, "id.token", "access.token", "refresh.token", claims);
+        SimpleSession session = session();
+        session.setAttribute(DefaultSubjectContext.PRINCIPALS_SESSION_KEY,
+                new SimplePrincipalCollection(user, "oidcRealm"));
+        session.setAttribute(DefaultSubjectContext.AUTHENTICATED_SESSION_KEY, true);
+
+        Session decoded = SessionCodec.decode(SessionCodec.encode(session));
+
+        PrincipalCollection principals = (PrincipalCollection) decoded
+                .getAttribute(DefaultSubjectContext.PRINCIPALS_SESSION_KEY);
+        assertEquals(Set.of("oidcRealm"), principals.getRealmNames());
+        OidcUserInfo copy = assertInstanceOf(OidcUserInfo.class, principals.getPrimaryPrincipal());
+        assertEquals("google", copy.getProviderName());
+        assertEquals("subject-1", copy.getSubject());
+        assertEquals("tenant", copy.getTenantId());
+        assertEquals("user@example.com", copy.getUsername());
+        assertEquals("Ada Lovelace", copy.getFullName());
+        assertEquals("sv-SE", copy.getLocale());
+        assertTrue(copy.isEmailVerified());
+        assertEquals(groups, copy.getGroups());
+        assertEquals("id.token", copy.getIdToken());
+        assertEquals("access.token", copy.getAccessToken());
+        assertEquals("refresh.token", copy.getRefreshToken());
+        assertEquals(claims, copy.getClaims());
+        assertEquals(true, decoded.getAttribute(DefaultSubjectContext.AUTHENTICATED_SESSION_KEY));
+    }
+
+    @Test
+    void roundTripsPlainUserInfo() {
+        UserInfo user = new UserInfo("local", null, "Local User", null, null, null, null, false, null);
+        SimpleSession session = session();
+        session.setAttribute("user", user);
+
+        UserInfo copy = (UserInfo) SessionCodec.decode(SessionCodec.encode(session)).getAttribute("user");
+
+        assertEquals(UserInfo.class, copy.getClass());
+        assertEquals("local", copy.getUsername());
+        assertEquals("Local User", copy.getFullName());
+        assertNull(copy.getEmail());
+        assertNull(copy.getGroups());
+    }
+
+    @Test
+    void repeatedStringsAreWrittenOnce() {
+        String group = "group-" + "x".repeat(100);
+        SimpleSession once = session();
+        once.setAttribute("a", group);
+        SimpleSession twice = session();
+        twice.setAttribute("a", group);
+        twice.setAttribute("b", List.of(group, group));
+
+        int extra = SessionCodec.encode(twice).length - SessionCodec.encode(once).length;
+
+        assertTrue(extra < 20, "repeated string cost " + extra + " bytes");
+    }
+
+    @Test
+    void readsLegacyJavaSerialization() throws IOException {
+        SimpleSession session = session();
+        session.setAttribute("a", "b");
+
+        Session decoded = SessionCodec.decode(javaSerialized(session));
+
+        assertEquals("browser_tab", decoded.getId());
+        assertEquals("b", decoded.getAttribute("a"));
+    }
+
+    @Test
+    void rejectsSerializedClassesOutsideTheAllowlist() throws IOException {
+        JWTClaimsSet foreign = new JWTClaimsSet.Builder().subject("s").build();
+        SimpleSession session = session();
+        session.setAttribute("foreign", foreign);
+
+        assertThrows(IllegalArgumentException.class, () -> SessionCodec.decode(SessionCodec.encode(session)));
+        assertThrows(IllegalArgumentException.class, () -> SessionCodec.decode(javaSerialized(session)));
+    }
+
+    @Test
+    void rejectsSerializedDataThatIsNotASession() throws IOException {
+        assertThrows(IllegalArgumentException.class,
+                () -> SessionCodec.decode(javaSerialized(new ArrayList<>(List.of("x")))));
+    }
+
+    @Test
+    void rejectsUnknownOrTruncatedData() {
+        byte[] encoded = SessionCodec.encode(session());
+
+        assertThrows(IllegalArgumentException.class, () -> SessionCodec.decode(new byte[] { 1, 2, 3 }));
+        assertThrows(IllegalArgumentException.class, () -> SessionCodec.decode(new byte[] { 0x53, 9 }));
+        assertThrows(IllegalArgumentException.class,
+                () -> SessionCodec.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+    }
+
+    private static SimpleSession session() {
+        SimpleSession session = new SimpleSession();
+        session.setId("browser_tab");
+        return session;
+    }
+
+    private static byte[] javaSerialized(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+}
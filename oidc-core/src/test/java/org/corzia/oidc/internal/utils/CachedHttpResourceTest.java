@@ -0,0 +1,221 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs {@link CachedHttpResource} against a local stub endpoint.
+ */
+class CachedHttpResourceTest {
+
+    private static final CachedHttpResource.Policy POLICY = new CachedHttpResource.Policy(
+            60_000L, 1_000L, 60_000L, 1_000L, 60_000L, 60_000L, 60_000L);
+
+    private StubEndpoint endpoint;
+    private final AtomicInteger parses = new AtomicInteger();
+    private final List<CachedHttpResource<String>> resources = new ArrayList<>();
+
+    @BeforeEach
+    void start() throws IOException {
+        endpoint = new StubEndpoint();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        resources.forEach(CachedHttpResource::close);
+        endpoint.close();
+    }
+
+    @Test
+    void unchangedDocumentIsRevalidatedWithoutReparsing() throws IOException {
+        endpoint.etag = "\"v1\"";
+        CachedHttpResource<String> resource = resource(POLICY);
+
+        CachedHttpResource.Entry<String> first = resource.get();
+        CachedHttpResource.Entry<String> second = resource.refreshNow();
+
+        assertEquals("doc", first.value());
+        assertSame(first.value(), second.value());
+        assertEquals(2, endpoint.requests.get());
+        assertEquals(1, endpoint.notModified.get());
+        assertEquals(1, parses.get());
+    }
+
+    @Test
+    void concurrentReadersShareOneFetch() {
+        endpoint.delayMillis = 300;
+        CachedHttpResource<String> resource = resource(POLICY);
+
+        List<CompletableFuture<String>> reads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            reads.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return resource.get().value();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+        }
+
+        reads.forEach(read -> assertEquals("doc", read.join()));
+        assertEquals(1, endpoint.requests.get());
+    }
+
+    @Test
+    void failedFetchBacksOffAndFailsFast() {
+        endpoint.status = 503;
+        CachedHttpResource<String> resource = resource(POLICY);
+
+        IOException first = assertThrows(IOException.class, resource::get);
+        IOException second = assertThrows(IOException.class, resource::get);
+
+        assertTrue(first.getMessage().contains("HTTP 503"), first.getMessage());
+        assertTrue(second.getMessage().contains("unavailable"), second.getMessage());
+        assertEquals(1, endpoint.requests.get());
+        assertTrue(resource.isDegraded());
+        assertEquals(1, resource.getConsecutiveFailures());
+    }
+
+    @Test
+    void staleEntryIsServedWhileRefreshesFail() throws IOException {
+        endpoint.cacheControl = "no-cache";
+        CachedHttpResource<String> resource = resource(new CachedHttpResource.Policy(
+                60_000L, 0L, 60_000L, 0L, 60_000L, 60_000L, 60_000L));
+        resource.get();
+        endpoint.status = 500;
+
+        assertThrows(IOException.class, resource::refreshNow);
+
+        assertEquals("doc", resource.get().value());
+        assertTrue(resource.isDegraded());
+        assertFalse(resource.isFetching());
+    }
+
+    private CachedHttpResource<String> resource(CachedHttpResource.Policy policy) {
+        String transport = "cached-" + UUID.randomUUID();
+        HttpTransport.configure(transport, new Properties());
+        CachedHttpResource<String> resource = new CachedHttpResource<>(endpoint.url(), transport, "Test document",
+                policy, body -> {
+                    parses.incrementAndGet();
+                    return new String(body, StandardCharsets.UTF_8);
+                }, null);
+        resources.add(resource);
+        return resource;
+    }
+
+    /**
+     * Minimal HTTP/1.1 endpoint serving one document; answers 304 when the
+     * request carries the current ETag.
+     */
+    private static final class StubEndpoint implements AutoCloseable {
+        private final ServerSocket server = new ServerSocket(0);
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger notModified = new AtomicInteger();
+        private volatile int status = 200;
+        private volatile String etag;
+        private volatile String cacheControl = "max-age=30";
+        private volatile long delayMillis;
+
+        private StubEndpoint() throws IOException {
+            Thread acceptor = new Thread(this::accept, "stub-endpoint");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        private String url() {
+            return "http://127.0.0.1:" + server.getLocalPort() + "/doc";
+        }
+
+        private void accept() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread handler = new Thread(() -> handle(socket), "stub-endpoint-request");
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void handle(Socket socket) {
+            try (socket) {
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+                String ifNoneMatch = null;
+                String line;
+                while ((line = in.readLine()) != null && !line.isEmpty()) {
+                    if (line.toLowerCase().startsWith("if-none-match:")) {
+                        ifNoneMatch = line.substring(14).trim();
+                    }
+                }
+                requests.incrementAndGet();
+                Thread.sleep(delayMillis);
+
+                int code = status;
+                if (code == 200 && etag != null && etag.equals(ifNoneMatch)) {
+                    code = 304;
+                    notModified.incrementAndGet();
+                }
+                byte[] body = code == 200 ? "doc".getBytes(StandardCharsets.UTF_8) : new byte[0];
+                StringBuilder head = new StringBuilder("HTTP/1.1 " + code + " Stub\r\n")
+                        .append("Cache-Control: ").append(cacheControl).append("\r\n");
+                if (etag != null) {
+                    head.append("ETag: ").append(etag).append("\r\n");
+                }
+                head.append("Content-Length: ").append(code == 304 ? 0 : body.length)
+                        .append("\r\nConnection: close\r\n\r\n");
+                OutputStream out = socket.getOutputStream();
+                out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+                if (code != 304) {
+                    out.write(body);
+                }
+                out.flush();
+            } catch (IOException | InterruptedException e) {
+                // Test is over
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+}
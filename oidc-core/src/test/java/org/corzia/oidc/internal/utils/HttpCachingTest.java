@@ -0,0 +1,99 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class HttpCachingTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    void maxAgeSetsTheLifetime() {
+        assertEquals(300_000L, lifetime("Cache-Control", "public, max-age=300"));
+        assertEquals(300_000L, lifetime("Cache-Control", "MAX-AGE=\"300\""));
+    }
+
+    @Test
+    void ageIsSubtractedFromMaxAge() {
+        assertEquals(200_000L, lifetime("Cache-Control", "max-age=300", "Age", "100"));
+        assertEquals(0L, lifetime("Cache-Control", "max-age=300", "Age", "400"));
+    }
+
+    @Test
+    void noStoreAndNoCacheMeanRevalidate() {
+        assertEquals(0L, lifetime("Cache-Control", "max-age=300, no-cache"));
+        assertEquals(0L, lifetime("Cache-Control", "no-store"));
+    }
+
+    @Test
+    void maxAgeTakesPrecedenceOverExpires() {
+        assertEquals(60_000L, lifetime("Cache-Control", "max-age=60",
+                "Expires", "Tue, 14 Nov 2023 22:43:20 GMT", "Date", "Tue, 14 Nov 2023 22:13:20 GMT"));
+    }
+
+    @Test
+    void expiresIsRelativeToDate() {
+        assertEquals(1_800_000L, lifetime(
+                "Expires", "Tue, 14 Nov 2023 22:43:20 GMT", "Date", "Tue, 14 Nov 2023 22:13:20 GMT"));
+    }
+
+    @Test
+    void expiresWithoutDateIsRelativeToNow() {
+        // NOW is Tue, 14 Nov 2023 22:13:20 GMT
+        assertEquals(600_000L, lifetime("Expires", "Tue, 14 Nov 2023 22:23:20 GMT"));
+        assertEquals(0L, lifetime("Expires", "Tue, 14 Nov 2023 22:03:20 GMT"));
+    }
+
+    @Test
+    void invalidExpiresMeansExpired() {
+        assertEquals(0L, lifetime("Expires", "0"));
+    }
+
+    @Test
+    void noFreshnessInformation() {
+        assertEquals(-1L, lifetime());
+        assertEquals(-1L, lifetime("Cache-Control", "public"));
+    }
+
+    @Test
+    void invalidMaxAgeIsZero() {
+        assertEquals(0L, lifetime("Cache-Control", "max-age=soon"));
+        assertEquals(0L, lifetime("Cache-Control", "max-age=-5"));
+    }
+
+    @Test
+    void hugeValuesDoNotOverflow() {
+        long cap = (1L << 31) * 1000L;
+        assertEquals(cap, lifetime("Cache-Control", "max-age=9223372036854775807"));
+        assertEquals(cap, lifetime("Cache-Control", "max-age=99999999999999999999999"));
+        assertEquals(cap - 1000L, lifetime("Cache-Control", "max-age=99999999999999999999", "Age", "1"));
+        assertEquals(0L, lifetime("Cache-Control", "max-age=300", "Age", "9223372036854775807"));
+    }
+
+    private static long lifetime(String... headers) {
+        Map<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < headers.length; i += 2) {
+            map.put(headers[i], headers[i + 1]);
+        }
+        return HttpCaching.freshnessLifetimeMillis(map::get, NOW);
+    }
+}
@@ -0,0 +1,57 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ReplayCacheTest {
+
+    @Test
+    void replayWithinRetentionIsDetected() {
+        ReplayCache cache = new ReplayCache(1000L, 10);
+        assertTrue(cache.firstSeen("a", 0L));
+        assertFalse(cache.firstSeen("a", 999L));
+        assertTrue(cache.firstSeen("a", 1000L));
+    }
+
+    @Test
+    void expiredIdsAreDropped() {
+        ReplayCache cache = new ReplayCache(1000L, 10);
+        for (int i = 0; i < 5; i++) {
+            cache.firstSeen("id" + i, i * 100L);
+        }
+        cache.firstSeen("late", 1250L);
+        // id0..id2 expired at 1000, 1100 and 1200
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    void fullCacheForgetsTheOldest() {
+        ReplayCache cache = new ReplayCache(60_000L, 3);
+        cache.firstSeen("a", 0L);
+        cache.firstSeen("b", 1L);
+        cache.firstSeen("c", 2L);
+        assertTrue(cache.firstSeen("d", 3L));
+
+        assertEquals(3, cache.size());
+        assertFalse(cache.firstSeen("b", 4L));
+        assertTrue(cache.firstSeen("a", 5L));
+    }
+}
@@ -0,0 +1,135 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Properties;
+import java.util.UUID;
+
+import org.corzia.oidc.shiro.OidcRealm;
+import org.junit.jupiter.api.Test;
+
+class TokenEndpointGuardTest {
+
+    @Test
+    void opensAfterConsecutiveFailures() throws Exception {
+        TokenEndpointGuard guard = guard(3, 1);
+
+        guard.acquire().failure();
+        guard.acquire().failure();
+        assertEquals(TokenEndpointGuard.State.CLOSED, guard.getState());
+        guard.acquire().failure();
+
+        assertEquals(TokenEndpointGuard.State.OPEN, guard.getState());
+        assertThrows(ProviderUnavailableException.class, guard::acquire);
+    }
+
+    @Test
+    void successResetsTheFailureCount() throws Exception {
+        TokenEndpointGuard guard = guard(2, 1);
+
+        guard.acquire().failure();
+        guard.acquire().success();
+        guard.acquire().failure();
+
+        assertEquals(TokenEndpointGuard.State.CLOSED, guard.getState());
+    }
+
+    @Test
+    void lateSuccessDoesNotCloseAnOpenCircuit() throws Exception {
+        TokenEndpointGuard guard = guard(1, 60);
+        TokenEndpointGuard.Permit slow = guard.acquire();
+
+        guard.acquire().failure();
+        slow.success();
+
+        assertEquals(TokenEndpointGuard.State.OPEN, guard.getState());
+        assertThrows(ProviderUnavailableException.class, guard::acquire);
+    }
+
+    @Test
+    void halfOpenProbeClosesTheCircuit() throws Exception {
+        TokenEndpointGuard guard = guard(1, 1);
+        TokenEndpointGuard.Permit slow = guard.acquire();
+        guard.acquire().failure();
+        Thread.sleep(1100);
+
+        TokenEndpointGuard.Permit probe = guard.acquire();
+        assertEquals(TokenEndpointGuard.State.HALF_OPEN, guard.getState());
+        assertThrows(ProviderUnavailableException.class, guard::acquire);
+        slow.success();
+        assertEquals(TokenEndpointGuard.State.HALF_OPEN, guard.getState());
+        probe.success();
+
+        assertEquals(TokenEndpointGuard.State.CLOSED, guard.getState());
+        guard.acquire().success();
+    }
+
+    @Test
+    void failedProbeOpensTheCircuitAgain() throws Exception {
+        TokenEndpointGuard guard = guard(5, 1);
+        for (int i = 0; i < 5; i++) {
+            guard.acquire().failure();
+        }
+        Thread.sleep(1100);
+
+        guard.acquire().failure();
+
+        assertEquals(TokenEndpointGuard.State.OPEN, guard.getState());
+        assertThrows(ProviderUnavailableException.class, guard::acquire);
+    }
+
+    @Test
+    void lateFailureAfterRecoveryDoesNotCount() throws Exception {
+        TokenEndpointGuard guard = guard(1, 1);
+        TokenEndpointGuard.Permit slow = guard.acquire();
+        guard.acquire().failure();
+        Thread.sleep(1100);
+        guard.acquire().success();
+
+        slow.failure();
+
+        assertEquals(TokenEndpointGuard.State.CLOSED, guard.getState());
+    }
+
+    @Test
+    void bulkheadLimitsConcurrentCalls() throws Exception {
+        TokenEndpointGuard guard = guard(5, 1);
+        Properties props = new Properties();
+        props.setProperty(OidcRealm.TOKEN_MAX_CONCURRENT, "2");
+        TokenEndpointGuard.configure(guard.getName(), props);
+
+        TokenEndpointGuard.Permit first = guard.acquire();
+        guard.acquire();
+        assertThrows(ProviderUnavailableException.class, guard::acquire);
+        first.success();
+        first.success();
+
+        assertEquals(1, guard.getAvailablePermits());
+        assertEquals(TokenEndpointGuard.State.CLOSED, guard.getState());
+    }
+
+    private static TokenEndpointGuard guard(int failureThreshold, int openSeconds) {
+        String name = "test-" + UUID.randomUUID();
+        Properties props = new Properties();
+        props.setProperty(OidcRealm.BREAKER_FAILURE_THRESHOLD, String.valueOf(failureThreshold));
+        props.setProperty(OidcRealm.BREAKER_OPEN_SECONDS, String.valueOf(openSeconds));
+        TokenEndpointGuard.configure(name, props);
+        return TokenEndpointGuard.forName(name);
+    }
+}
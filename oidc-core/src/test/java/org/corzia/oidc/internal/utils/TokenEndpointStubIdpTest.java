@@ -0,0 +1,272 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.corzia.oidc.shiro.OidcRealm;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Drives token endpoint calls through {@link TokenEndpointGuard} against a
+ * local stub IdP with injected latency and failures.
+ */
+class TokenEndpointStubIdpTest {
+
+    private static final String TOKENS = "{\"id_token\":\"it\",\"access_token\":\"at\",\"expires_in\":300}";
+    private static final int READ_TIMEOUT_MS = 500;
+
+    private StubIdp idp;
+
+    @BeforeEach
+    void start() throws IOException {
+        idp = new StubIdp();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        idp.close();
+    }
+
+    @Test
+    void healthyEndpointReturnsTokens() throws IOException {
+        String provider = provider(5, 1);
+
+        TokenResponse tokens = exchange(provider);
+
+        assertEquals("it", tokens.getIdToken());
+        assertEquals("at", tokens.getAccessToken());
+        assertEquals(TokenEndpointGuard.State.CLOSED, TokenEndpointGuard.forName(provider).getState());
+    }
+
+    @Test
+    void serverErrorsOpenTheCircuitAndLaterCallsFailFast() {
+        String provider = provider(3, 60);
+        idp.status = 503;
+
+        for (int i = 0; i < 3; i++) {
+            assertThrows(IOException.class, () -> exchange(provider));
+        }
+        int requests = idp.requests.get();
+        ProviderUnavailableException e = assertThrows(ProviderUnavailableException.class, () -> exchange(provider));
+
+        assertTrue(e.getRetryAfterMillis() > 0);
+        assertEquals(requests, idp.requests.get(), "fast-failed call reached the IdP");
+        assertEquals(TokenEndpointGuard.State.OPEN, TokenEndpointGuard.forName(provider).getState());
+    }
+
+    @Test
+    void clientErrorsDoNotOpenTheCircuit() {
+        String provider = provider(2, 60);
+        idp.status = 400;
+
+        for (int i = 0; i < 5; i++) {
+            assertThrows(IOException.class, () -> exchange(provider));
+        }
+
+        assertEquals(TokenEndpointGuard.State.CLOSED, TokenEndpointGuard.forName(provider).getState());
+    }
+
+    @Test
+    void slowResponseTimesOutAndCountsAsFailure() {
+        String provider = provider(1, 60);
+        idp.headerDelayMillis = 2000;
+
+        long start = System.nanoTime();
+        assertThrows(HttpTimeoutException.class, () -> exchange(provider));
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1500);
+        assertEquals(TokenEndpointGuard.State.OPEN, TokenEndpointGuard.forName(provider).getState());
+    }
+
+    @Test
+    void slowBodyTimesOutAndHoldsItsPermitWhileReading() throws Exception {
+        String provider = provider(1, 60, 1);
+        idp.bodyDelayMillis = 2000;
+
+        long start = System.nanoTime();
+        CompletableFuture<TokenResponse> stalled = CompletableFuture.supplyAsync(() -> {
+            try {
+                return exchange(provider);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(200);
+        // Headers are in, the body is not: the only permit is still taken
+        assertThrows(ProviderUnavailableException.class, () -> exchange(provider));
+
+        ExecutionException e = assertThrows(ExecutionException.class, stalled::get);
+        assertInstanceOf(HttpTimeoutException.class, e.getCause().getCause());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1500);
+        TokenEndpointGuard guard = TokenEndpointGuard.forName(provider);
+        assertEquals(1, guard.getAvailablePermits());
+        assertEquals(TokenEndpointGuard.State.OPEN, guard.getState());
+    }
+
+    @Test
+    void asyncExchangeHoldsItsPermitUntilTheBodyIsRead() throws Exception {
+        String provider = provider(1, 60, 1);
+        idp.bodyDelayMillis = 300;
+
+        CompletableFuture<TokenResponse> call = HttpUtils.exchangeCodeAsync(HttpTransport.forName(provider),
+                idp.url(), "client", "secret", "code", "https://app/callback");
+        Thread.sleep(150);
+        assertEquals(0, TokenEndpointGuard.forName(provider).getAvailablePermits());
+
+        assertEquals("at", call.get(2, TimeUnit.SECONDS).getAccessToken());
+        assertEquals(1, TokenEndpointGuard.forName(provider).getAvailablePermits());
+    }
+
+    @Test
+    void failingProviderDoesNotAffectAnother() throws IOException {
+        String failing = provider(1, 60);
+        String healthy = provider(1, 60);
+        idp.status = 500;
+        assertThrows(IOException.class, () -> exchange(failing));
+        assertThrows(ProviderUnavailableException.class, () -> exchange(failing));
+
+        idp.status = 200;
+
+        assertEquals("at", exchange(healthy).getAccessToken());
+    }
+
+    @Test
+    void probeClosesTheCircuitOnceTheIdpRecovers() throws Exception {
+        String provider = provider(1, 1);
+        idp.status = 502;
+        assertThrows(IOException.class, () -> exchange(provider));
+        assertThrows(ProviderUnavailableException.class, () -> exchange(provider));
+
+        idp.status = 200;
+        Thread.sleep(1100);
+
+        assertEquals("at", exchange(provider).getAccessToken());
+        assertEquals(TokenEndpointGuard.State.CLOSED, TokenEndpointGuard.forName(provider).getState());
+    }
+
+    private TokenResponse exchange(String provider) throws IOException {
+        return HttpUtils.exchangeCode(HttpTransport.forName(provider), idp.url(), "client", "secret", "code",
+                "https://app/callback");
+    }
+
+    private static String provider(int failureThreshold, int openSeconds) {
+        return provider(failureThreshold, openSeconds, 20);
+    }
+
+    private static String provider(int failureThreshold, int openSeconds, int maxConcurrent) {
+        String name = "stub-" + UUID.randomUUID();
+        Properties props = new Properties();
+        props.setProperty(OidcRealm.HTTP_READ_TIMEOUT_MS, String.valueOf(READ_TIMEOUT_MS));
+        props.setProperty(OidcRealm.BREAKER_FAILURE_THRESHOLD, String.valueOf(failureThreshold));
+        props.setProperty(OidcRealm.BREAKER_OPEN_SECONDS, String.valueOf(openSeconds));
+        props.setProperty(OidcRealm.TOKEN_MAX_CONCURRENT, String.valueOf(maxConcurrent));
+        HttpTransport.configure(name, props);
+        TokenEndpointGuard.configure(name, props);
+        return name;
+    }
+
+    /**
+     * Minimal HTTP/1.1 token endpoint; one connection per request.
+     */
+    private static final class StubIdp implements AutoCloseable {
+        private final ServerSocket server = new ServerSocket(0);
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile int status = 200;
+        private volatile long headerDelayMillis;
+        private volatile long bodyDelayMillis;
+
+        private StubIdp() throws IOException {
+            Thread acceptor = new Thread(this::accept, "stub-idp");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        private String url() {
+            return "http://127.0.0.1:" + server.getLocalPort() + "/token";
+        }
+
+        private void accept() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread handler = new Thread(() -> handle(socket), "stub-idp-request");
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void handle(Socket socket) {
+            try (socket) {
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+                int contentLength = 0;
+                String line;
+                while ((line = in.readLine()) != null && !line.isEmpty()) {
+                    if (line.toLowerCase().startsWith("content-length:")) {
+                        contentLength = Integer.parseInt(line.substring(15).trim());
+                    }
+                }
+                in.skip(contentLength);
+                requests.incrementAndGet();
+
+                Thread.sleep(headerDelayMillis);
+                byte[] body = (status == 200 ? TOKENS : "{\"error\":\"stub\"}").getBytes(StandardCharsets.UTF_8);
+                OutputStream out = socket.getOutputStream();
+                out.write(("HTTP/1.1 " + status + " Stub\r\nContent-Type: application/json\r\nContent-Length: "
+                        + body.length + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                out.write(body, 0, 5);
+                out.flush();
+                Thread.sleep(bodyDelayMillis);
+                out.write(body, 5, body.length - 5);
+                out.flush();
+            } catch (SocketException e) {
+                // Client gave up
+            } catch (IOException | InterruptedException e) {
+                // Test is over
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+}
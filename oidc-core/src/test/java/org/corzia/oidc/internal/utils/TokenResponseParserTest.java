@@ -0,0 +1,123 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.internal.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class TokenResponseParserTest {
+
+    @Test
+    void readsKnownMembersAndSkipsOthers() throws IOException {
+        TokenResponse tokens = parse("{\"access_token\":\"at\",\"scope\":\"openid email\","
+                + "\"nested\":{\"a\":[1,{\"b\":\"}\"}],\"c\":null},\"id_token\":\"it\","
+                + "\"refresh_token\":\"rt\",\"token_type\":\"Bearer\",\"expires_in\":3600,\"ok\":true}");
+
+        assertEquals("it", tokens.getIdToken());
+        assertEquals("at", tokens.getAccessToken());
+        assertEquals("rt", tokens.getRefreshToken());
+        assertEquals("Bearer", tokens.getTokenType());
+        assertEquals(3600L, tokens.getExpiresIn());
+    }
+
+    @Test
+    void missingMembersAreNull() throws IOException {
+        TokenResponse tokens = parse(" { } ");
+
+        assertNull(tokens.getIdToken());
+        assertNull(tokens.getAccessToken());
+        assertNull(tokens.getExpiresIn());
+    }
+
+    @Test
+    void decodesEscapes() throws IOException {
+        TokenResponse tokens = parse("{\"access_token\":\"a\\\"b\\\\c\\/d\\n\\t\\u00e9\\u20ac\"}");
+
+        assertEquals("a\"b\\c/d\n\t\u00e9\u20ac", tokens.getAccessToken());
+    }
+
+    @Test
+    void decodesSurrogatePairs() throws IOException {
+        TokenResponse tokens = parse("{\"access_token\":\"x\\ud83d\\ude00y\"}");
+
+        assertEquals("x\uD83D\uDE00y", tokens.getAccessToken());
+    }
+
+    @Test
+    void keepsRawUtf8() throws IOException {
+        TokenResponse tokens = parse("{\"access_token\":\"\u00e5\u00e4\u00f6\uD83D\uDE00\"}");
+
+        assertEquals("\u00e5\u00e4\u00f6\uD83D\uDE00", tokens.getAccessToken());
+    }
+
+    @Test
+    void rejectsUnpairedSurrogate() {
+        assertThrows(IOException.class, () -> parse("{\"access_token\":\"\\ud83dx\"}"));
+        assertThrows(IOException.class, () -> parse("{\"access_token\":\"\\ud83d\\u0041\"}"));
+    }
+
+    @Test
+    void readsExpiresInSentAsString() throws IOException {
+        assertEquals(3599L, parse("{\"expires_in\":\"3599\"}").getExpiresIn());
+        assertEquals(60L, parse("{\"expires_in\":60.0}").getExpiresIn());
+        assertNull(parse("{\"expires_in\":\"soon\"}").getExpiresIn());
+    }
+
+    @Test
+    void nonStringTokenIsNull() throws IOException {
+        TokenResponse tokens = parse("{\"access_token\":null,\"id_token\":{\"x\":1}}");
+
+        assertNull(tokens.getAccessToken());
+        assertNull(tokens.getIdToken());
+    }
+
+    @Test
+    void stopsAtEndOfTopLevelObject() throws IOException {
+        InputStream in = new ByteArrayInputStream(
+                "{\"access_token\":\"at\"} trailing garbage {".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("at", TokenResponseParser.parse(in).getAccessToken());
+    }
+
+    @Test
+    void readsValuesLargerThanTheBuffers() throws IOException {
+        String token = "x".repeat(20_000);
+
+        assertEquals(token, parse("{\"padding\":\"" + "y".repeat(10_000) + "\",\"access_token\":\"" + token + "\"}")
+                .getAccessToken());
+    }
+
+    @Test
+    void rejectsMalformedInput() {
+        assertThrows(IOException.class, () -> parse("[]"));
+        assertThrows(IOException.class, () -> parse("{\"access_token\":\"at\""));
+        assertThrows(IOException.class, () -> parse("{\"access_token\" \"at\"}"));
+        assertThrows(IOException.class, () -> parse("{\"access_token\":\"\\q\"}"));
+        assertThrows(IOException.class, () -> parse(""));
+    }
+
+    private static TokenResponse parse(String json) throws IOException {
+        return TokenResponseParser.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,233 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.shiro;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.shiro.session.Session;
+import org.apache.shiro.session.UnknownSessionException;
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
+import org.junit.jupiter.api.Test;
+
+class BoundedSessionDAOTest {
+
+    /** Matches the DAO's shard count; capacity is split evenly between shards. */
+    private static final int SHARDS = 16;
+
+    @Test
+    void newAnonymousSessionIsNotEvictedFromASmallShard() {
+        // Shard capacity 2: the new session is always among the oldest 8
+        BoundedSessionDAO dao = new BoundedSessionDAO(2 * SHARDS, Duration.ofHours(1));
+        List<String> ids = idsInOneShard(3);
+
+        dao.update(authenticated(ids.get(0)));
+        dao.update(authenticated(ids.get(1)));
+        dao.update(anonymous(ids.get(2)));
+
+        assertFalse(isHeld(dao, ids.get(0)));
+        assertTrue(isHeld(dao, ids.get(1)));
+        assertTrue(isHeld(dao, ids.get(2)));
+        assertEquals(1, dao.getEvictionCount());
+    }
+
+    @Test
+    void shardCapacityOfOneKeepsTheNewestSession() {
+        BoundedSessionDAO dao = new BoundedSessionDAO(SHARDS, Duration.ofHours(1));
+        List<String> ids = idsInOneShard(3);
+
+        for (String id : ids) {
+            dao.update(anonymous(id));
+            assertTrue(isHeld(dao, id));
+        }
+        assertEquals(1, dao.size());
+        assertEquals(2, dao.getEvictionCount());
+    }
+
+    @Test
+    void anonymousSessionsAreEvictedFirst() {
+        BoundedSessionDAO dao = new BoundedSessionDAO(3 * SHARDS, Duration.ofHours(1));
+        List<String> ids = idsInOneShard(4);
+
+        dao.update(authenticated(ids.get(0)));
+        dao.update(anonymous(ids.get(1)));
+        dao.update(authenticated(ids.get(2)));
+        dao.update(authenticated(ids.get(3)));
+
+        assertTrue(isHeld(dao, ids.get(0)));
+        assertFalse(isHeld(dao, ids.get(1)));
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvictedWhenAllAreAuthenticated() {
+        BoundedSessionDAO dao = new BoundedSessionDAO(3 * SHARDS, Duration.ofHours(1));
+        List<String> ids = idsInOneShard(4);
+
+        dao.update(authenticated(ids.get(0)));
+        dao.update(authenticated(ids.get(1)));
+        dao.update(authenticated(ids.get(2)));
+        dao.readSession(ids.get(0));
+        dao.update(authenticated(ids.get(3)));
+
+        assertTrue(isHeld(dao, ids.get(0)));
+        assertFalse(isHeld(dao, ids.get(1)));
+    }
+
+    @Test
+    void peekDoesNotChangeEvictionOrder() {
+        BoundedSessionDAO dao = new BoundedSessionDAO(3 * SHARDS, Duration.ofHours(1));
+        List<String> ids = idsInOneShard(4);
+
+        dao.update(authenticated(ids.get(0)));
+        dao.update(authenticated(ids.get(1)));
+        dao.update(authenticated(ids.get(2)));
+        assertNotNull(dao.peek(ids.get(0)));
+        dao.update(authenticated(ids.get(3)));
+
+        assertNull(dao.peek(ids.get(0)));
+        assertNotNull(dao.peek(ids.get(1)));
+        assertEquals(0, dao.getHitCount());
+    }
+
+    @Test
+    void anonymousSessionBeyondTheScanWindowIsNotSearchedFor() {
+        BoundedSessionDAO dao = new BoundedSessionDAO(10 * SHARDS, Duration.ofHours(1));
+        List<String> ids = idsInOneShard(11);
+
+        for (int i = 0; i < 9; i++) {
+            dao.update(authenticated(ids.get(i)));
+        }
+        dao.update(anonymous(ids.get(9)));
+        dao.update(authenticated(ids.get(10)));
+
+        assertFalse(isHeld(dao, ids.get(0)));
+        assertTrue(isHeld(dao, ids.get(9)));
+    }
+
+    @Test
+    void unusedSessionsExpireAfterTheTtl() throws InterruptedException {
+        BoundedSessionDAO dao = new BoundedSessionDAO(100 * SHARDS, Duration.ofMillis(50));
+        List<String> ids = idsInOneShard(2);
+        dao.update(anonymous(ids.get(0)));
+
+        Thread.sleep(100);
+
+        assertFalse(isHeld(dao, ids.get(0)));
+        dao.update(anonymous(ids.get(1)));
+        assertEquals(1, dao.size());
+        assertEquals(1, dao.getExpirationCount());
+    }
+
+    @Test
+    void readingAnExpiredSessionDropsIt() throws InterruptedException {
+        BoundedSessionDAO dao = new BoundedSessionDAO(100 * SHARDS, Duration.ofMillis(50));
+        List<Serializable> evicted = new ArrayList<>();
+        dao.setEvictionListener(session -> evicted.add(session.getId()));
+        dao.update(anonymous("a_1"));
+
+        Thread.sleep(100);
+
+        assertFalse(isHeld(dao, "a_1"));
+        assertEquals(0, dao.size());
+        assertEquals(1, dao.getExpirationCount());
+        assertEquals(List.of("a_1"), evicted);
+    }
+
+    @Test
+    void evictedSessionsAreReportedToTheListener() {
+        BoundedSessionDAO dao = new BoundedSessionDAO(SHARDS, Duration.ofHours(1));
+        List<Serializable> evicted = new ArrayList<>();
+        dao.setEvictionListener(session -> evicted.add(session.getId()));
+        List<String> ids = idsInOneShard(2);
+
+        dao.update(anonymous(ids.get(0)));
+        dao.update(anonymous(ids.get(1)));
+
+        assertEquals(List.of(ids.get(0)), evicted);
+    }
+
+    @Test
+    void deleteDoesNotNotifyTheListener() {
+        BoundedSessionDAO dao = new BoundedSessionDAO(SHARDS, Duration.ofHours(1));
+        List<Serializable> evicted = new ArrayList<>();
+        dao.setEvictionListener(session -> evicted.add(session.getId()));
+        Session session = anonymous("a_1");
+
+        dao.update(session);
+        dao.delete(session);
+
+        assertEquals(0, dao.size());
+        assertEquals(List.of(), evicted);
+    }
+
+    @Test
+    void countsHitsAndMisses() {
+        BoundedSessionDAO dao = new BoundedSessionDAO(100, Duration.ofHours(1));
+        dao.update(anonymous("a_1"));
+
+        isHeld(dao, "a_1");
+        isHeld(dao, "b_1");
+
+        assertEquals(1, dao.getHitCount());
+        assertEquals(1, dao.getMissCount());
+    }
+
+    private static boolean isHeld(BoundedSessionDAO dao, String id) {
+        try {
+            return dao.readSession(id) != null;
+        } catch (UnknownSessionException e) {
+            return false;
+        }
+    }
+
+    private static SimpleSession anonymous(String id) {
+        SimpleSession session = new SimpleSession();
+        session.setId(id);
+        return session;
+    }
+
+    private static SimpleSession authenticated(String id) {
+        SimpleSession session = anonymous(id);
+        session.setAttribute(DefaultSubjectContext.PRINCIPALS_SESSION_KEY,
+                new SimplePrincipalCollection("user-" + id, "test"));
+        return session;
+    }
+
+    /**
+     * @return ids that all land in the same shard
+     */
+    private static List<String> idsInOneShard(int count) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; ids.size() < count; i++) {
+            String id = "browser_" + i;
+            int h = id.hashCode();
+            if (((h ^ (h >>> 16)) & (SHARDS - 1)) == 0) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+}
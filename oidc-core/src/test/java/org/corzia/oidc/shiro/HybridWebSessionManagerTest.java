@@ -0,0 +1,77 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.shiro;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.shiro.session.mgt.DefaultSessionKey;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
+import org.corzia.oidc.OidcUserInfo;
+import org.corzia.oidc.internal.session.LoopbackSessionStore;
+import org.corzia.oidc.internal.user.OidcUserDirectory;
+import org.junit.jupiter.api.Test;
+
+class HybridWebSessionManagerTest {
+
+    @Test
+    void sessionFromAnotherNodeIsIndexedAndBoundOnFirstRead() {
+        LoopbackSessionStore store = new LoopbackSessionStore();
+        NearCacheSessionDAO nodeA = node(store);
+        NearCacheSessionDAO nodeB = node(store);
+        try {
+            String browserId = UUID.randomUUID().toString();
+            String subject = UUID.randomUUID().toString();
+            String sid = UUID.randomUUID().toString();
+            OidcUserInfo user = new OidcUserInfo("test-idp", subject, "user-" + subject, null, null, null, null,
+                    null, null, null, false, Set.of(), null, null, null, Map.of("sid", sid));
+
+            TrackedSession session = new TrackedSession();
+            session.setId(browserId + "_tab1");
+            session.setAttribute(DefaultSubjectContext.PRINCIPALS_SESSION_KEY,
+                    new SimplePrincipalCollection(user, "oidc"));
+            Serializable id = nodeA.create(session);
+
+            HybridWebSessionManager managerB = new HybridWebSessionManager();
+            managerB.setSessionValidationSchedulerEnabled(false);
+            managerB.setSessionDAO(nodeB);
+            assertEquals(Set.of(), OidcUserDirectory.findSessionIds("test-idp", subject, sid));
+
+            managerB.getSession(new DefaultSessionKey(id));
+
+            assertEquals(Set.of(id), OidcUserDirectory.findSessionIds("test-idp", subject, sid));
+            assertEquals(Set.of(id), OidcUserDirectory.findSessionIds("test-idp", subject, null));
+            assertEquals(1, managerB.getBrowserSessions(browserId).size());
+            assertTrue(OidcUserDirectory.get(user.getUsername()) instanceof OidcUserInfo);
+        } finally {
+            nodeA.close();
+            nodeB.close();
+        }
+    }
+
+    private static NearCacheSessionDAO node(LoopbackSessionStore store) {
+        NearCacheSessionDAO dao = new NearCacheSessionDAO(store, 1000, Duration.ofHours(1), Duration.ofHours(1));
+        dao.setSessionIdGenerator(new PreserveIdSessionIdGenerator());
+        return dao;
+    }
+}
@@ -0,0 +1,155 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.shiro;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.shiro.session.Session;
+import org.corzia.oidc.internal.session.LoopbackSessionStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class NearCacheSessionDAOTest {
+
+    private NearCacheSessionDAO nodeA;
+    private NearCacheSessionDAO nodeB;
+
+    @AfterEach
+    void close() {
+        if (nodeA != null) {
+            nodeA.close();
+        }
+        if (nodeB != null) {
+            nodeB.close();
+        }
+    }
+
+    @Test
+    void touchOnOneNodeDoesNotResurrectSessionDeletedOnAnother() {
+        LoopbackSessionStore store = new LoopbackSessionStore();
+        nodeA = node(store);
+        nodeB = node(store);
+
+        Serializable id = nodeA.create(new TrackedSession());
+        Session onB = nodeB.readSession(id);
+
+        Session onA = nodeA.readSession(id);
+        onA.touch();
+        nodeA.update(onA);
+        assertEquals(1, nodeA.getPendingWriteCount());
+
+        nodeB.delete(onB);
+        assertEquals(0, nodeA.getPendingWriteCount());
+
+        // close() flushes whatever is still pending
+        nodeA.close();
+        nodeA = null;
+        assertNull(store.read(id.toString()));
+    }
+
+    @Test
+    void touchRacingAnUndeliveredDeleteIsNotWritten() {
+        LoopbackSessionStore store = new LoopbackSessionStore();
+        // Node A never hears invalidations, as if the delete were still in flight
+        nodeA = node(new LoopbackSessionStore() {
+            @Override
+            public void subscribe(InvalidationListener listener) {
+                // Deaf
+            }
+        });
+        nodeB = node(store);
+
+        Serializable id = nodeA.create(new TrackedSession());
+        Session onB = nodeB.readSession(id);
+
+        Session onA = nodeA.readSession(id);
+        onA.touch();
+        nodeA.update(onA);
+        nodeB.delete(onB);
+        assertEquals(1, nodeA.getPendingWriteCount());
+
+        nodeA.close();
+        nodeA = null;
+        assertNull(store.read(id.toString()));
+    }
+
+    @Test
+    void touchOfStoppedSessionIsNotWritten() {
+        LoopbackSessionStore store = new LoopbackSessionStore();
+        nodeA = node(store);
+
+        TrackedSession session = new TrackedSession();
+        Serializable id = nodeA.create(session);
+        byte[] written = store.read(id.toString());
+
+        session.touch();
+        nodeA.update(session);
+        session.stop();
+        session.clearDirty();
+
+        nodeA.close();
+        nodeA = null;
+        assertTrue(Arrays.equals(written, store.read(id.toString())));
+    }
+
+    @Test
+    void touchIsWrittenBehind() {
+        LoopbackSessionStore store = new LoopbackSessionStore();
+        nodeA = node(store);
+        nodeB = node(store);
+
+        TrackedSession session = new TrackedSession();
+        Serializable id = nodeA.create(session);
+        long created = nodeB.readSession(id).getLastAccessTime().getTime();
+
+        session.setLastAccessTime(new Date(created + 60_000L));
+        nodeA.update(session);
+        assertEquals(1, nodeA.getPendingWriteCount());
+        nodeA.close();
+        nodeA = null;
+
+        Session reread = nodeB.readSession(id);
+        assertNotNull(reread);
+        assertEquals(created + 60_000L, reread.getLastAccessTime().getTime());
+        assertFalse(((TrackedSession) reread).isDirty());
+    }
+
+    @Test
+    void peekReadsTheStoreWithoutCaching() {
+        LoopbackSessionStore store = new LoopbackSessionStore();
+        nodeA = node(store);
+        nodeB = node(store);
+
+        Serializable id = nodeA.create(new TrackedSession());
+
+        assertNotNull(nodeB.peek(id));
+        assertEquals(0, nodeB.size());
+        assertEquals(0, nodeB.getHitCount() + nodeB.getMissCount());
+    }
+
+    private static NearCacheSessionDAO node(SessionStore store) {
+        return new NearCacheSessionDAO(store, 1000, Duration.ofHours(1), Duration.ofHours(1));
+    }
+}
@@ -16,8 +16,10 @@
 package org.corzia.oidc.servlet;
 
 import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.session.Session;
 import org.apache.shiro.subject.Subject;
 import org.corzia.oidc.OidcConstants;
+import org.corzia.oidc.shiro.HybridWebSessionManager;
 
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
@@ -26,16 +28,31 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 
+/**
+ * Logs out the current tab, or with {@code scope=browser} every tab of the
+ * caller's browser.
+ */
 @WebServlet("/api/logout")
 public class LogoutServlet extends HttpServlet {
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         Subject subject = SecurityUtils.getSubject();
-        if (subject.isAuthenticated()) {
+        int ended = 0;
+        if (OidcConstants.SCOPE_BROWSER.equals(req.getParameter(OidcConstants.PARAM_SCOPE))) {
+            Session session = subject.getSession(false);
+            String browserId = session != null ? HybridWebSessionManager.browserIdOf(session.getId()) : null;
+            if (subject.isAuthenticated()) {
+                subject.logout();
+                ended++;
+            }
+            ended += HybridWebSessionManager.current().stopBrowserSessions(browserId);
+        } else if (subject.isAuthenticated()) {
             subject.logout();
+            ended++;
         }
         resp.setContentType(OidcConstants.TYPE_JSON);
-        resp.getWriter().write("{\"" + OidcConstants.JKEY_SUCCESS + "\": true}");
+        resp.getWriter().write("{\"" + OidcConstants.JKEY_SUCCESS + "\": true, \"" + OidcConstants.JKEY_ENDED
+                + "\": " + ended + "}");
     }
 }
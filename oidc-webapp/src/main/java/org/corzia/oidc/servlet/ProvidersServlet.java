@@ -27,10 +27,14 @@ import jakarta.servlet.http.HttpServletResponse;
 import org.corzia.oidc.OidcClient;
 import org.corzia.oidc.OidcClientFactory;
 import org.corzia.oidc.OidcConstants;
+import org.corzia.oidc.internal.utils.TokenEndpointGuard;
 import org.corzia.oidc.shiro.OidcRealm;
 
 /**
- * Servlet that returns a JSON list of configured OIDC providers.
+ * Servlet that returns a JSON list of configured OIDC providers, including
+ * the circuit state of each provider's token endpoint ("closed", "open" or
+ * "half_open") and whether its signing keys are served from a stale JWKS
+ * snapshot because the endpoint is failing ("degraded") or not ("ok").
  */
 @WebServlet("/api/providers")
 public class ProvidersServlet extends HttpServlet {
@@ -48,10 +52,14 @@ public class ProvidersServlet extends HttpServlet {
                 .filter(OidcClient::isConfigured)
                 .map(c -> String.format(
                         "{\"" + OidcConstants.JKEY_NAME + "\": \"%s\", \"" + OidcConstants.JKEY_DISPLAY_NAME
-                                + "\": \"%s\", \"" + OidcConstants.JKEY_IMAGE_URL + "\": \"%s\"}",
+                                + "\": \"%s\", \"" + OidcConstants.JKEY_IMAGE_URL + "\": \"%s\", \""
+                                + OidcConstants.JKEY_CIRCUIT + "\": \"%s\", \"" + OidcConstants.JKEY_JWKS
+                                + "\": \"%s\"}",
                         c.getName(),
                         capitalize(c.getName()),
-                        c.imageUrl() != null ? c.imageUrl() : ""))
+                        c.imageUrl() != null ? c.imageUrl() : "",
+                        TokenEndpointGuard.forName(c.getName()).getState().name().toLowerCase(),
+                        c.isKeysDegraded() ? "degraded" : "ok"))
                 .collect(Collectors.joining(",", "[", "]"));
 
         resp.setContentType(OidcConstants.TYPE_JSON);
@@ -0,0 +1,78 @@
+/**************************************************************************
+ * Copyright 2025 Corzia AB, Sweden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **************************************************************************/
+package org.corzia.oidc.servlet;
+
+import java.io.IOException;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.session.Session;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
+import org.corzia.oidc.OidcConstants;
+import org.corzia.oidc.shiro.HybridWebSessionManager;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Lists the sessions of all tabs of the caller's browser, from the browser
+ * index of {@link HybridWebSessionManager}.
+ */
+@WebServlet("/api/session/tabs")
+public class SessionTabsServlet extends HttpServlet {
+    private static final Logger log = LoggerFactory.getLogger(SessionTabsServlet.class);
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        resp.setContentType(OidcConstants.TYPE_JSON);
+        try {
+            Session current = SecurityUtils.getSubject().getSession(false);
+            String browserId = current != null ? HybridWebSessionManager.browserIdOf(current.getId()) : null;
+
+            // Session ids and the browser id are credentials (the cookie is
+            // HttpOnly), and the principal holds personal data, so only the tab
+            // id and non-secret metadata go to page scripts
+            JSONArray tabs = new JSONArray();
+            for (Session session : HybridWebSessionManager.current().getBrowserSessions(browserId)) {
+                JSONObject tab = new JSONObject();
+                tab.put(OidcConstants.JKEY_TAB_ID, session.getAttribute(OidcConstants.ATTR_TAB_ID));
+                tab.put(OidcConstants.JKEY_AUTHENTICATED,
+                        session.getAttribute(DefaultSubjectContext.PRINCIPALS_SESSION_KEY) != null);
+                tab.put(OidcConstants.JKEY_CURRENT, session.getId().equals(current.getId()));
+                tab.put(OidcConstants.JKEY_LAST_ACCESS,
+                        session.getLastAccessTime() != null ? session.getLastAccessTime().getTime() : null);
+                tabs.put(tab);
+            }
+
+            JSONObject json = new JSONObject();
+            json.put(OidcConstants.JKEY_SUCCESS, true);
+            json.put(OidcConstants.JKEY_TABS, tabs);
+            resp.getWriter().write(json.toString());
+        } catch (Exception e) {
+            log.error("Failed to list browser tabs", e);
+            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            resp.getWriter().write("{\"" + OidcConstants.JKEY_SUCCESS + "\": false, \"" + OidcConstants.JKEY_MESSAGE
+                    + "\": \"Internal server error\"}");
+        }
+    }
+}
@@ -104,6 +104,25 @@ const OidcClient = (() => {
             });
         },
 
+        /**
+         * Lists the sessions of all tabs of this browser.
+         */
+        fetchTabs: () => secureFetch('api/session/tabs'),
+
+        /**
+         * Logs out every tab of this browser.
+         */
+        logoutAllTabs: () => {
+            const data = new URLSearchParams();
+            data.append('scope', 'browser');
+
+            return secureFetch('api/logout', {
+                method: 'POST',
+                headers: { 'Content-Type': 'application/x-www-form-urlencoded' },
+                body: data
+            });
+        },
+
         /**
          * Returns the correct Logout URL.
          */